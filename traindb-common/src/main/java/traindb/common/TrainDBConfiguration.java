@@ -68,6 +68,104 @@ public class TrainDBConfiguration extends CalciteConnectionConfigImpl {
         (String) props.getOrDefault("traindb.server.jdbc-execute", "false"));
   }
 
+  /**
+   * Returns the memory in bytes which an operator executed in the JVM may use for its hash
+   * table before it spills rows to disk.
+   */
+  public long getJdbcExecuteMemoryBudget() {
+    return Long.parseLong((String) props.getOrDefault(
+        "traindb.server.jdbc-execute.memory-budget-mb", "256")) * 1024 * 1024;
+  }
+
+  public String getJdbcExecuteSpillDirectory() {
+    return (String) props.getOrDefault("traindb.server.jdbc-execute.spill-dir",
+        System.getProperty("java.io.tmpdir"));
+  }
+
+  /**
+   * Returns the largest number of distinct join keys which are sent to the source DBMS as an
+   * IN list to filter the probe side of a join executed in the JVM. Larger key sets are sent
+   * as a key range. Zero disables the filter.
+   */
+  public int getJdbcExecuteKeyFilterMaxValues() {
+    return Integer.parseInt((String) props.getOrDefault(
+        "traindb.server.jdbc-execute.key-filter-max-values", "1000"));
+  }
+
+  /**
+   * Returns the largest number of queries, each on its own connection, which a table scan is
+   * split into when a query is executed in parallel. One disables the split.
+   */
+  public int getJdbcExecuteScanSplits() {
+    return Integer.parseInt((String) props.getOrDefault(
+        "traindb.server.jdbc-execute.scan-splits", "4"));
+  }
+
+  /**
+   * Returns the largest number of source DBMS connections which the table scans of a query
+   * executed in parallel open ahead of being read, including those of split scans.
+   */
+  public int getJdbcExecuteMaxConnectionsPerQuery() {
+    return Integer.parseInt((String) props.getOrDefault(
+        "traindb.server.jdbc-execute.max-connections-per-query", "4"));
+  }
+
+  /**
+   * Returns the largest number of partitions of an INCREMENTAL PARALLEL query which are scanned
+   * at the same time.
+   */
+  public int getIncrementalParallelism() {
+    return Integer.parseInt((String) props.getOrDefault(
+        "traindb.server.incremental.parallelism", "4"));
+  }
+
+  /**
+   * Returns the largest number of partitions of an INCREMENTAL PARALLEL query which are scanned
+   * ahead of the results fetched by the client, including those being scanned.
+   */
+  public int getIncrementalLookahead() {
+    return Integer.parseInt((String) props.getOrDefault(
+        "traindb.server.incremental.lookahead", "8"));
+  }
+
+  public int getDataSourcePoolMaxTotal() {
+    return Integer.parseInt(
+        (String) props.getOrDefault("traindb.server.datasource.pool.max-total", "8"));
+  }
+
+  public int getDataSourcePoolInitialSize() {
+    return Integer.parseInt(
+        (String) props.getOrDefault("traindb.server.datasource.pool.initial-size", "0"));
+  }
+
+  public int getDataSourcePoolMinIdle() {
+    return Integer.parseInt(
+        (String) props.getOrDefault("traindb.server.datasource.pool.min-idle", "0"));
+  }
+
+  /**
+   * Returns how long a query waits for a connection of the pool before it fails, or -1 to
+   * wait without limit.
+   */
+  public long getDataSourcePoolMaxWaitMillis() {
+    return Long.parseLong(
+        (String) props.getOrDefault("traindb.server.datasource.pool.max-wait-ms", "30000"));
+  }
+
+  /**
+   * Returns the number of rows fetched at a time by the statements which stream large results
+   * from the source DBMS.
+   */
+  public int getDataSourceFetchSize() {
+    return Integer.parseInt(
+        (String) props.getOrDefault("traindb.server.datasource.fetch-size", "1000"));
+  }
+
+  public boolean dataSourcePoolTestOnBorrow() {
+    return Boolean.parseBoolean(
+        (String) props.getOrDefault("traindb.server.datasource.pool.test-on-borrow", "true"));
+  }
+
   public static String getTrainDBPrefixPath() {
     String prefix = System.getProperty("TRAINDB_PREFIX");
     if (prefix == null) {
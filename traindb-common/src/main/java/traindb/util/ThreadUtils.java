@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ThreadUtils {
+
+  private ThreadUtils() {
+  }
+
+  /**
+   * Creates a factory of virtual threads named with the given prefix and a sequence number.
+   * Virtual threads are looked up reflectively because TrainDB is built for Java 11.
+   *
+   * @return the thread factory, or null if virtual threads are not supported
+   */
+  public static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      builder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, namePrefix, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Creates an executor that starts a new virtual thread for each task.
+   *
+   * @return the executor, or null if virtual threads are not supported
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+    ThreadFactory factory = newVirtualThreadFactory(namePrefix);
+    if (factory == null) {
+      return null;
+    }
+    try {
+      Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService) method.invoke(null, factory);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Creates a factory of daemon platform threads named with the given prefix and a sequence
+   * number.
+   */
+  public static ThreadFactory newDaemonThreadFactory(String namePrefix) {
+    AtomicInteger seq = new AtomicInteger();
+    return r -> {
+      Thread t = new Thread(r, namePrefix + seq.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    };
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.apache.calcite.jdbc.CalcitePrepare;
+import traindb.jdbc.TrainDBConnectionImpl;
+import traindb.task.TaskCoordinator;
+
+/**
+ * State shared by the operators of a query executed in the JVM by {@link JdbcRel#open}.
+ *
+ * <p>In parallel mode, the tasks of the query run on the source executor of the server, and
+ * are tracked here so that those not finished are cancelled when the query is closed. Table
+ * scans start their source query on the executor as soon as they are opened, so all the
+ * scans of a plan run concurrently while the operators above them are still being opened.
+ * Such scans hold their connections before being read, so they reserve them here first, and
+ * a scan which finds none left is opened as in serial mode.
+ */
+public final class JdbcExecutionContext implements AutoCloseable {
+  private final CalcitePrepare.Context context;
+  private final TrainDBConnectionImpl conn;
+  private final boolean parallel;
+  private final List<FutureTask<?>> tasks = new ArrayList<>();
+  // connections left for the scans of this query to open ahead of being read, guarded by this
+  private int reservableConnections;
+
+  public JdbcExecutionContext(CalcitePrepare.Context context, boolean parallel) {
+    this.context = context;
+    this.conn = (TrainDBConnectionImpl) context.getDataContext().getQueryProvider();
+    this.parallel = parallel;
+    int maxConnections = conn.cfg.getDataSourcePoolMaxTotal();
+    int perQuery = conn.cfg.getJdbcExecuteMaxConnectionsPerQuery();
+    // one connection of the pool is left for the other queries
+    this.reservableConnections = Math.max(0,
+        maxConnections > 0 ? Math.min(perQuery, maxConnections - 1) : perQuery);
+  }
+
+  public CalcitePrepare.Context getContext() {
+    return context;
+  }
+
+  public TrainDBConnectionImpl getConnection() {
+    return conn;
+  }
+
+  public TaskCoordinator getTaskCoordinator() {
+    return conn.getTaskCoordinator();
+  }
+
+  public boolean isParallel() {
+    return parallel;
+  }
+
+  /**
+   * Returns the memory in bytes which each operator may use before it spills to disk.
+   */
+  public long getMemoryBudget() {
+    return conn.cfg.getJdbcExecuteMemoryBudget();
+  }
+
+  public String getSpillDirectory() {
+    return conn.cfg.getJdbcExecuteSpillDirectory();
+  }
+
+  public int getKeyFilterMaxValues() {
+    return conn.cfg.getJdbcExecuteKeyFilterMaxValues();
+  }
+
+  /**
+   * Returns the number of queries a table scan is split into in parallel mode. One connection
+   * of the pool is left for the other scans of the query.
+   */
+  public int getScanSplits() {
+    int splits = conn.cfg.getJdbcExecuteScanSplits();
+    int maxConnections = conn.cfg.getDataSourcePoolMaxTotal();
+    return maxConnections > 0 ? Math.min(splits, maxConnections - 1) : splits;
+  }
+
+  /**
+   * Reserves up to the given number of connections for a scan of this query to open ahead of
+   * being read, and returns the number reserved, which may be 0.
+   */
+  public synchronized int reserveConnections(int wanted) {
+    int reserved = Math.min(Math.max(0, wanted), reservableConnections);
+    reservableConnections -= reserved;
+    return reserved;
+  }
+
+  public synchronized void releaseConnections(int count) {
+    reservableConnections += count;
+  }
+
+  /**
+   * Runs a task of this query on the source executor. The result must be taken with
+   * {@link #await}.
+   */
+  public <T> FutureTask<T> submit(Callable<T> callable) {
+    FutureTask<T> task = new FutureTask<>(callable);
+    synchronized (tasks) {
+      tasks.add(task);
+    }
+    getTaskCoordinator().getSourceExecutor().execute(task);
+    return task;
+  }
+
+  /**
+   * Waits for the result of a task. A task which has not started yet is run by the calling
+   * thread instead, so that tasks waiting for each other cannot use up the executor.
+   */
+  public static <T> T await(FutureTask<T> task) throws SQLException {
+    // does nothing if the task is already running or done
+    task.run();
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("interrupted while waiting for a task", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new SQLException("task failed", cause);
+    }
+  }
+
+  /**
+   * Cancels the tasks of this query which have not started yet.
+   */
+  @Override
+  public void close() {
+    synchronized (tasks) {
+      for (FutureTask<?> task : tasks) {
+        task.cancel(false);
+      }
+      tasks.clear();
+    }
+  }
+}
@@ -0,0 +1,1075 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.type.SqlTypeName;
+import traindb.common.TrainDBLogger;
+
+/**
+ * In-JVM hash aggregation of a {@link JdbcRel} input, with or without GROUP BY.
+ *
+ * <p>Input rows are read in batches. For each batch the group of every row is looked up
+ * first, then each accumulator folds the whole batch into its per-group arrays, which are
+ * typed by the aggregate function and the argument type. In parallel mode, the batches are
+ * aggregated by tasks into partial tables, which are merged when the input is exhausted.
+ *
+ * <p>If the groups outgrow the memory budget, the groups in memory stay there, and the rows
+ * of any other group are written to {@link SpillFile}s by group hash, to be aggregated one
+ * file at a time after the groups in memory are returned.
+ */
+final class JdbcHashAggregate {
+  private static final TrainDBLogger LOG = TrainDBLogger.getLogger(JdbcHashAggregate.class);
+
+  private static final int BATCH_SIZE = 4096;
+  private static final int SPILL_PARTITION_BITS = 5;
+
+  // group key of the rows of an aggregation without GROUP BY, and of null single keys
+  private static final Object EMPTY_KEY = Collections.emptyList();
+  private static final Object NULL_KEY = new Object();
+
+  enum Function {
+    COUNT,
+    SUM,
+    SUM0,
+    AVG,
+    MIN,
+    MAX,
+    VAR_POP,
+    VAR_SAMP,
+    STDDEV_POP,
+    STDDEV_SAMP,
+    COVAR_POP,
+    COVAR_SAMP,
+    CORR
+  }
+
+  enum ValueKind {
+    LONG,
+    DOUBLE,
+    DECIMAL,
+    OBJECT
+  }
+
+  private JdbcHashAggregate() {
+  }
+
+  /**
+   * Returns the function of the aggregate call, or null if it is not executed in the JVM.
+   */
+  static Function functionOf(AggregateCall aggCall) {
+    if (aggCall.isDistinct() || aggCall.distinctKeys != null) {
+      return null;
+    }
+    switch (aggCall.getAggregation().getKind()) {
+      case COUNT:
+        return Function.COUNT;
+      case SUM:
+        return Function.SUM;
+      case SUM0:
+        return Function.SUM0;
+      case AVG:
+        return Function.AVG;
+      case MIN:
+        return Function.MIN;
+      case MAX:
+        return Function.MAX;
+      case VAR_POP:
+        return Function.VAR_POP;
+      case VAR_SAMP:
+        return Function.VAR_SAMP;
+      case STDDEV_POP:
+        return Function.STDDEV_POP;
+      case STDDEV_SAMP:
+        return Function.STDDEV_SAMP;
+      case COVAR_POP:
+        // CORR is registered with the kind of COVAR_POP
+        return aggCall.getAggregation().getName().equalsIgnoreCase("corr")
+            ? Function.CORR : Function.COVAR_POP;
+      case COVAR_SAMP:
+        return Function.COVAR_SAMP;
+      default:
+        return null;
+    }
+  }
+
+  static ValueKind valueKindOf(SqlTypeName typeName) {
+    switch (typeName) {
+      case TINYINT:
+      case SMALLINT:
+      case INTEGER:
+      case BIGINT:
+        return ValueKind.LONG;
+      case REAL:
+      case FLOAT:
+      case DOUBLE:
+        return ValueKind.DOUBLE;
+      case DECIMAL:
+        return ValueKind.DECIMAL;
+      default:
+        return ValueKind.OBJECT;
+    }
+  }
+
+  /**
+   * Returns whether every aggregate call is executed in the JVM, and the input can be opened.
+   */
+  static boolean canOpen(Aggregate aggregate) {
+    for (AggregateCall aggCall : aggregate.getAggCallList()) {
+      if (functionOf(aggCall) == null) {
+        return false;
+      }
+    }
+    return ((JdbcRel) aggregate.getInput()).canOpen();
+  }
+
+  /**
+   * Opens a cursor over the aggregation, which must have a single group set.
+   *
+   * @throws UnsupportedOperationException if an aggregate call is not executed in the JVM
+   */
+  static JdbcRowCursor open(JdbcExecutionContext context, Aggregate aggregate)
+      throws SQLException {
+    RelDataType inputType = aggregate.getInput().getRowType();
+    List<AggregateCall> aggCalls = aggregate.getAggCallList();
+    Function[] functions = new Function[aggCalls.size()];
+    ValueKind[] valueKinds = new ValueKind[aggCalls.size()];
+    for (int i = 0; i < functions.length; i++) {
+      AggregateCall aggCall = aggCalls.get(i);
+      functions[i] = functionOf(aggCall);
+      if (functions[i] == null) {
+        throw new UnsupportedOperationException(aggCall.toString());
+      }
+      List<Integer> args = aggCall.getArgList();
+      valueKinds[i] = args.isEmpty() ? ValueKind.OBJECT
+          : valueKindOf(inputType.getFieldList().get(args.get(0)).getType().getSqlTypeName());
+    }
+
+    Spec spec = new Spec(aggregate.getGroupSet().toArray(), aggCalls, functions, valueKinds,
+        inputType.getFieldNames());
+    int parallelism = 1;
+    ExecutorService executor = null;
+    if (context.isParallel()) {
+      parallelism = Runtime.getRuntime().availableProcessors();
+      executor = context.getTaskCoordinator().getComputeExecutor();
+    }
+    JdbcRowCursor input = ((JdbcRel) aggregate.getInput()).open(context);
+    return new HashAggregateCursor(aggregate.getRowType().getFieldNames(), input, spec,
+        context.getMemoryBudget(), context.getSpillDirectory(), executor, parallelism);
+  }
+
+  static Object groupKey(Object[] row, int[] groupKeys) {
+    if (groupKeys.length == 0) {
+      return EMPTY_KEY;
+    } else if (groupKeys.length == 1) {
+      Object value = row[groupKeys[0]];
+      return value == null ? NULL_KEY : value;
+    }
+    Object[] values = new Object[groupKeys.length];
+    for (int k = 0; k < groupKeys.length; k++) {
+      values[k] = row[groupKeys[k]];
+    }
+    return Arrays.asList(values);
+  }
+
+  /**
+   * The group keys and the aggregate calls, from which group tables are created.
+   */
+  static final class Spec {
+    final int[] groupKeys;
+    final List<AggregateCall> aggCalls;
+    final Function[] functions;
+    final ValueKind[] valueKinds;
+    final List<String> inputColumnNames;
+
+    Spec(int[] groupKeys, List<AggregateCall> aggCalls, Function[] functions,
+         ValueKind[] valueKinds, List<String> inputColumnNames) {
+      this.groupKeys = groupKeys;
+      this.aggCalls = aggCalls;
+      this.functions = functions;
+      this.valueKinds = valueKinds;
+      this.inputColumnNames = inputColumnNames;
+    }
+
+    Accumulator[] newAccumulators() {
+      Accumulator[] accs = new Accumulator[functions.length];
+      for (int i = 0; i < accs.length; i++) {
+        AggregateCall aggCall = aggCalls.get(i);
+        int[] args = aggCall.getArgList().stream().mapToInt(Integer::intValue).toArray();
+        accs[i] = newAccumulator(functions[i], valueKinds[i], args, aggCall.filterArg);
+      }
+      return accs;
+    }
+
+    private static Accumulator newAccumulator(Function function, ValueKind valueKind,
+                                              int[] args, int filterArg) {
+      switch (function) {
+        case COUNT:
+          return new CountAccumulator(args, filterArg);
+        case SUM:
+        case SUM0:
+          boolean zeroIfEmpty = function == Function.SUM0;
+          if (valueKind == ValueKind.LONG) {
+            return new LongSumAccumulator(args, filterArg, zeroIfEmpty);
+          } else if (valueKind == ValueKind.DOUBLE) {
+            return new DoubleSumAccumulator(args, filterArg, zeroIfEmpty);
+          }
+          return new DecimalSumAccumulator(args, filterArg, zeroIfEmpty);
+        case AVG:
+          return new AvgAccumulator(args, filterArg);
+        case MIN:
+        case MAX:
+          boolean max = function == Function.MAX;
+          if (valueKind == ValueKind.LONG) {
+            return new LongMinMaxAccumulator(args, filterArg, max);
+          } else if (valueKind == ValueKind.DOUBLE) {
+            return new DoubleMinMaxAccumulator(args, filterArg, max);
+          }
+          return new ObjectMinMaxAccumulator(args, filterArg, max);
+        case VAR_POP:
+        case VAR_SAMP:
+        case STDDEV_POP:
+        case STDDEV_SAMP:
+          return new MomentAccumulator(args, filterArg, function);
+        default:
+          return new CovarianceAccumulator(args, filterArg, function);
+      }
+    }
+  }
+
+  /**
+   * Groups and their accumulators. The accumulators keep their state in arrays indexed by
+   * the group id.
+   */
+  static final class GroupTable {
+    private final Spec spec;
+    private final Map<Object, Integer> ids = new HashMap<>();
+    private Object[] keys = new Object[16];
+    private Object[][] keyValues = new Object[16][];
+    final Accumulator[] accs;
+    int size;
+    // shared by the tables of an aggregation to estimate the memory they take
+    private final AtomicLong memoryUsed;
+    private int[] batchGroups = new int[0];
+
+    GroupTable(Spec spec, AtomicLong memoryUsed) {
+      this.spec = spec;
+      this.accs = spec.newAccumulators();
+      this.memoryUsed = memoryUsed;
+    }
+
+    boolean contains(Object key) {
+      return ids.containsKey(key);
+    }
+
+    private int groupOf(Object key, Object[] values) {
+      Integer id = ids.get(key);
+      if (id != null) {
+        return id;
+      }
+      int g = size++;
+      if (g == keys.length) {
+        keys = Arrays.copyOf(keys, g * 2);
+        keyValues = Arrays.copyOf(keyValues, g * 2);
+      }
+      keys[g] = key;
+      keyValues[g] = values;
+      for (Accumulator acc : accs) {
+        acc.ensureCapacity(size);
+      }
+      ids.put(key, g);
+      if (memoryUsed != null) {
+        memoryUsed.addAndGet(SpillFile.estimateRowSize(values) + 32L * accs.length);
+      }
+      return g;
+    }
+
+    private int groupOfRow(Object[] row) {
+      int[] groupKeys = spec.groupKeys;
+      Object key = groupKey(row, groupKeys);
+      Integer id = ids.get(key);
+      if (id != null) {
+        return id;
+      }
+      Object[] values = new Object[groupKeys.length];
+      for (int k = 0; k < groupKeys.length; k++) {
+        values[k] = row[groupKeys[k]];
+      }
+      return groupOf(key, values);
+    }
+
+    void addBatch(Object[][] rows, int n) {
+      if (batchGroups.length < n) {
+        batchGroups = new int[n];
+      }
+      for (int i = 0; i < n; i++) {
+        batchGroups[i] = groupOfRow(rows[i]);
+      }
+      for (Accumulator acc : accs) {
+        acc.addBatch(batchGroups, rows, n);
+      }
+    }
+
+    void merge(GroupTable other) {
+      for (int g = 0; g < other.size; g++) {
+        int target = groupOf(other.keys[g], other.keyValues[g]);
+        for (int j = 0; j < accs.length; j++) {
+          accs[j].merge(target, other.accs[j], g);
+        }
+      }
+    }
+
+    /**
+     * Adds the group of an aggregation without GROUP BY, which has a row even if the input
+     * is empty.
+     */
+    void ensureEmptyGroup() {
+      groupOf(EMPTY_KEY, new Object[0]);
+    }
+
+    Object[] row(int g) {
+      Object[] values = keyValues[g];
+      Object[] row = Arrays.copyOf(values, values.length + accs.length);
+      for (int j = 0; j < accs.length; j++) {
+        row[values.length + j] = accs[j].result(g);
+      }
+      return row;
+    }
+  }
+
+  /**
+   * State of an aggregate function for each group of a table.
+   */
+  abstract static class Accumulator {
+    final int[] args;
+    final int filterArg;
+
+    Accumulator(int[] args, int filterArg) {
+      this.args = args;
+      this.filterArg = filterArg;
+    }
+
+    final void addBatch(int[] groups, Object[][] rows, int n) {
+      for (int i = 0; i < n; i++) {
+        Object[] row = rows[i];
+        if (filterArg >= 0 && !Boolean.TRUE.equals(row[filterArg])) {
+          continue;
+        }
+        add(groups[i], row);
+      }
+    }
+
+    abstract void ensureCapacity(int groups);
+
+    abstract void add(int g, Object[] row);
+
+    abstract void merge(int g, Accumulator other, int otherGroup);
+
+    abstract Object result(int g);
+
+    static int newCapacity(int capacity, int required) {
+      return Math.max(Math.max(capacity * 2, 16), required);
+    }
+  }
+
+  static final class CountAccumulator extends Accumulator {
+    private long[] counts = new long[0];
+
+    CountAccumulator(int[] args, int filterArg) {
+      super(args, filterArg);
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (groups > counts.length) {
+        counts = Arrays.copyOf(counts, newCapacity(counts.length, groups));
+      }
+    }
+
+    @Override
+    void add(int g, Object[] row) {
+      for (int arg : args) {
+        if (row[arg] == null) {
+          return;
+        }
+      }
+      counts[g]++;
+    }
+
+    @Override
+    void merge(int g, Accumulator other, int otherGroup) {
+      counts[g] += ((CountAccumulator) other).counts[otherGroup];
+    }
+
+    @Override
+    Object result(int g) {
+      return counts[g];
+    }
+  }
+
+  /**
+   * Base of the accumulators of a single argument, which ignore nulls.
+   */
+  abstract static class UnaryAccumulator extends Accumulator {
+    long[] counts = new long[0];
+
+    UnaryAccumulator(int[] args, int filterArg) {
+      super(args, filterArg);
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (groups > counts.length) {
+        int capacity = newCapacity(counts.length, groups);
+        counts = Arrays.copyOf(counts, capacity);
+        grow(capacity);
+      }
+    }
+
+    abstract void grow(int capacity);
+
+    @Override
+    final void add(int g, Object[] row) {
+      Object value = row[args[0]];
+      if (value != null) {
+        counts[g]++;
+        addValue(g, value);
+      }
+    }
+
+    abstract void addValue(int g, Object value);
+
+    @Override
+    final void merge(int g, Accumulator other, int otherGroup) {
+      UnaryAccumulator o = (UnaryAccumulator) other;
+      if (o.counts[otherGroup] == 0) {
+        return;
+      }
+      boolean first = counts[g] == 0;
+      counts[g] += o.counts[otherGroup];
+      mergeValue(g, o, otherGroup, first);
+    }
+
+    abstract void mergeValue(int g, UnaryAccumulator other, int otherGroup, boolean first);
+  }
+
+  static final class LongSumAccumulator extends UnaryAccumulator {
+    private final boolean zeroIfEmpty;
+    private long[] sums = new long[0];
+
+    LongSumAccumulator(int[] args, int filterArg, boolean zeroIfEmpty) {
+      super(args, filterArg);
+      this.zeroIfEmpty = zeroIfEmpty;
+    }
+
+    @Override
+    void grow(int capacity) {
+      sums = Arrays.copyOf(sums, capacity);
+    }
+
+    @Override
+    void addValue(int g, Object value) {
+      sums[g] += ((Number) value).longValue();
+    }
+
+    @Override
+    void mergeValue(int g, UnaryAccumulator other, int otherGroup, boolean first) {
+      sums[g] += ((LongSumAccumulator) other).sums[otherGroup];
+    }
+
+    @Override
+    Object result(int g) {
+      return counts[g] > 0 || zeroIfEmpty ? (Object) sums[g] : null;
+    }
+  }
+
+  static final class DoubleSumAccumulator extends UnaryAccumulator {
+    private final boolean zeroIfEmpty;
+    private double[] sums = new double[0];
+
+    DoubleSumAccumulator(int[] args, int filterArg, boolean zeroIfEmpty) {
+      super(args, filterArg);
+      this.zeroIfEmpty = zeroIfEmpty;
+    }
+
+    @Override
+    void grow(int capacity) {
+      sums = Arrays.copyOf(sums, capacity);
+    }
+
+    @Override
+    void addValue(int g, Object value) {
+      sums[g] += ((Number) value).doubleValue();
+    }
+
+    @Override
+    void mergeValue(int g, UnaryAccumulator other, int otherGroup, boolean first) {
+      sums[g] += ((DoubleSumAccumulator) other).sums[otherGroup];
+    }
+
+    @Override
+    Object result(int g) {
+      return counts[g] > 0 || zeroIfEmpty ? (Object) sums[g] : null;
+    }
+  }
+
+  static final class DecimalSumAccumulator extends UnaryAccumulator {
+    private final boolean zeroIfEmpty;
+    private BigDecimal[] sums = new BigDecimal[0];
+
+    DecimalSumAccumulator(int[] args, int filterArg, boolean zeroIfEmpty) {
+      super(args, filterArg);
+      this.zeroIfEmpty = zeroIfEmpty;
+    }
+
+    @Override
+    void grow(int capacity) {
+      int from = sums.length;
+      sums = Arrays.copyOf(sums, capacity);
+      Arrays.fill(sums, from, capacity, BigDecimal.ZERO);
+    }
+
+    @Override
+    void addValue(int g, Object value) {
+      sums[g] = sums[g].add(toBigDecimal(value));
+    }
+
+    @Override
+    void mergeValue(int g, UnaryAccumulator other, int otherGroup, boolean first) {
+      sums[g] = sums[g].add(((DecimalSumAccumulator) other).sums[otherGroup]);
+    }
+
+    @Override
+    Object result(int g) {
+      return counts[g] > 0 || zeroIfEmpty ? sums[g] : null;
+    }
+  }
+
+  static BigDecimal toBigDecimal(Object value) {
+    if (value instanceof BigDecimal) {
+      return (BigDecimal) value;
+    } else if (value instanceof Long || value instanceof Integer
+        || value instanceof Short || value instanceof Byte) {
+      return BigDecimal.valueOf(((Number) value).longValue());
+    } else if (value instanceof BigInteger) {
+      return new BigDecimal((BigInteger) value);
+    }
+    return BigDecimal.valueOf(((Number) value).doubleValue());
+  }
+
+  static final class AvgAccumulator extends UnaryAccumulator {
+    private double[] sums = new double[0];
+
+    AvgAccumulator(int[] args, int filterArg) {
+      super(args, filterArg);
+    }
+
+    @Override
+    void grow(int capacity) {
+      sums = Arrays.copyOf(sums, capacity);
+    }
+
+    @Override
+    void addValue(int g, Object value) {
+      sums[g] += ((Number) value).doubleValue();
+    }
+
+    @Override
+    void mergeValue(int g, UnaryAccumulator other, int otherGroup, boolean first) {
+      sums[g] += ((AvgAccumulator) other).sums[otherGroup];
+    }
+
+    @Override
+    Object result(int g) {
+      return counts[g] > 0 ? (Object) (sums[g] / counts[g]) : null;
+    }
+  }
+
+  static final class LongMinMaxAccumulator extends UnaryAccumulator {
+    private final boolean max;
+    private long[] values = new long[0];
+
+    LongMinMaxAccumulator(int[] args, int filterArg, boolean max) {
+      super(args, filterArg);
+      this.max = max;
+    }
+
+    @Override
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    void addValue(int g, Object value) {
+      accept(g, ((Number) value).longValue(), counts[g] == 1);
+    }
+
+    private void accept(int g, long v, boolean first) {
+      if (first || (max ? v > values[g] : v < values[g])) {
+        values[g] = v;
+      }
+    }
+
+    @Override
+    void mergeValue(int g, UnaryAccumulator other, int otherGroup, boolean first) {
+      accept(g, ((LongMinMaxAccumulator) other).values[otherGroup], first);
+    }
+
+    @Override
+    Object result(int g) {
+      return counts[g] > 0 ? (Object) values[g] : null;
+    }
+  }
+
+  static final class DoubleMinMaxAccumulator extends UnaryAccumulator {
+    private final boolean max;
+    private double[] values = new double[0];
+
+    DoubleMinMaxAccumulator(int[] args, int filterArg, boolean max) {
+      super(args, filterArg);
+      this.max = max;
+    }
+
+    @Override
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    void addValue(int g, Object value) {
+      accept(g, ((Number) value).doubleValue(), counts[g] == 1);
+    }
+
+    private void accept(int g, double v, boolean first) {
+      if (first || (max ? v > values[g] : v < values[g])) {
+        values[g] = v;
+      }
+    }
+
+    @Override
+    void mergeValue(int g, UnaryAccumulator other, int otherGroup, boolean first) {
+      accept(g, ((DoubleMinMaxAccumulator) other).values[otherGroup], first);
+    }
+
+    @Override
+    Object result(int g) {
+      return counts[g] > 0 ? (Object) values[g] : null;
+    }
+  }
+
+  static final class ObjectMinMaxAccumulator extends UnaryAccumulator {
+    private final boolean max;
+    private Object[] values = new Object[0];
+
+    ObjectMinMaxAccumulator(int[] args, int filterArg, boolean max) {
+      super(args, filterArg);
+      this.max = max;
+    }
+
+    @Override
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    void addValue(int g, Object value) {
+      accept(g, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void accept(int g, Object v) {
+      if (values[g] == null) {
+        values[g] = v;
+        return;
+      }
+      int c = ((Comparable<Object>) v).compareTo(values[g]);
+      if (max ? c > 0 : c < 0) {
+        values[g] = v;
+      }
+    }
+
+    @Override
+    void mergeValue(int g, UnaryAccumulator other, int otherGroup, boolean first) {
+      accept(g, ((ObjectMinMaxAccumulator) other).values[otherGroup]);
+    }
+
+    @Override
+    Object result(int g) {
+      return values[g];
+    }
+  }
+
+  /**
+   * Variance and standard deviation from the count, mean and sum of squared differences
+   * from the mean, updated by Welford's method and merged by Chan's formula.
+   */
+  static final class MomentAccumulator extends UnaryAccumulator {
+    private final Function function;
+    private double[] means = new double[0];
+    private double[] m2s = new double[0];
+
+    MomentAccumulator(int[] args, int filterArg, Function function) {
+      super(args, filterArg);
+      this.function = function;
+    }
+
+    @Override
+    void grow(int capacity) {
+      means = Arrays.copyOf(means, capacity);
+      m2s = Arrays.copyOf(m2s, capacity);
+    }
+
+    @Override
+    void addValue(int g, Object value) {
+      double x = ((Number) value).doubleValue();
+      double delta = x - means[g];
+      means[g] += delta / counts[g];
+      m2s[g] += delta * (x - means[g]);
+    }
+
+    @Override
+    void mergeValue(int g, UnaryAccumulator other, int otherGroup, boolean first) {
+      MomentAccumulator o = (MomentAccumulator) other;
+      long n2 = o.counts[otherGroup];
+      long n1 = counts[g] - n2;
+      double delta = o.means[otherGroup] - means[g];
+      means[g] += delta * n2 / counts[g];
+      m2s[g] += o.m2s[otherGroup] + delta * delta * n1 * n2 / counts[g];
+    }
+
+    @Override
+    Object result(int g) {
+      long n = counts[g];
+      boolean sample = function == Function.VAR_SAMP || function == Function.STDDEV_SAMP;
+      if (n == 0 || (sample && n == 1)) {
+        return null;
+      }
+      double variance = m2s[g] / (sample ? n - 1 : n);
+      boolean stddev = function == Function.STDDEV_POP || function == Function.STDDEV_SAMP;
+      return stddev ? Math.sqrt(variance) : variance;
+    }
+  }
+
+  /**
+   * Covariance and correlation of two arguments over the rows where both are not null.
+   */
+  static final class CovarianceAccumulator extends Accumulator {
+    private final Function function;
+    private long[] counts = new long[0];
+    private double[] meanXs = new double[0];
+    private double[] meanYs = new double[0];
+    private double[] comoments = new double[0];
+    private double[] m2Xs = new double[0];
+    private double[] m2Ys = new double[0];
+
+    CovarianceAccumulator(int[] args, int filterArg, Function function) {
+      super(args, filterArg);
+      this.function = function;
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (groups > counts.length) {
+        int capacity = newCapacity(counts.length, groups);
+        counts = Arrays.copyOf(counts, capacity);
+        meanXs = Arrays.copyOf(meanXs, capacity);
+        meanYs = Arrays.copyOf(meanYs, capacity);
+        comoments = Arrays.copyOf(comoments, capacity);
+        m2Xs = Arrays.copyOf(m2Xs, capacity);
+        m2Ys = Arrays.copyOf(m2Ys, capacity);
+      }
+    }
+
+    @Override
+    void add(int g, Object[] row) {
+      Object vx = row[args[0]];
+      Object vy = row[args[1]];
+      if (vx == null || vy == null) {
+        return;
+      }
+      double x = ((Number) vx).doubleValue();
+      double y = ((Number) vy).doubleValue();
+      long n = ++counts[g];
+      double dx = x - meanXs[g];
+      double dy = y - meanYs[g];
+      meanXs[g] += dx / n;
+      meanYs[g] += dy / n;
+      comoments[g] += dx * (y - meanYs[g]);
+      m2Xs[g] += dx * (x - meanXs[g]);
+      m2Ys[g] += dy * (y - meanYs[g]);
+    }
+
+    @Override
+    void merge(int g, Accumulator other, int otherGroup) {
+      CovarianceAccumulator o = (CovarianceAccumulator) other;
+      long n2 = o.counts[otherGroup];
+      if (n2 == 0) {
+        return;
+      }
+      long n1 = counts[g];
+      long n = n1 + n2;
+      double dx = o.meanXs[otherGroup] - meanXs[g];
+      double dy = o.meanYs[otherGroup] - meanYs[g];
+      double f = (double) n1 * n2 / n;
+      comoments[g] += o.comoments[otherGroup] + dx * dy * f;
+      m2Xs[g] += o.m2Xs[otherGroup] + dx * dx * f;
+      m2Ys[g] += o.m2Ys[otherGroup] + dy * dy * f;
+      meanXs[g] += dx * n2 / n;
+      meanYs[g] += dy * n2 / n;
+      counts[g] = n;
+    }
+
+    @Override
+    Object result(int g) {
+      long n = counts[g];
+      switch (function) {
+        case COVAR_POP:
+          return n == 0 ? null : (Object) (comoments[g] / n);
+        case COVAR_SAMP:
+          return n <= 1 ? null : (Object) (comoments[g] / (n - 1));
+        default:
+          double denominator = Math.sqrt(m2Xs[g] * m2Ys[g]);
+          return n == 0 || denominator == 0 ? null : (Object) (comoments[g] / denominator);
+      }
+    }
+  }
+
+  private static final class HashAggregateCursor implements JdbcRowCursor {
+    private final List<String> columnNames;
+    private final JdbcRowCursor input;
+    private final Spec spec;
+    private final long memoryBudget;
+    private final String spillDirectory;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    private boolean aggregated;
+    private GroupTable table;
+    private int pos;
+    private Object[] row;
+
+    // the groups in memory once spilling starts, and the rows of the other groups
+    private GroupTable resident;
+    private SpillFile[] spillFiles;
+    private int spillPartition = -1;
+
+    HashAggregateCursor(List<String> columnNames, JdbcRowCursor input, Spec spec,
+                        long memoryBudget, String spillDirectory, ExecutorService executor,
+                        int parallelism) {
+      this.columnNames = columnNames;
+      this.input = input;
+      this.spec = spec;
+      this.memoryBudget = memoryBudget;
+      this.spillDirectory = spillDirectory;
+      this.executor = executor;
+      this.parallelism = parallelism;
+    }
+
+    @Override
+    public List<String> getColumnNames() {
+      return columnNames;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      if (!aggregated) {
+        aggregated = true;
+        table = executor == null ? aggregate() : aggregateInParallel();
+        if (spec.groupKeys.length == 0) {
+          table.ensureEmptyGroup();
+        }
+      }
+      while (pos == table.size) {
+        if (!nextSpillPartition()) {
+          row = null;
+          return false;
+        }
+      }
+      row = table.row(pos++);
+      return true;
+    }
+
+    @Override
+    public Object getValue(int index) {
+      return row[index];
+    }
+
+    // reads the next batch of input rows, leaving out and spilling the rows of groups which
+    // are not in memory
+    private int readBatch(Object[][] batch) throws SQLException {
+      int n = 0;
+      int columnCount = spec.inputColumnNames.size();
+      while (n < batch.length && input.next()) {
+        Object[] r = JdbcRowCursor.copyRow(input, columnCount);
+        if (resident != null) {
+          Object key = groupKey(r, spec.groupKeys);
+          if (!resident.contains(key)) {
+            spillFiles[spillPartition(key)].write(r);
+            continue;
+          }
+        }
+        batch[n++] = r;
+      }
+      return n;
+    }
+
+    private GroupTable aggregate() throws SQLException {
+      GroupTable result = new GroupTable(spec, memoryUsed);
+      Object[][] batch = new Object[BATCH_SIZE][];
+      while (true) {
+        int n = readBatch(batch);
+        if (n == 0) {
+          return result;
+        }
+        result.addBatch(batch, n);
+        if (resident == null && memoryUsed.get() > memoryBudget) {
+          startSpilling(result);
+        }
+      }
+    }
+
+    private GroupTable aggregateInParallel() throws SQLException {
+      GroupTable result = new GroupTable(spec, memoryUsed);
+      BlockingQueue<GroupTable> free = new ArrayBlockingQueue<>(parallelism);
+      for (int i = 0; i < parallelism; i++) {
+        free.add(new GroupTable(spec, memoryUsed));
+      }
+      AtomicReference<Throwable> failure = new AtomicReference<>();
+      while (true) {
+        Object[][] batch = new Object[BATCH_SIZE][];
+        int n = readBatch(batch);
+        if (n == 0) {
+          break;
+        }
+        // wait for a partial table which no task is using
+        GroupTable partial = take(free, failure);
+        executor.execute(() -> {
+          try {
+            partial.addBatch(batch, n);
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          } finally {
+            free.add(partial);
+          }
+        });
+        if (resident == null && memoryUsed.get() > memoryBudget) {
+          mergePartials(result, free, failure);
+          startSpilling(result);
+        }
+      }
+      mergePartials(result, free, failure);
+      return result;
+    }
+
+    // waits for all tasks, merges their partial tables and replaces them with empty ones
+    private void mergePartials(GroupTable result, BlockingQueue<GroupTable> free,
+                               AtomicReference<Throwable> failure) throws SQLException {
+      List<GroupTable> partials = new ArrayList<>(parallelism);
+      for (int i = 0; i < parallelism; i++) {
+        partials.add(take(free, failure));
+      }
+      for (GroupTable partial : partials) {
+        result.merge(partial);
+        free.add(new GroupTable(spec, memoryUsed));
+      }
+    }
+
+    private static GroupTable take(BlockingQueue<GroupTable> free,
+                                   AtomicReference<Throwable> failure) throws SQLException {
+      GroupTable partial;
+      try {
+        partial = free.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("interrupted while aggregating", e);
+      }
+      Throwable t = failure.get();
+      if (t != null) {
+        throw new SQLException("failed to aggregate", t);
+      }
+      return partial;
+    }
+
+    private void startSpilling(GroupTable result) throws SQLException {
+      LOG.info("aggregation exceeds the memory budget of " + memoryBudget
+          + " bytes with " + result.size + " groups; spilling to " + spillDirectory);
+      resident = result;
+      spillFiles = JdbcHashJoin.createSpillFiles(spillDirectory, spec.inputColumnNames);
+    }
+
+    private static int spillPartition(Object key) {
+      int hash = JdbcHashJoin.hashInt(key.hashCode());
+      return (hash >>> 16) & ((1 << SPILL_PARTITION_BITS) - 1);
+    }
+
+    // aggregates the rows of the next non-empty spill file
+    private boolean nextSpillPartition() throws SQLException {
+      if (spillFiles == null) {
+        return false;
+      }
+      while (++spillPartition < spillFiles.length) {
+        SpillFile file = spillFiles[spillPartition];
+        spillFiles[spillPartition] = null;
+        try {
+          if (file.getRowCount() == 0) {
+            continue;
+          }
+          GroupTable result = new GroupTable(spec, null);
+          Object[][] batch = new Object[BATCH_SIZE][];
+          try (JdbcRowCursor c = file.read()) {
+            int n = 0;
+            while (c.next()) {
+              batch[n++] = JdbcRowCursor.copyRow(c, spec.inputColumnNames.size());
+              if (n == batch.length) {
+                result.addBatch(batch, n);
+                n = 0;
+              }
+            }
+            result.addBatch(batch, n);
+          }
+          table = result;
+          pos = 0;
+          return true;
+        } finally {
+          file.close();
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void close() {
+      input.close();
+      JdbcHashJoin.closeAll(spillFiles, 0);
+    }
+  }
+}
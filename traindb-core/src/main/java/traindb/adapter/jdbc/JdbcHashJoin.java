@@ -0,0 +1,943 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.type.SqlTypeName;
+import traindb.common.TrainDBLogger;
+
+/**
+ * In-JVM hash join of two {@link JdbcRel} inputs on equi-join keys.
+ *
+ * <p>The rows of the build side are read into 2^n partitions chosen by the high bits of the
+ * key hash, and each partition gets its own open-addressing table whose slots point to chains
+ * of rows with equal keys. As the partitions are independent, their tables are built in
+ * parallel, and the probe rows, read in batches, are grouped by partition and probed in
+ * parallel. A single key of integer types is compared as a primitive int or long.
+ *
+ * <p>Rows of the preserved side of an outer join which match no row are returned padded with
+ * nulls. Unmatched build rows are returned after the probe side is exhausted.
+ *
+ * <p>If the build side outgrows the memory budget, the join falls back to a grace hash join:
+ * both sides are split by key hash into {@link SpillFile}s, and each pair of files is joined
+ * in memory in turn.
+ */
+final class JdbcHashJoin {
+  private static final TrainDBLogger LOG = TrainDBLogger.getLogger(JdbcHashJoin.class);
+
+  private static final int PROBE_BATCH_SIZE = 4096;
+  private static final int MIN_PARALLEL_BATCH_SIZE = 256;
+  private static final int MAX_PARTITION_BITS = 6;
+  private static final int SPILL_PARTITION_BITS = 5;
+  // how many times larger the probe side must be estimated to be filtered by the build keys
+  private static final double KEY_FILTER_MIN_SIZE_RATIO = 10;
+
+  enum KeyKind {
+    INT,
+    LONG,
+    OBJECT
+  }
+
+  private JdbcHashJoin() {
+  }
+
+  /**
+   * Opens a cursor over the join. The join must be an equi-join of JdbcRel inputs.
+   *
+   * @param buildLeft whether the hash tables are built on the left input
+   */
+  static JdbcRowCursor open(JdbcExecutionContext context, Join join, JoinInfo joinInfo,
+                            boolean buildLeft) throws SQLException {
+    JdbcRel left = (JdbcRel) join.getLeft();
+    JdbcRel right = (JdbcRel) join.getRight();
+    JdbcRel buildRel = buildLeft ? left : right;
+    JdbcRel probeRel = buildLeft ? right : left;
+    int[] buildKeys = (buildLeft ? joinInfo.leftKeys : joinInfo.rightKeys).toIntArray();
+    int[] probeKeys = (buildLeft ? joinInfo.rightKeys : joinInfo.leftKeys).toIntArray();
+    KeyKind kind = keyKind(left.getRowType(), right.getRowType(), joinInfo);
+
+    // a LEFT join generates nulls on the right, so it preserves the left
+    JoinRelType joinType = join.getJoinType();
+    boolean preserveLeft = joinType.generatesNullsOnRight();
+    boolean preserveRight = joinType.generatesNullsOnLeft();
+
+    int parallelism = 1;
+    int partitionBits = 0;
+    ExecutorService computeExecutor = null;
+    if (context.isParallel()) {
+      parallelism = Runtime.getRuntime().availableProcessors();
+      partitionBits = Math.min(MAX_PARTITION_BITS,
+          32 - Integer.numberOfLeadingZeros(parallelism * 4 - 1));
+      computeExecutor = context.getTaskCoordinator().getComputeExecutor();
+    }
+
+    BuildSide build = new BuildSide(kind, buildKeys, buildRel.getRowType().getFieldNames(),
+        partitionBits, buildLeft ? preserveLeft : preserveRight, context.getMemoryBudget(),
+        context.getSpillDirectory());
+    // open the build side here, so that an input which cannot be executed fails right away
+    JdbcRowCursor buildCursor = buildRel.open(context);
+    FutureTask<BuildSide> buildTask = null;
+    JdbcRowCursor probe;
+    try {
+      if (filtersProbe(join, buildRel, probeRel, buildLeft ? preserveRight : preserveLeft,
+          context)) {
+        // load the build side first, so that the probe scan reads only rows with its keys
+        build.load(buildCursor, computeExecutor, parallelism);
+        SqlNode condition = build.isSpilled() ? null : JdbcKeyFilter.create(build,
+            probeRel.getRowType().getFieldList(), probeKeys,
+            context.getKeyFilterMaxValues());
+        if (condition != null) {
+          LOG.debug("probe scan filtered by " + condition);
+        }
+        probe = ((JdbcTableScan) probeRel).open(context, condition);
+      } else if (computeExecutor != null) {
+        // read the build side on another thread while the probe side is being opened
+        final ExecutorService executor = computeExecutor;
+        final int threads = parallelism;
+        buildTask = context.submit(() -> build.load(buildCursor, executor, threads));
+        probe = probeRel.open(context);
+      } else {
+        build.load(buildCursor, null, 1);
+        probe = probeRel.open(context);
+      }
+    } catch (SQLException | RuntimeException e) {
+      build.abort();
+      if (buildTask == null || buildTask.cancel(false)) {
+        buildCursor.close();
+      }
+      throw e;
+    }
+
+    return new HashJoinCursor(join.getRowType().getFieldNames(), probe,
+        probeRel.getRowType().getFieldNames(), probeKeys, kind,
+        build, buildCursor, buildTask, buildLeft,
+        left.getRowType().getFieldCount(), buildLeft ? preserveRight : preserveLeft,
+        computeExecutor, parallelism);
+  }
+
+  /**
+   * Returns whether the probe side is a table scan worth filtering by the keys of the build
+   * side. The probe scan then waits for the build side to be loaded, instead of running
+   * concurrently with it, which pays off when the build side is much smaller.
+   */
+  private static boolean filtersProbe(Join join, JdbcRel buildRel, JdbcRel probeRel,
+                                      boolean preserveProbe, JdbcExecutionContext context) {
+    if (preserveProbe || !(probeRel instanceof JdbcTableScan)
+        || context.getKeyFilterMaxValues() <= 0) {
+      return false;
+    }
+    RelMetadataQuery mq = join.getCluster().getMetadataQuery();
+    Double buildRows = mq.getRowCount(buildRel);
+    Double probeRows = mq.getRowCount(probeRel);
+    return buildRows != null && probeRows != null
+        && buildRows * KEY_FILTER_MIN_SIZE_RATIO <= probeRows;
+  }
+
+  static KeyKind keyKind(RelDataType leftType, RelDataType rightType, JoinInfo joinInfo) {
+    if (joinInfo.leftKeys.size() != 1) {
+      return KeyKind.OBJECT;
+    }
+    SqlTypeName leftKeyType =
+        leftType.getFieldList().get(joinInfo.leftKeys.get(0)).getType().getSqlTypeName();
+    SqlTypeName rightKeyType =
+        rightType.getFieldList().get(joinInfo.rightKeys.get(0)).getType().getSqlTypeName();
+    if (!isIntegerType(leftKeyType) || !isIntegerType(rightKeyType)) {
+      return KeyKind.OBJECT;
+    }
+    return leftKeyType == SqlTypeName.BIGINT || rightKeyType == SqlTypeName.BIGINT
+        ? KeyKind.LONG : KeyKind.INT;
+  }
+
+  private static boolean isIntegerType(SqlTypeName typeName) {
+    switch (typeName) {
+      case TINYINT:
+      case SMALLINT:
+      case INTEGER:
+      case BIGINT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  static int hashInt(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 15);
+  }
+
+  static int hashLong(long key) {
+    return hashInt((int) (key ^ (key >>> 32)));
+  }
+
+  // returns null if any key column is null, as such a row matches no row
+  static Object objectKey(Object[] row, int[] keys) {
+    if (keys.length == 1) {
+      return keyValue(row[keys[0]]);
+    }
+    Object[] values = new Object[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      values[i] = keyValue(row[keys[i]]);
+      if (values[i] == null) {
+        return null;
+      }
+    }
+    return Arrays.asList(values);
+  }
+
+  /*
+   * Returns the value compared by equals and hashCode in place of a key column value. The
+   * two sides may read equal numbers as different types or scales, like INTEGER and BIGINT,
+   * or a DECIMAL 1.0 and 1.00, so whole numbers become Long, and others BigDecimal without
+   * trailing zeros.
+   */
+  static Object keyValue(Object value) {
+    if (value instanceof Integer || value instanceof Long || value instanceof Short
+        || value instanceof Byte) {
+      return ((Number) value).longValue();
+    } else if (value instanceof BigDecimal) {
+      BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+      if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() < 19) {
+        return decimal.longValue();
+      }
+      return decimal;
+    } else if (value instanceof Double || value instanceof Float) {
+      double d = ((Number) value).doubleValue();
+      // NaN and infinities have no BigDecimal
+      return Double.isFinite(d) ? keyValue(BigDecimal.valueOf(d)) : d;
+    }
+    return value;
+  }
+
+  // returns the spill file of the row, chosen by hash bits not used by the in-memory partitions
+  static int spillPartition(KeyKind kind, Object[] row, int[] keys) {
+    int hash;
+    if (kind == KeyKind.OBJECT) {
+      Object key = objectKey(row, keys);
+      if (key == null) {
+        return 0;
+      }
+      hash = hashInt(key.hashCode());
+    } else {
+      Object value = row[keys[0]];
+      if (value == null) {
+        return 0;
+      }
+      hash = kind == KeyKind.INT
+          ? hashInt(((Number) value).intValue()) : hashLong(((Number) value).longValue());
+    }
+    return (hash >>> 16) & ((1 << SPILL_PARTITION_BITS) - 1);
+  }
+
+  static SpillFile[] createSpillFiles(String directory, List<String> columnNames)
+      throws SQLException {
+    SpillFile[] files = new SpillFile[1 << SPILL_PARTITION_BITS];
+    try {
+      for (int i = 0; i < files.length; i++) {
+        files[i] = SpillFile.create(directory, columnNames);
+      }
+    } catch (SQLException e) {
+      closeAll(files, 0);
+      throw e;
+    }
+    return files;
+  }
+
+  static void closeAll(SpillFile[] files, int from) {
+    if (files == null) {
+      return;
+    }
+    for (int i = from; i < files.length; i++) {
+      if (files[i] != null) {
+        files[i].close();
+        files[i] = null;
+      }
+    }
+  }
+
+  /**
+   * Rows of the build side, partitioned by key hash. If the rows outgrow the memory budget,
+   * they are all moved to spill files instead.
+   */
+  static final class BuildSide {
+    final KeyKind kind;
+    final int[] keys;
+    final List<String> columnNames;
+    final int partitionBits;
+    final boolean trackMatches;
+    private final long memoryBudget;
+    private final String spillDirectory;
+    Partition[] partitions;
+    // rows with a null key, which are only kept to be returned unmatched
+    final List<Object[]> nullKeyRows = new ArrayList<>();
+    private long memoryUsed;
+    SpillFile[] spillFiles;
+    private volatile boolean aborted;
+    private boolean loaded;
+
+    BuildSide(KeyKind kind, int[] keys, List<String> columnNames, int partitionBits,
+              boolean trackMatches, long memoryBudget, String spillDirectory) {
+      this.kind = kind;
+      this.keys = keys;
+      this.columnNames = columnNames;
+      this.partitionBits = partitionBits;
+      this.trackMatches = trackMatches;
+      this.memoryBudget = memoryBudget;
+      this.spillDirectory = spillDirectory;
+      this.partitions = newPartitions();
+    }
+
+    private Partition[] newPartitions() {
+      Partition[] p = new Partition[1 << partitionBits];
+      for (int i = 0; i < p.length; i++) {
+        p[i] = new Partition(kind);
+      }
+      return p;
+    }
+
+    boolean isSpilled() {
+      return spillFiles != null;
+    }
+
+    Partition partitionOf(int hash) {
+      return partitions[partitionBits == 0 ? 0 : hash >>> (32 - partitionBits)];
+    }
+
+    /**
+     * Reads and closes the cursor, then builds the hash tables of the partitions.
+     */
+    BuildSide load(JdbcRowCursor cursor, ExecutorService executor, int parallelism)
+        throws SQLException {
+      try (JdbcRowCursor c = cursor) {
+        int columnCount = columnNames.size();
+        while (c.next()) {
+          if (aborted) {
+            throw new SQLException("hash join is closed");
+          }
+          Object[] row = JdbcRowCursor.copyRow(c, columnCount);
+          if (spillFiles != null) {
+            spill(row);
+            continue;
+          }
+          add(row);
+          memoryUsed += SpillFile.estimateRowSize(row);
+          if (memoryUsed > memoryBudget) {
+            startSpilling();
+          }
+        }
+      } catch (SQLException | RuntimeException e) {
+        closeAll(spillFiles, 0);
+        throw e;
+      }
+      if (spillFiles == null) {
+        buildTables(executor, parallelism);
+      }
+      synchronized (this) {
+        if (aborted) {
+          closeAll(spillFiles, 0);
+        }
+        loaded = true;
+      }
+      return this;
+    }
+
+    /**
+     * Stops loading rows, and deletes the spill files now or once loading stops.
+     */
+    synchronized void abort() {
+      aborted = true;
+      if (loaded) {
+        closeAll(spillFiles, 0);
+      }
+    }
+
+    private void startSpilling() throws SQLException {
+      LOG.info("hash join build side exceeds the memory budget of " + memoryBudget
+          + " bytes; spilling to " + spillDirectory);
+      spillFiles = createSpillFiles(spillDirectory, columnNames);
+      for (Partition partition : partitions) {
+        for (int i = 0; i < partition.size; i++) {
+          spill(partition.rows[i]);
+        }
+      }
+      for (Object[] row : nullKeyRows) {
+        spill(row);
+      }
+      partitions = newPartitions();
+      nullKeyRows.clear();
+      memoryUsed = 0;
+    }
+
+    private void spill(Object[] row) throws SQLException {
+      spillFiles[spillPartition(kind, row, keys)].write(row);
+    }
+
+    /**
+     * Reads the rows of a spill file into a new build side held in memory, and deletes the
+     * file.
+     */
+    BuildSide loadSpillFile(int index, ExecutorService executor, int parallelism)
+        throws SQLException {
+      SpillFile file = spillFiles[index];
+      spillFiles[index] = null;
+      try {
+        // a spill file is joined in memory even if it alone exceeds the budget
+        BuildSide build = new BuildSide(kind, keys, columnNames, partitionBits, trackMatches,
+            Long.MAX_VALUE, spillDirectory);
+        return build.load(file.read(), executor, parallelism);
+      } finally {
+        file.close();
+      }
+    }
+
+    void add(Object[] row) {
+      if (kind == KeyKind.OBJECT) {
+        Object key = objectKey(row, keys);
+        if (key == null) {
+          addNullKeyRow(row);
+        } else {
+          int hash = hashInt(key.hashCode());
+          partitionOf(hash).addObject(row, hash, key);
+        }
+        return;
+      }
+
+      Object value = row[keys[0]];
+      if (value == null) {
+        addNullKeyRow(row);
+      } else if (kind == KeyKind.INT) {
+        int key = ((Number) value).intValue();
+        int hash = hashInt(key);
+        partitionOf(hash).addLong(row, hash, key);
+      } else {
+        long key = ((Number) value).longValue();
+        int hash = hashLong(key);
+        partitionOf(hash).addLong(row, hash, key);
+      }
+    }
+
+    private void addNullKeyRow(Object[] row) {
+      if (trackMatches) {
+        nullKeyRows.add(row);
+      }
+    }
+
+    private void buildTables(ExecutorService executor, int parallelism) throws SQLException {
+      if (executor == null || partitions.length == 1) {
+        for (Partition partition : partitions) {
+          partition.buildTable(trackMatches);
+        }
+        return;
+      }
+
+      List<Callable<Void>> tasks = new ArrayList<>(parallelism);
+      for (int t = 0; t < parallelism; t++) {
+        final int first = t;
+        tasks.add(() -> {
+          for (int p = first; p < partitions.length; p += parallelism) {
+            partitions[p].buildTable(trackMatches);
+          }
+          return null;
+        });
+      }
+      invokeAll(executor, tasks);
+    }
+  }
+
+  /**
+   * A partition of the build side and its hash table. INT keys are kept in the long array.
+   */
+  static final class Partition {
+    private final KeyKind kind;
+    int size;
+    Object[][] rows = new Object[8][];
+    private int[] hashes = new int[8];
+    private long[] longKeys;
+    private Object[] objectKeys;
+    // heads[slot] is 1 + the last row added with the key of the slot, or 0 if the slot is empty
+    private int[] heads;
+    // next[row] is the previous row with the same key, or -1
+    int[] next;
+    private int mask;
+    boolean[] matched;
+
+    Partition(KeyKind kind) {
+      this.kind = kind;
+      if (kind == KeyKind.OBJECT) {
+        objectKeys = new Object[8];
+      } else {
+        longKeys = new long[8];
+      }
+    }
+
+    private void ensureCapacity() {
+      if (size == rows.length) {
+        int capacity = size * 2;
+        rows = Arrays.copyOf(rows, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        if (longKeys != null) {
+          longKeys = Arrays.copyOf(longKeys, capacity);
+        } else {
+          objectKeys = Arrays.copyOf(objectKeys, capacity);
+        }
+      }
+    }
+
+    void addLong(Object[] row, int hash, long key) {
+      ensureCapacity();
+      rows[size] = row;
+      hashes[size] = hash;
+      longKeys[size] = key;
+      size++;
+    }
+
+    void addObject(Object[] row, int hash, Object key) {
+      ensureCapacity();
+      rows[size] = row;
+      hashes[size] = hash;
+      objectKeys[size] = key;
+      size++;
+    }
+
+    void buildTable(boolean trackMatches) {
+      // at least twice as many slots as rows
+      int capacity = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+      heads = new int[capacity];
+      mask = capacity - 1;
+      next = new int[size];
+      for (int i = 0; i < size; i++) {
+        int slot = hashes[i] & mask;
+        while (true) {
+          int head = heads[slot];
+          if (head == 0 || sameKey(head - 1, i)) {
+            next[i] = head - 1;
+            heads[slot] = i + 1;
+            break;
+          }
+          slot = (slot + 1) & mask;
+        }
+      }
+      if (trackMatches) {
+        matched = new boolean[size];
+      }
+    }
+
+    private boolean sameKey(int r1, int r2) {
+      if (kind == KeyKind.OBJECT) {
+        return hashes[r1] == hashes[r2] && objectKeys[r1].equals(objectKeys[r2]);
+      }
+      return longKeys[r1] == longKeys[r2];
+    }
+
+    /**
+     * Returns the last row with the key, or -1. The other rows follow through {@link #next}.
+     */
+    int findLong(int hash, long key) {
+      int slot = hash & mask;
+      while (true) {
+        int head = heads[slot];
+        if (head == 0) {
+          return -1;
+        }
+        if (longKeys[head - 1] == key) {
+          return head - 1;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    int findObject(int hash, Object key) {
+      int slot = hash & mask;
+      while (true) {
+        int head = heads[slot];
+        if (head == 0) {
+          return -1;
+        }
+        if (hashes[head - 1] == hash && objectKeys[head - 1].equals(key)) {
+          return head - 1;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+  }
+
+  /**
+   * Pairs of probe and build rows to return; either row is null if padded with nulls.
+   */
+  private static final class Output {
+    Object[][] probeRows = new Object[16][];
+    Object[][] buildRows = new Object[16][];
+    int size;
+
+    void add(Object[] probeRow, Object[] buildRow) {
+      if (size == probeRows.length) {
+        probeRows = Arrays.copyOf(probeRows, size * 2);
+        buildRows = Arrays.copyOf(buildRows, size * 2);
+      }
+      probeRows[size] = probeRow;
+      buildRows[size] = buildRow;
+      size++;
+    }
+
+    void addAll(Output other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.probeRows[i], other.buildRows[i]);
+      }
+    }
+
+    void clear() {
+      Arrays.fill(probeRows, 0, size, null);
+      Arrays.fill(buildRows, 0, size, null);
+      size = 0;
+    }
+  }
+
+  static final class HashJoinCursor implements JdbcRowCursor {
+    private final List<String> columnNames;
+    private JdbcRowCursor probe;
+    private final List<String> probeColumnNames;
+    private final int[] probeKeys;
+    private final KeyKind kind;
+    private final boolean buildLeft;
+    private final int leftColumnCount;
+    private final boolean preserveProbe;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    private BuildSide build;
+    // the task loading the build side, until it is awaited
+    private FutureTask<BuildSide> buildTask;
+    private final JdbcRowCursor buildCursor;
+    private boolean started;
+
+    // set if the build side is spilled; the files are joined one pair at a time
+    private BuildSide spilledBuild;
+    private SpillFile[] probeSpillFiles;
+    private int spillPartition;
+
+    // the current batch of probe rows
+    private final Object[][] batch = new Object[PROBE_BATCH_SIZE][];
+    private final int[] batchHashes = new int[PROBE_BATCH_SIZE];
+    private final long[] batchLongKeys = new long[PROBE_BATCH_SIZE];
+    private final Object[] batchObjectKeys = new Object[PROBE_BATCH_SIZE];
+    private final boolean[] batchNullKeys = new boolean[PROBE_BATCH_SIZE];
+    private final int[] order = new int[PROBE_BATCH_SIZE];
+
+    private final Output output = new Output();
+    private int outputPos;
+    private Object[] probeRow;
+    private Object[] buildRow;
+
+    private boolean probeDone;
+    private int unmatchedPartition;
+    private int unmatchedRow;
+
+    HashJoinCursor(List<String> columnNames, JdbcRowCursor probe, List<String> probeColumnNames,
+                   int[] probeKeys, KeyKind kind, BuildSide build, JdbcRowCursor buildCursor,
+                   FutureTask<BuildSide> buildTask, boolean buildLeft, int leftColumnCount,
+                   boolean preserveProbe, ExecutorService executor, int parallelism) {
+      this.columnNames = columnNames;
+      this.probe = probe;
+      this.probeColumnNames = probeColumnNames;
+      this.probeKeys = probeKeys;
+      this.kind = kind;
+      this.build = build;
+      this.buildCursor = buildCursor;
+      this.buildTask = buildTask;
+      this.buildLeft = buildLeft;
+      this.leftColumnCount = leftColumnCount;
+      this.preserveProbe = preserveProbe;
+      this.executor = executor;
+      this.parallelism = parallelism;
+    }
+
+    @Override
+    public List<String> getColumnNames() {
+      return columnNames;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      if (!started) {
+        started = true;
+        if (buildTask != null) {
+          JdbcExecutionContext.await(buildTask);
+          buildTask = null;
+        }
+        if (build.isSpilled()) {
+          spillProbeSide();
+        }
+      }
+      while (outputPos == output.size) {
+        output.clear();
+        outputPos = 0;
+        if (!fill()) {
+          return false;
+        }
+      }
+      probeRow = output.probeRows[outputPos];
+      buildRow = output.buildRows[outputPos];
+      outputPos++;
+      return true;
+    }
+
+    @Override
+    public Object getValue(int index) {
+      Object[] row;
+      if (index < leftColumnCount) {
+        row = buildLeft ? buildRow : probeRow;
+      } else {
+        row = buildLeft ? probeRow : buildRow;
+        index -= leftColumnCount;
+      }
+      return row == null ? null : row[index];
+    }
+
+    // fills the output with the next rows; returns false if there are no more rows
+    private boolean fill() throws SQLException {
+      while (true) {
+        if (!probeDone) {
+          int n = readBatch();
+          if (n > 0) {
+            probeBatch(n);
+            return true;
+          }
+          probeDone = true;
+        }
+        if (build.trackMatches) {
+          addUnmatchedBuildRows();
+          if (output.size > 0) {
+            return true;
+          }
+        }
+        if (!nextSpillPartition()) {
+          return false;
+        }
+      }
+    }
+
+    // writes the probe side to spill files split like those of the build side
+    private void spillProbeSide() throws SQLException {
+      spilledBuild = build;
+      probeSpillFiles = createSpillFiles(spilledBuild.spillDirectory, probeColumnNames);
+      try (JdbcRowCursor c = probe) {
+        while (c.next()) {
+          Object[] row = JdbcRowCursor.copyRow(c, probeColumnNames.size());
+          // rows with a null key match no row; keep them only to be returned unmatched
+          if (preserveProbe || objectKey(row, probeKeys) != null) {
+            probeSpillFiles[spillPartition(kind, row, probeKeys)].write(row);
+          }
+        }
+      }
+      LOG.debug("spilled hash join probe side to " + probeSpillFiles.length + " files");
+      spillPartition = -1;
+      probeDone = true;
+      build = new BuildSide(kind, spilledBuild.keys, spilledBuild.columnNames,
+          spilledBuild.partitionBits, false, Long.MAX_VALUE, null);
+      probe = null;
+    }
+
+    private boolean nextSpillPartition() throws SQLException {
+      if (spilledBuild == null || spillPartition + 1 == probeSpillFiles.length) {
+        return false;
+      }
+      spillPartition++;
+      if (probe != null) {
+        probe.close();
+      }
+      build = spilledBuild.loadSpillFile(spillPartition, executor, parallelism);
+      probe = probeSpillFiles[spillPartition].read();
+      probeDone = false;
+      unmatchedPartition = 0;
+      unmatchedRow = 0;
+      return true;
+    }
+
+    private int readBatch() throws SQLException {
+      int n = 0;
+      while (n < PROBE_BATCH_SIZE && probe.next()) {
+        Object[] row = JdbcRowCursor.copyRow(probe, probeColumnNames.size());
+        batch[n] = row;
+        if (kind == KeyKind.OBJECT) {
+          Object key = objectKey(row, probeKeys);
+          batchNullKeys[n] = key == null;
+          batchObjectKeys[n] = key;
+          batchHashes[n] = key == null ? 0 : hashInt(key.hashCode());
+        } else {
+          Object value = row[probeKeys[0]];
+          batchNullKeys[n] = value == null;
+          if (value != null) {
+            long key = kind == KeyKind.INT
+                ? ((Number) value).intValue() : ((Number) value).longValue();
+            batchLongKeys[n] = key;
+            batchHashes[n] = kind == KeyKind.INT ? hashInt((int) key) : hashLong(key);
+          }
+        }
+        n++;
+      }
+      return n;
+    }
+
+    private void probeBatch(int n) throws SQLException {
+      Partition[] partitions = build.partitions;
+      if (executor == null || partitions.length == 1 || n < MIN_PARALLEL_BATCH_SIZE) {
+        for (int i = 0; i < n; i++) {
+          order[i] = i;
+        }
+        probeRows(0, n, output);
+        return;
+      }
+
+      // group the rows by partition, so that each partition is probed by a single task
+      int[] starts = new int[partitions.length + 1];
+      for (int i = 0; i < n; i++) {
+        starts[partitionIndex(i) + 1]++;
+      }
+      for (int p = 0; p < partitions.length; p++) {
+        starts[p + 1] += starts[p];
+      }
+      int[] offsets = Arrays.copyOf(starts, partitions.length);
+      for (int i = 0; i < n; i++) {
+        order[offsets[partitionIndex(i)]++] = i;
+      }
+
+      List<Output> outputs = new ArrayList<>(parallelism);
+      List<Callable<Void>> tasks = new ArrayList<>(parallelism);
+      int rowsPerTask = (n + parallelism - 1) / parallelism;
+      int from = 0;
+      for (int p = 1; p <= partitions.length; p++) {
+        if (starts[p] - from >= rowsPerTask || p == partitions.length) {
+          final int start = from;
+          final int end = starts[p];
+          if (end > start) {
+            final Output out = new Output();
+            outputs.add(out);
+            tasks.add(() -> {
+              probeRows(start, end, out);
+              return null;
+            });
+          }
+          from = end;
+        }
+      }
+      invokeAll(executor, tasks);
+      for (Output out : outputs) {
+        output.addAll(out);
+      }
+    }
+
+    private int partitionIndex(int i) {
+      if (batchNullKeys[i]) {
+        return 0;
+      }
+      return batchHashes[i] >>> (32 - build.partitionBits);
+    }
+
+    private void probeRows(int from, int to, Output out) {
+      for (int i = from; i < to; i++) {
+        int r = order[i];
+        Object[] row = batch[r];
+        boolean found = false;
+        if (!batchNullKeys[r]) {
+          Partition partition = build.partitionOf(batchHashes[r]);
+          int m = kind == KeyKind.OBJECT
+              ? partition.findObject(batchHashes[r], batchObjectKeys[r])
+              : partition.findLong(batchHashes[r], batchLongKeys[r]);
+          found = m >= 0;
+          for (; m >= 0; m = partition.next[m]) {
+            out.add(row, partition.rows[m]);
+            if (partition.matched != null) {
+              partition.matched[m] = true;
+            }
+          }
+        }
+        if (!found && preserveProbe) {
+          out.add(row, null);
+        }
+        batch[r] = null;
+        batchObjectKeys[r] = null;
+      }
+    }
+
+    private void addUnmatchedBuildRows() {
+      Partition[] partitions = build.partitions;
+      while (output.size < PROBE_BATCH_SIZE && unmatchedPartition < partitions.length) {
+        Partition partition = partitions[unmatchedPartition];
+        if (unmatchedRow < partition.size) {
+          if (!partition.matched[unmatchedRow]) {
+            output.add(null, partition.rows[unmatchedRow]);
+          }
+          unmatchedRow++;
+        } else {
+          unmatchedPartition++;
+          unmatchedRow = 0;
+        }
+      }
+      List<Object[]> nullKeyRows = build.nullKeyRows;
+      while (output.size < PROBE_BATCH_SIZE && unmatchedPartition == partitions.length
+          && unmatchedRow < nullKeyRows.size()) {
+        output.add(null, nullKeyRows.get(unmatchedRow++));
+      }
+    }
+
+    @Override
+    public void close() {
+      if (buildTask != null) {
+        build.abort();
+        if (buildTask.cancel(false)) {
+          // the task never started, so the build cursor is still open
+          buildCursor.close();
+        }
+        buildTask = null;
+      }
+      if (probe != null) {
+        probe.close();
+      }
+      BuildSide spilled = spilledBuild != null ? spilledBuild : build;
+      if (spilled != null) {
+        closeAll(spilled.spillFiles, 0);
+      }
+      closeAll(probeSpillFiles, 0);
+    }
+  }
+
+  private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks)
+      throws SQLException {
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("interrupted while joining", e);
+    } catch (ExecutionException e) {
+      throw new SQLException("failed to join", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Condition on the join keys of the probe side of a hash join, derived from the keys of the
+ * build side and added to the source query of the probe table scan.
+ *
+ * <p>Each key column is restricted to the distinct keys of the build side with an IN list if
+ * there are few of them, or else to the range of the keys if they are numbers. A composite
+ * key is restricted column by column, which lets through some rows that match no row, but
+ * never drops one that does. Rows whose key is null match no row and are dropped too.
+ */
+final class JdbcKeyFilter {
+  private JdbcKeyFilter() {
+  }
+
+  /**
+   * Returns the condition on the probe table for the keys loaded in the build side, or null
+   * if no key column can be restricted.
+   *
+   * @param probeFields columns of the probe table
+   * @param maxValues largest number of keys of a column which are sent as an IN list
+   */
+  static @Nullable SqlNode create(JdbcHashJoin.BuildSide build,
+                                  List<RelDataTypeField> probeFields, int[] probeKeys,
+                                  int maxValues) {
+    SqlNode condition = null;
+    for (int k = 0; k < probeKeys.length; k++) {
+      RelDataTypeField field = probeFields.get(probeKeys[k]);
+      SqlNode columnCondition = columnCondition(build, build.keys[k], field, maxValues);
+      if (columnCondition == null) {
+        continue;
+      }
+      condition = condition == null ? columnCondition
+          : SqlStdOperatorTable.AND.createCall(SqlParserPos.ZERO, condition, columnCondition);
+    }
+    return condition;
+  }
+
+  private static @Nullable SqlNode columnCondition(JdbcHashJoin.BuildSide build, int buildKey,
+                                                   RelDataTypeField field, int maxValues) {
+    SqlTypeName typeName = field.getType().getSqlTypeName();
+    boolean numeric = SqlTypeName.EXACT_TYPES.contains(typeName);
+    if (!numeric && !SqlTypeName.CHAR_TYPES.contains(typeName)) {
+      // other types have no portable literal, or compare differently in the JVM
+      return null;
+    }
+
+    Set<Object> values = new HashSet<>();
+    BigDecimal min = null;
+    BigDecimal max = null;
+    for (JdbcHashJoin.Partition partition : build.partitions) {
+      for (int i = 0; i < partition.size; i++) {
+        Object value = partition.rows[i][buildKey];
+        if (value == null) {
+          continue;
+        }
+        if (values.size() <= maxValues) {
+          values.add(value);
+        }
+        if (numeric) {
+          BigDecimal number = JdbcHashAggregate.toBigDecimal(value);
+          min = min == null || number.compareTo(min) < 0 ? number : min;
+          max = max == null || number.compareTo(max) > 0 ? number : max;
+        } else if (values.size() > maxValues) {
+          // strings have no range which the source DBMS is sure to compare alike
+          return null;
+        }
+      }
+    }
+    if (values.isEmpty()) {
+      return null;
+    }
+
+    SqlIdentifier column = new SqlIdentifier(field.getName(), SqlParserPos.ZERO);
+    if (values.size() > maxValues) {
+      // not BETWEEN, which Calcite writes as BETWEEN ASYMMETRIC
+      return SqlStdOperatorTable.AND.createCall(SqlParserPos.ZERO,
+          SqlStdOperatorTable.GREATER_THAN_OR_EQUAL.createCall(SqlParserPos.ZERO, column,
+              literal(min, true)),
+          SqlStdOperatorTable.LESS_THAN_OR_EQUAL.createCall(SqlParserPos.ZERO, column,
+              literal(max, true)));
+    }
+    List<SqlNode> literals = new ArrayList<>(values.size());
+    for (Object value : values) {
+      literals.add(literal(value, numeric));
+    }
+    if (literals.size() == 1) {
+      return SqlStdOperatorTable.EQUALS.createCall(SqlParserPos.ZERO, column, literals.get(0));
+    }
+    return SqlStdOperatorTable.IN.createCall(SqlParserPos.ZERO, column,
+        new SqlNodeList(literals, SqlParserPos.ZERO));
+  }
+
+  private static SqlLiteral literal(Object value, boolean numeric) {
+    if (numeric) {
+      return SqlLiteral.createExactNumeric(
+          JdbcHashAggregate.toBigDecimal(value).toPlainString(), SqlParserPos.ZERO);
+    }
+    return SqlLiteral.createCharString(value.toString(), SqlParserPos.ZERO);
+  }
+}
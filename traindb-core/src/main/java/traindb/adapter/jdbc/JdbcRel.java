@@ -16,6 +16,8 @@
  */
 package traindb.adapter.jdbc;
 
+import java.sql.SQLException;
+import org.apache.calcite.jdbc.CalcitePrepare;
 import org.apache.calcite.rel.RelNode;
 
 import traindb.engine.TrainDBListResultSet;
@@ -25,5 +27,39 @@ import traindb.engine.TrainDBListResultSet;
  */
 public interface JdbcRel extends RelNode {
   JdbcImplementor.Result implement(JdbcImplementor implementor);
-  TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context);
+
+  /**
+   * Returns whether this expression and its inputs can be executed in the JVM by
+   * {@link #open}.
+   */
+  default boolean canOpen() {
+    return false;
+  }
+
+  /**
+   * Opens a cursor which executes this expression in the JVM, pulling rows from its inputs.
+   *
+   * @throws UnsupportedOperationException if this expression cannot be executed in the JVM,
+   *     which {@link #canOpen} tells beforehand
+   */
+  default JdbcRowCursor open(JdbcExecutionContext context) throws SQLException {
+    throw new UnsupportedOperationException(getRelTypeName() + " cannot be executed in the JVM");
+  }
+
+  /**
+   * Executes this expression in the JVM and returns all of its rows, or null if it cannot be
+   * executed in the JVM. If parallel is set, as by the PARALLEL hint of the query, the tasks
+   * of the query run on the executors of the server.
+   */
+  default TrainDBListResultSet execute(CalcitePrepare.Context context, boolean parallel) {
+    if (!canOpen()) {
+      return null;
+    }
+    try (JdbcExecutionContext executionContext = new JdbcExecutionContext(context, parallel);
+         JdbcRowCursor cursor = open(executionContext)) {
+      return JdbcRowCursor.materialize(cursor, getRowType());
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import java.io.StringReader;
+import java.lang.reflect.Modifier;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.adapter.enumerable.RexToLixTranslator;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.avatica.util.ByteString;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.MemberDeclaration;
+import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLocalRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexProgram;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.runtime.SqlFunctions;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.validate.SqlConformanceEnum;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.CompilerFactoryFactory;
+import org.codehaus.commons.compiler.IClassBodyEvaluator;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Evaluates the condition and projections of a {@link RexProgram} over the rows of a
+ * {@link JdbcRowCursor}, for the filters, projections and calcs executed in the JVM.
+ *
+ * <p>The program is translated to Java with the code generator of the enumerable convention
+ * and compiled by Janino into a class which evaluates one row per call, without interpreting
+ * the expression tree. Compiled classes are cached by their source, so a query executed again
+ * does not compile again.
+ *
+ * <p>Cursors return values as read from JDBC, such as {@link java.sql.Date}, whereas the
+ * generated code works on the internal representation of Calcite, such as the number of days
+ * since the epoch, so the referenced columns are converted on the way in and the computed
+ * columns on the way out. Projections which only reorder input columns skip the generated
+ * code and read the input values as they are.
+ */
+final class JdbcRexEvaluator {
+  private static final Cache<String, Class<?>> CLASS_CACHE =
+      CacheBuilder.newBuilder().maximumSize(256).softValues().build();
+
+  /**
+   * Code generated for a program. Public so that the generated class, which is loaded by its
+   * own class loader, can implement it.
+   */
+  public interface Body {
+    boolean filter(DataContext root, Object[] input);
+
+    void project(DataContext root, Object[] input, Object[] output);
+  }
+
+  private final @Nullable Body body;
+  private final boolean hasCondition;
+  private final int[] inputColumns;
+  private final SqlTypeName[] inputTypes;
+  private final int inputCount;
+  // input column of each output column, or null if some output column is computed
+  private final int @Nullable [] mapping;
+  private final SqlTypeName[] outputTypes;
+
+  private JdbcRexEvaluator(@Nullable Body body, boolean hasCondition, int[] inputColumns,
+                           SqlTypeName[] inputTypes, int inputCount,
+                           int @Nullable [] mapping, SqlTypeName[] outputTypes) {
+    this.body = body;
+    this.hasCondition = hasCondition;
+    this.inputColumns = inputColumns;
+    this.inputTypes = inputTypes;
+    this.inputCount = inputCount;
+    this.mapping = mapping;
+    this.outputTypes = outputTypes;
+  }
+
+  /**
+   * Compiles a program whose input has the row type of the program.
+   */
+  static JdbcRexEvaluator compile(RexProgram program, RelDataTypeFactory typeFactory) {
+    JavaTypeFactory javaTypeFactory = typeFactory instanceof JavaTypeFactory
+        ? (JavaTypeFactory) typeFactory
+        : new JavaTypeFactoryImpl(typeFactory.getTypeSystem());
+    RelDataType inputRowType = program.getInputRowType();
+    RelDataType outputRowType = program.getOutputRowType();
+
+    int[] mapping = new int[program.getProjectList().size()];
+    for (int i = 0; i < mapping.length; i++) {
+      RexNode project = program.expandLocalRef(program.getProjectList().get(i));
+      if (!(project instanceof RexInputRef)) {
+        mapping = null;
+        break;
+      }
+      mapping[i] = ((RexInputRef) project).getIndex();
+    }
+
+    RexLocalRef condition = program.getCondition();
+    ImmutableBitSet.Builder used = ImmutableBitSet.builder();
+    if (condition != null) {
+      used.addAll(RelOptUtil.InputFinder.bits(program.expandLocalRef(condition)));
+    }
+    if (mapping == null) {
+      for (RexLocalRef project : program.getProjectList()) {
+        used.addAll(RelOptUtil.InputFinder.bits(program.expandLocalRef(project)));
+      }
+    }
+    int[] inputColumns = used.build().toArray();
+    List<RelDataTypeField> inputFields = inputRowType.getFieldList();
+    SqlTypeName[] inputTypes = new SqlTypeName[inputColumns.length];
+    for (int i = 0; i < inputColumns.length; i++) {
+      inputTypes[i] = inputFields.get(inputColumns[i]).getType().getSqlTypeName();
+    }
+    List<RelDataTypeField> outputFields = outputRowType.getFieldList();
+    SqlTypeName[] outputTypes = new SqlTypeName[outputFields.size()];
+    for (int i = 0; i < outputTypes.length; i++) {
+      outputTypes[i] = outputFields.get(i).getType().getSqlTypeName();
+    }
+
+    // a projection which only reorders columns needs no code
+    Body body = condition == null && mapping != null
+        ? null : newBody(generate(program, javaTypeFactory, mapping == null));
+    return new JdbcRexEvaluator(body, condition != null, inputColumns, inputTypes,
+        inputFields.size(), mapping, outputTypes);
+  }
+
+  private static String generate(RexProgram program, JavaTypeFactory typeFactory,
+                                 boolean computesColumns) {
+    final ParameterExpression root = Expressions.parameter(DataContext.class, "root");
+    final ParameterExpression input = Expressions.parameter(Object[].class, "input");
+    final ParameterExpression output = Expressions.parameter(Object[].class, "output");
+    final PhysType inputPhysType = PhysTypeImpl.of(typeFactory, program.getInputRowType(),
+        JavaRowFormat.ARRAY, false);
+    final RexToLixTranslator.InputGetter inputGetter =
+        new RexToLixTranslator.InputGetterImpl(input, inputPhysType);
+    final Function1<String, RexToLixTranslator.InputGetter> correlates = name -> {
+      throw new UnsupportedOperationException("correlated variables are not supported");
+    };
+
+    final List<MemberDeclaration> members = new ArrayList<>();
+    final BlockBuilder filter = new BlockBuilder();
+    if (program.getCondition() != null) {
+      Expression condition = RexToLixTranslator.translateCondition(program, typeFactory,
+          filter, inputGetter, correlates, SqlConformanceEnum.DEFAULT);
+      filter.add(Expressions.return_(null, condition));
+    } else {
+      filter.add(Expressions.return_(null, Expressions.constant(true)));
+    }
+    members.add(Expressions.methodDecl(Modifier.PUBLIC, boolean.class, "filter",
+        ImmutableList.of(root, input), filter.toBlock()));
+
+    final BlockBuilder project = new BlockBuilder();
+    if (computesColumns) {
+      final PhysType outputPhysType = PhysTypeImpl.of(typeFactory,
+          program.getOutputRowType(), JavaRowFormat.ARRAY, false);
+      List<Expression> values = RexToLixTranslator.translateProjects(program, typeFactory,
+          SqlConformanceEnum.DEFAULT, project, outputPhysType, root, inputGetter, correlates);
+      for (int i = 0; i < values.size(); i++) {
+        project.add(Expressions.statement(
+            Expressions.assign(Expressions.arrayIndex(output, Expressions.constant(i)),
+                Expressions.box(values.get(i)))));
+      }
+    }
+    members.add(Expressions.methodDecl(Modifier.PUBLIC, void.class, "project",
+        ImmutableList.of(root, input, output), project.toBlock()));
+    return Expressions.toString(members, "\n", false);
+  }
+
+  private static Body newBody(String source) {
+    try {
+      Class<?> clazz = CLASS_CACHE.get(source, () -> compileClass(source));
+      return (Body) clazz.getDeclaredConstructor().newInstance();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("failed to compile expressions:\n" + source,
+          e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("failed to instantiate compiled expressions", e);
+    }
+  }
+
+  private static Class<?> compileClass(String source) throws Exception {
+    ClassLoader classLoader = JdbcRexEvaluator.class.getClassLoader();
+    IClassBodyEvaluator cbe =
+        CompilerFactoryFactory.getDefaultCompilerFactory(classLoader).newClassBodyEvaluator();
+    cbe.setParentClassLoader(classLoader);
+    cbe.setImplementedInterfaces(new Class<?>[] {Body.class});
+    try {
+      cbe.cook(new StringReader(source));
+    } catch (CompileException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+    return cbe.getClazz();
+  }
+
+  /**
+   * Returns whether the expressions of an operator can be evaluated, as they have no
+   * correlated variables, and its input can be opened.
+   */
+  static boolean canOpen(JdbcRel rel, List<? extends RexNode> exprs) {
+    for (RexNode expr : exprs) {
+      if (RexUtil.containsCorrelation(expr)) {
+        return false;
+      }
+    }
+    return ((JdbcRel) rel.getInput(0)).canOpen();
+  }
+
+  /**
+   * Opens the input of an operator and returns a cursor over the rows which satisfy the
+   * condition of the program, with the projections of the program as columns.
+   */
+  static JdbcRowCursor open(JdbcExecutionContext context, JdbcRel rel, RexProgram program)
+      throws SQLException {
+    // compile before opening the input, so that no source query is started in vain
+    JdbcRexEvaluator evaluator = compile(program, rel.getCluster().getTypeFactory());
+    JdbcRowCursor input = ((JdbcRel) rel.getInput(0)).open(context);
+    return evaluator.new EvaluatingCursor(input, rel.getRowType().getFieldNames(),
+        context.getContext().getDataContext());
+  }
+
+  private final class EvaluatingCursor implements JdbcRowCursor {
+    private final JdbcRowCursor input;
+    private final List<String> columnNames;
+    private final DataContext root;
+    private final Object[] internalRow = new Object[inputCount];
+    private final Object[] output = new Object[outputTypes.length];
+
+    EvaluatingCursor(JdbcRowCursor input, List<String> columnNames, DataContext root) {
+      this.input = input;
+      this.columnNames = columnNames;
+      this.root = root;
+    }
+
+    @Override
+    public List<String> getColumnNames() {
+      return columnNames;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      while (input.next()) {
+        for (int i = 0; i < inputColumns.length; i++) {
+          int column = inputColumns[i];
+          internalRow[column] = toInternal(inputTypes[i], input.getValue(column));
+        }
+        if (hasCondition && !body.filter(root, internalRow)) {
+          continue;
+        }
+        if (mapping == null) {
+          body.project(root, internalRow, output);
+          for (int i = 0; i < output.length; i++) {
+            output[i] = toExternal(outputTypes[i], output[i]);
+          }
+        }
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public Object getValue(int index) throws SQLException {
+      return mapping == null ? output[index] : input.getValue(mapping[index]);
+    }
+
+    @Override
+    public void close() {
+      input.close();
+    }
+  }
+
+  /**
+   * Converts a value read from JDBC to the Java class which the generated code expects for
+   * the type.
+   */
+  static Object toInternal(SqlTypeName typeName, Object value) {
+    if (value == null) {
+      return null;
+    }
+    switch (typeName) {
+      case TINYINT:
+        return value instanceof Byte ? value : ((Number) value).byteValue();
+      case SMALLINT:
+        return value instanceof Short ? value : ((Number) value).shortValue();
+      case INTEGER:
+        return value instanceof Integer ? value : ((Number) value).intValue();
+      case BIGINT:
+        return value instanceof Long ? value : ((Number) value).longValue();
+      case REAL:
+        return value instanceof Float ? value : ((Number) value).floatValue();
+      case FLOAT:
+      case DOUBLE:
+        return value instanceof Double ? value : ((Number) value).doubleValue();
+      case DECIMAL:
+        return JdbcHashAggregate.toBigDecimal(value);
+      case BOOLEAN:
+        return value instanceof Number ? ((Number) value).intValue() != 0 : value;
+      case CHAR:
+      case VARCHAR:
+        return value.toString();
+      case BINARY:
+      case VARBINARY:
+        return value instanceof byte[] ? new ByteString((byte[]) value) : value;
+      case DATE:
+        return value instanceof java.util.Date ? SqlFunctions.toInt((java.util.Date) value)
+            : value;
+      case TIME:
+        return value instanceof Time ? SqlFunctions.toInt((Time) value) : value;
+      case TIMESTAMP:
+        return value instanceof java.util.Date ? SqlFunctions.toLong((java.util.Date) value)
+            : value;
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * Converts a value computed by the generated code back to the Java class which JDBC uses
+   * for the type.
+   */
+  static Object toExternal(SqlTypeName typeName, Object value) {
+    if (value == null) {
+      return null;
+    }
+    switch (typeName) {
+      case BINARY:
+      case VARBINARY:
+        return value instanceof ByteString ? ((ByteString) value).getBytes() : value;
+      case DATE:
+        return value instanceof Integer ? SqlFunctions.internalToDate((Integer) value) : value;
+      case TIME:
+        return value instanceof Integer ? SqlFunctions.internalToTime((Integer) value) : value;
+      case TIMESTAMP:
+        return value instanceof Long ? SqlFunctions.internalToTimestamp((Long) value) : value;
+      default:
+        return value;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import java.sql.SQLException;
+import java.util.List;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import traindb.engine.TrainDBListResultSet;
+
+/**
+ * Pull-based iterator over the rows produced by a {@link JdbcRel} operator.
+ *
+ * <p>A cursor reads its input only as far as its parent asks for rows, so rows stream from
+ * the source DBMS through the operator tree instead of being materialized at each level.
+ * The values returned by {@link #getValue(int)} are valid until the next call of
+ * {@link #next()}.
+ */
+public interface JdbcRowCursor extends AutoCloseable {
+
+  List<String> getColumnNames();
+
+  boolean next() throws SQLException;
+
+  Object getValue(int index) throws SQLException;
+
+  /**
+   * Releases the resources of this cursor and its inputs, such as source DBMS connections.
+   */
+  @Override
+  void close();
+
+  /**
+   * Copies the current row into a new array.
+   */
+  static Object[] copyRow(JdbcRowCursor cursor, int columnCount) throws SQLException {
+    Object[] row = new Object[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      row[i] = cursor.getValue(i);
+    }
+    return row;
+  }
+
+  /**
+   * Reads all remaining rows of the cursor into a result set with the given row type.
+   */
+  static TrainDBListResultSet materialize(JdbcRowCursor cursor, RelDataType rowType)
+      throws SQLException {
+    TrainDBListResultSet.Builder builder = TrainDBListResultSet.builder();
+    List<String> columnNames = cursor.getColumnNames();
+    List<RelDataTypeField> fields = rowType.getFieldList();
+    for (int i = 0; i < fields.size(); i++) {
+      builder.column(columnNames.get(i),
+          fields.get(i).getType().getSqlTypeName().getJdbcOrdinal());
+    }
+
+    int columnCount = fields.size();
+    Object[] row = new Object[columnCount];
+    while (cursor.next()) {
+      for (int i = 0; i < columnCount; i++) {
+        row[i] = cursor.getValue(i);
+      }
+      builder.addRow(row);
+    }
+    return builder.build();
+  }
+}
@@ -18,16 +18,12 @@ package traindb.adapter.jdbc;
 
 import static java.util.Objects.requireNonNull;
 
-import java.sql.Types;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.function.Consumer;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
 import org.apache.calcite.linq4j.Queryable;
 import org.apache.calcite.linq4j.tree.Expression;
 import org.apache.calcite.plan.Contexts;
@@ -53,6 +49,7 @@ import org.apache.calcite.rel.core.CorrelationId;
 import org.apache.calcite.rel.core.Filter;
 import org.apache.calcite.rel.core.Intersect;
 import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinInfo;
 import org.apache.calcite.rel.core.JoinRelType;
 import org.apache.calcite.rel.core.Minus;
 import org.apache.calcite.rel.core.Project;
@@ -65,6 +62,7 @@ import org.apache.calcite.rel.metadata.RelMdUtil;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.rel2sql.SqlImplementor;
 import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexBuilder;
 import org.apache.calcite.rex.RexCall;
 import org.apache.calcite.rex.RexInputRef;
 import org.apache.calcite.rex.RexLiteral;
@@ -74,6 +72,7 @@ import org.apache.calcite.rex.RexUtil;
 import org.apache.calcite.rex.RexVisitorImpl;
 import org.apache.calcite.schema.ModifiableTable;
 import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.SqlExplainLevel;
 import org.apache.calcite.sql.SqlFunction;
 import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.sql.SqlOperator;
@@ -91,10 +90,6 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import traindb.engine.TrainDBListResultSet;
-import traindb.jdbc.TrainDBConnectionImpl;
-import traindb.task.TableScanTask;
-import traindb.task.TaskCoordinator;
 
 /**
  * Rules and relational operators for
@@ -380,6 +375,10 @@ public class JdbcRules {
 
   /** Join operator implemented in JDBC convention. */
   public static class JdbcJoin extends Join implements JdbcRel {
+    // processing a row costs as much as transferring this many bytes
+    private static final double SOURCE_ROW_COST = 4;
+    private static final double JVM_ROW_COST = 16;
+
     /** Creates a JdbcJoin. */
     public JdbcJoin(RelOptCluster cluster, RelTraitSet traitSet,
         RelNode left, RelNode right, RexNode condition,
@@ -433,169 +432,95 @@ public class JdbcRules {
       return implementor.implement(this);
     }
 
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      TrainDBListResultSet leftResult = null;
-      TrainDBListResultSet rightResult = null;
-
-      TrainDBConnectionImpl conn = (TrainDBConnectionImpl)context.getDataContext().getQueryProvider();
-      TaskCoordinator taskCoordinator = conn.getTaskCoordinator();
-      
-      if (taskCoordinator.isParallel()) {
-          ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-          TableScanTask leftTask = new TableScanTask(context, (JdbcRel)left);
-          TableScanTask rightTask = new TableScanTask(context, (JdbcRel)right);
-
-          List<Future<TrainDBListResultSet>> results = taskCoordinator.getTableScanFutures();
-          int leftIdx = 0;
-          int rightIdx = 0;
-          synchronized(results) {
-            leftIdx = results.size();
-            results.add(executor.submit(leftTask));
-            rightIdx = results.size();
-            results.add(executor.submit(rightTask));
-          }
-
-          try {
-            leftResult = results.get(leftIdx).get();
-            rightResult = results.get(rightIdx).get();
-            
-            return hashJoin(leftResult, rightResult, leftResult.getRowCount() < rightResult.getRowCount());
-          } catch (InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-            return null;
-          } catch (ExecutionException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-            return null;
-          } finally {
-            executor.shutdown();
-          }
-          
-      } else {
-        leftResult = ((JdbcRel) left).execute(context);
-        rightResult = ((JdbcRel) right).execute(context);
-
-        return hashJoin(leftResult, rightResult, leftResult.getRowCount() < rightResult.getRowCount());
+    @Override public RelWriter explainTerms(RelWriter pw) {
+      super.explainTerms(pw);
+      // not part of the digest, as it is derived from the metadata of the inputs
+      SqlExplainLevel level = pw.getDetailLevel();
+      if (level == SqlExplainLevel.EXPPLAN_ATTRIBUTES
+          || level == SqlExplainLevel.ALL_ATTRIBUTES) {
+        RelMetadataQuery mq = getCluster().getMetadataQuery();
+        pw.item("jdbcExecute", isPushedDown(mq) ? "pushdown" : "hash join")
+            .item("pushdownCost", Math.round(getPushdownCost(mq)))
+            .item("hashJoinCost", Math.round(getHashJoinCost(mq)));
       }
+      return pw;
     }
 
-    public TrainDBListResultSet nestedJoin(TrainDBListResultSet leftResult, TrainDBListResultSet rightResult) {
-      List<List<Object>> joinResult = new ArrayList<List<Object>>();
-      List<String> header = new ArrayList<String>();
-      
-      for (int i=0 ; i < leftResult.getColumnCount()  ; i++) {
-        header.add(leftResult.getColumnName(i));
-      }
-      for (int i=0 ; i < rightResult.getColumnCount() ; i++) {
-        header.add(rightResult.getColumnName(i));
-      }
-
-      List<RexNode> operands = ((RexCall)condition).getOperands();
-      int leftIdx = ((RexInputRef)operands.get(0)).getIndex();
-      int rightIdx = ((RexInputRef)operands.get(1)).getIndex() - leftResult.getColumnCount();
-
-      while(leftResult.next()) {
-        ArrayList<Object> r = new ArrayList<>();
-        Object leftValue = leftResult.getValue(leftIdx);
-
-        for (int i=0 ; i < leftResult.getColumnCount() ; i++) {
-          r.add(leftResult.getValue(i));
-        }
-
-        while(rightResult.next()) {
-          Object rightValue = rightResult.getValue(rightIdx);
-
-          if (checkJoinCondition(leftValue, rightValue)) {
-            @SuppressWarnings("unchecked")
-            ArrayList<Object> inner = (ArrayList<Object>) r.clone( );
-
-            for (int i=0 ; i < rightResult.getColumnCount() ; i++) {
-              inner.add(rightResult.getValue(i));
-            }
-
-            joinResult.add(inner);
-          }
-        }
-
-        rightResult.rewind();
-      }
+    /**
+     * Returns whether {@link #open} sends this join to the source DBMS as a query, rather
+     * than reading both inputs and joining them in the JVM.
+     *
+     * <p>Both inputs come from the same source DBMS, which can join them without
+     * transferring them, so the join is executed in the JVM only if it is estimated to
+     * return more data than its inputs, or if the source DBMS is not estimated to be cheaper.
+     */
+    public boolean isPushedDown(RelMetadataQuery mq) {
+      return !isHashJoinSupported() || getPushdownCost(mq) <= getHashJoinCost(mq);
+    }
 
-      return new TrainDBListResultSet(header, joinResult);
+    /**
+     * Estimates the cost of joining in the source DBMS and transferring the result, in bytes
+     * transferred.
+     */
+    public double getPushdownCost(RelMetadataQuery mq) {
+      return transferSize(mq, this)
+          + SOURCE_ROW_COST * (rowCount(mq, left) + rowCount(mq, right));
     }
 
-    public TrainDBListResultSet hashJoin(TrainDBListResultSet leftResult, 
-                                         TrainDBListResultSet rightResult, boolean isLeftSmaller) {
-      List<List<Object>> joinResult = new ArrayList<List<Object>>();
-      List<String> header = new ArrayList<String>();
+    /**
+     * Estimates the cost of transferring both inputs and joining them in the JVM, in bytes
+     * transferred.
+     */
+    public double getHashJoinCost(RelMetadataQuery mq) {
+      return transferSize(mq, left) + transferSize(mq, right)
+          + JVM_ROW_COST * (rowCount(mq, left) + rowCount(mq, right) + rowCount(mq, this));
+    }
 
-      // 작은 쪽을 항상 해시 테이블로 만들기
-      TrainDBListResultSet buildResult = isLeftSmaller ? leftResult : rightResult;
-      TrainDBListResultSet probeResult = isLeftSmaller ? rightResult : leftResult;
-      
-      for (int i=0 ; i < leftResult.getColumnCount()  ; i++) {
-        header.add(leftResult.getColumnName(i));
-      }
-      for (int i=0 ; i < rightResult.getColumnCount() ; i++) {
-        header.add(rightResult.getColumnName(i));
-      }
+    private static double rowCount(RelMetadataQuery mq, RelNode rel) {
+      Double rowCount = mq.getRowCount(rel);
+      return rowCount == null ? 1 : rowCount;
+    }
 
-      List<RexNode> operands = ((RexCall)condition).getOperands();
-      int buildIdx = ((RexInputRef)operands.get(0)).getIndex();
-      int probeIdx = ((RexInputRef)operands.get(1)).getIndex() - buildResult.getColumnCount();
+    private static double transferSize(RelMetadataQuery mq, RelNode rel) {
+      Double rowSize = mq.getAverageRowSize(rel);
+      double size = rowSize == null ? 8 * rel.getRowType().getFieldCount() : rowSize;
+      return rowCount(mq, rel) * size;
+    }
 
-      HashMap<Object, List<Object>> hashTable = new HashMap<>();
-      while(buildResult.next()) {
-        ArrayList<Object> r = new ArrayList<>(buildResult.getColumnCount());
-        for (int i=0 ; i < buildResult.getColumnCount() ; i++) {
-          r.add(buildResult.getValue(i));
-        }
-        hashTable.put(buildResult.getValue(buildIdx), r);
+    private boolean isHashJoinSupported() {
+      JoinInfo joinInfo = analyzeCondition();
+      if (!joinInfo.isEqui() || joinInfo.leftKeys.isEmpty()) {
+        return false;
       }
-
-      while(probeResult.next()) {
-        Object probeValue = probeResult.getValue(probeIdx);
-
-        List<Object> matchingRow = hashTable.get(probeValue);
-
-        if (matchingRow != null) {
-          ArrayList<Object> joinRow = new ArrayList<>();
-          if (isLeftSmaller) {
-              // buildResult가 leftResult인 경우
-              joinRow.addAll(matchingRow);
-              for (int i = 0; i < probeResult.getColumnCount(); i++) {
-                  joinRow.add(probeResult.getValue(i));
-              }
-          } else {
-              // buildResult가 rightResult인 경우
-              for (int i = 0; i < probeResult.getColumnCount(); i++) {
-                  joinRow.add(probeResult.getValue(i));
-              }
-              joinRow.addAll(matchingRow);
-          }
-
-          joinResult.add(joinRow);
-        }
+      switch (joinType) {
+        case INNER:
+        case LEFT:
+        case RIGHT:
+        case FULL:
+          return true;
+        default:
+          return false;
       }
+    }
 
-      return new TrainDBListResultSet(header, joinResult);
+    @Override public boolean canOpen() {
+      // a join sent to the source DBMS does not open its inputs
+      return isPushedDown(getCluster().getMetadataQuery())
+          || ((JdbcRel) left).canOpen() && ((JdbcRel) right).canOpen();
     }
 
-    public boolean checkJoinCondition(Object lValue, Object rValue) {
-      SqlOperator op = ((RexCall)condition).getOperator();
-      switch(op.getKind()) {
-        case EQUALS:
-          return lValue.equals(rValue);
-        case IS_NOT_DISTINCT_FROM:
-        case NOT_EQUALS:
-        case GREATER_THAN:
-        case GREATER_THAN_OR_EQUAL:
-        case LESS_THAN:
-        case LESS_THAN_OR_EQUAL:
-        default:
-        throw new UnsupportedOperationException("Unimplemented");
+    @Override public JdbcRowCursor open(JdbcExecutionContext context) throws SQLException {
+      RelMetadataQuery mq = getCluster().getMetadataQuery();
+      if (isPushedDown(mq)) {
+        SqlDialect dialect = ((JdbcConvention) getConvention()).dialect;
+        String sql = new JdbcImplementor(dialect, (JavaTypeFactory) getCluster().getTypeFactory())
+            .visitRoot(this).asStatement().toSqlString(dialect).getSql();
+        return JdbcTableScan.openQuery(context, sql, getRowType().getFieldNames());
       }
+
+      // build the hash table on the side estimated to be smaller, and stream the other side
+      boolean buildLeft = mq.getRowCount(left) <= mq.getRowCount(right);
+      return JdbcHashJoin.open(context, this, analyzeCondition(), buildLeft);
     }
   }
 
@@ -649,10 +574,12 @@ public class JdbcRules {
       return implementor.implement(this);
     }
 
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      // TODO Auto-generated method stub
-      return null;
+    @Override public boolean canOpen() {
+      return JdbcRexEvaluator.canOpen(this, program.getExprList());
+    }
+
+    @Override public JdbcRowCursor open(JdbcExecutionContext context) throws SQLException {
+      return JdbcRexEvaluator.open(context, this, program);
     }
   }
 
@@ -743,35 +670,13 @@ public class JdbcRules {
       return implementor.implement(this);
     }
 
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      TrainDBListResultSet result = ((JdbcRel)input).execute(context);
-      
-      List<List<Object>> projectedResult = new ArrayList<>();
-      List<String> header = new ArrayList<>();
-      
-      for (int i = 0; i < exps.size(); i++) {
-        final RexNode exp = exps.get(i);
-        if (exp instanceof RexInputRef) {
-          header.add(i, result.getColumnName(((RexInputRef) exp).getIndex()));
-        } else {
-          return null; // not a simple projection
-        }
-      }
+    @Override public boolean canOpen() {
+      return JdbcRexEvaluator.canOpen(this, exps);
+    }
 
-      while(result.next()) {
-        final List<Object> fields = new ArrayList<>(exps.size());
-        for (int i = 0; i < exps.size(); i++) {
-          final RexNode exp = exps.get(i);
-          if (exp instanceof RexInputRef) {
-            fields.add(i, result.getValue(((RexInputRef) exp).getIndex()));
-          } else {
-            return null; // not a simple projection
-          }
-        }
-        projectedResult.add(fields);
-      }
-      return new TrainDBListResultSet(header, projectedResult);
+    @Override public JdbcRowCursor open(JdbcExecutionContext context) throws SQLException {
+      return JdbcRexEvaluator.open(context, this, RexProgram.create(getInput().getRowType(),
+          exps, null, getRowType(), getCluster().getRexBuilder()));
     }
   }
 
@@ -833,10 +738,15 @@ public class JdbcRules {
       return implementor.implement(this);
     }
 
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      // TODO Auto-generated method stub
-      return null;
+    @Override public boolean canOpen() {
+      return JdbcRexEvaluator.canOpen(this, ImmutableList.of(condition));
+    }
+
+    @Override public JdbcRowCursor open(JdbcExecutionContext context) throws SQLException {
+      final RexBuilder rexBuilder = getCluster().getRexBuilder();
+      final RelDataType inputRowType = getInput().getRowType();
+      return JdbcRexEvaluator.open(context, this, RexProgram.create(inputRowType,
+          rexBuilder.identityProjects(inputRowType), condition, getRowType(), rexBuilder));
     }
   }
 
@@ -949,176 +859,12 @@ public class JdbcRules {
       return implementor.implement(this);
     }
 
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      // TODO Auto-generated method stub
-      TrainDBListResultSet result = ((JdbcRel) input).execute(context);
-      
-      List<String> header = new ArrayList<>();
-      for (int j = 0; j < result.getColumnCount() ; j++) {
-        header.add(result.getColumnName(j));
-      }
-
-      List<List<Object>> res = new ArrayList<>();
-      List<Object> row = new ArrayList<>();
-      for ( int i=0 ; i<aggCalls.size() ; i++ ) {   
-        AggregateCall aggCall = aggCalls.get(i);
-
-        Object rValue = null;
-        switch(aggCall.getAggregation().getKind()) {
-          case COUNT:
-            rValue = result.getRowCount();
-            break;
-          case SUM:
-            rValue = executeSum(result, aggCall);
-            break;
-          case MIN:
-            rValue = executeMin(result, aggCall);
-            break;
-          case MAX:
-            rValue = executeMin(result, aggCall);
-            break;
-          default:
-          break;
-        }
-
-        row.add(rValue);
-      }
-      res.add(row);
-
-      return new TrainDBListResultSet(header, res);
-    }
-
-    public int executeSum(TrainDBListResultSet result, AggregateCall aggCall) {
-      int total = 0;
-      while(result.hasNext()) {
-        result.next();
-        int argIdx = aggCall.getArgList().get(0);
-
-        Object value = result.getValue(argIdx);
-        int type = result.getColumnType(argIdx);
-
-        switch (type) {
-          case Types.TINYINT:
-          case Types.SMALLINT:
-          case Types.INTEGER:
-          case Types.FLOAT:
-          case Types.DOUBLE:
-            total += (int)value;
-            break;
-          case Types.BIGINT:
-            total += ((Long)value).intValue();
-            break;
-          default:
-            break;
-        }
-      }
-
-      return total;
-    }
-
-    public Object executeMin(TrainDBListResultSet result, AggregateCall aggCall) {
-      Object min = null;
-      Object curr = null;
-      while (result.hasNext()) {
-        result.next();
-        int argIdx = aggCall.getArgList().get(0);
-
-        Object value = result.getValue(argIdx);
-        int type = result.getColumnType(argIdx);
-
-        switch (type) {
-          case Types.TINYINT:
-          case Types.SMALLINT:
-          case Types.INTEGER:
-          case Types.BIGINT:
-          case Types.FLOAT:
-          case Types.DOUBLE:
-          curr = (int) value;
-            if (min == null) {
-              min = curr;
-            } else if ((int)min > (int)curr) {
-              min = curr;
-            }
-            break;
-          case Types.CHAR:
-          case Types.VARCHAR: {
-            curr = (String) value;
-            if (min == null) {
-              min = curr;
-            } else if (compareStrings((String)min, (String)curr) > 0) {
-              min = curr;
-            }
-            break;
-          }
-          default:
-          break;
-        }
-      }
-
-      return min;
-    }
-
-    public Object executeMax(TrainDBListResultSet result, AggregateCall aggCall) {
-      Object max = null;
-      Object curr = null;
-      while (result.hasNext()) {
-        result.next();
-        int argIdx = aggCall.getArgList().get(0);
-
-        Object value = result.getValue(argIdx);
-        int type = result.getColumnType(argIdx);
-
-        switch (type) {
-          case Types.TINYINT:
-          case Types.SMALLINT:
-          case Types.INTEGER:
-          case Types.BIGINT:
-          case Types.FLOAT:
-          case Types.DOUBLE:
-          curr = (int) value;
-            if (max == null) {
-              max = curr;
-            } else if ((int)max > (int)curr) {
-              max = curr;
-            }
-            break;
-          case Types.CHAR:
-          case Types.VARCHAR: {
-            curr = (String) value;
-            if (max == null) {
-              max = curr;
-            } else if (compareStrings((String)max, (String)curr) < 0) {
-              max = curr;
-            }
-            break;
-          }
-          default:
-          break;
-        }
-      }
-
-      return max;
+    @Override public boolean canOpen() {
+      return JdbcHashAggregate.canOpen(this);
     }
 
-    public static int compareStrings(String s1, String s2) {
-      for (int i = 0; i < s1.length() && i < s2.length(); i++) {
-        if ((int) s1.charAt(i) == (int) s2.charAt(i)) {
-          continue;
-        } else {
-          return (int) s1.charAt(i) - (int) s2.charAt(i);
-        }
-      }
-  
-      if (s1.length() < s2.length()) {
-        return (s1.length() - s2.length());
-        //return 1;
-      } else if (s1.length() > s2.length()) {
-        return (s1.length() - s2.length());
-        //return -1;
-      } else {
-        return 0;
-      }
+    @Override public JdbcRowCursor open(JdbcExecutionContext context) throws SQLException {
+      return JdbcHashAggregate.open(context, this);
     }
   }
 
@@ -1202,12 +948,6 @@ public class JdbcRules {
     @Override public JdbcImplementor.Result implement(JdbcImplementor implementor) {
       return implementor.implement(this);
     }
-
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      // TODO Auto-generated method stub
-      return null;
-    }
   }
 
   /**
@@ -1264,12 +1004,6 @@ public class JdbcRules {
     @Override public JdbcImplementor.Result implement(JdbcImplementor implementor) {
       return implementor.implement(this);
     }
-
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      // TODO Auto-generated method stub
-      return null;
-    }
   }
 
   /**
@@ -1324,12 +1058,6 @@ public class JdbcRules {
     @Override public JdbcImplementor.Result implement(JdbcImplementor implementor) {
       return implementor.implement(this);
     }
-
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      // TODO Auto-generated method stub
-      return null;
-    }
   }
 
   /**
@@ -1378,12 +1106,6 @@ public class JdbcRules {
     @Override public JdbcImplementor.Result implement(JdbcImplementor implementor) {
       return implementor.implement(this);
     }
-
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      // TODO Auto-generated method stub
-      return null;
-    }
   }
 
   /** Rule that converts a table-modification to JDBC. */
@@ -1470,12 +1192,6 @@ public class JdbcRules {
     @Override public JdbcImplementor.Result implement(JdbcImplementor implementor) {
       return implementor.implement(this);
     }
-
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      // TODO Auto-generated method stub
-      return null;
-    }
   }
 
   /** Rule that converts a values operator to JDBC. */
@@ -1515,12 +1231,6 @@ public class JdbcRules {
     @Override public JdbcImplementor.Result implement(JdbcImplementor implementor) {
       return implementor.implement(this);
     }
-
-    @Override
-    public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-      // TODO Auto-generated method stub
-      return null;
-    }
   }
 
   /** Visitor that checks whether part of a projection is a user-defined
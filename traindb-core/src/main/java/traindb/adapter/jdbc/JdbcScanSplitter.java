@@ -0,0 +1,435 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import traindb.adapter.SourceDbmsProducts;
+import traindb.common.TrainDBLogger;
+import traindb.schema.TrainDBPartition;
+
+/**
+ * Splits the scan of a table into queries over disjoint parts of the table, which are run on
+ * separate connections to the source DBMS and merged into one stream of rows.
+ *
+ * <p>The table is split, in order of preference:
+ * <ul>
+ *   <li>by its partitions in the source DBMS, if it has any;</li>
+ *   <li>into ranges of its primary key, if the key is a single integer column;</li>
+ *   <li>by a hash of its primary key, if the source DBMS has a hash function.</li>
+ * </ul>
+ * Otherwise, the table is read by a single query.
+ */
+final class JdbcScanSplitter {
+  private static final TrainDBLogger LOG = TrainDBLogger.getLogger(JdbcScanSplitter.class);
+
+  // fewest keys in a primary key range, so that small tables are read by one query
+  private static final long MIN_KEYS_PER_SPLIT = 10000;
+  private static final int BATCH_SIZE = 1024;
+
+  private JdbcScanSplitter() {
+  }
+
+  /**
+   * Returns the queries which together read the rows of the table which satisfy the
+   * condition, split into at most the given number of queries.
+   */
+  static List<String> split(JdbcExecutionContext context, TrainDBJdbcTable table,
+                            RelDataType rowType, @Nullable SqlNode condition,
+                            SqlDialect dialect, int splits) throws SQLException {
+    String from = table.tableName().toSqlString(dialect).getSql();
+    String where = condition == null ? null : condition.toSqlString(dialect).getSql();
+
+    List<String> queries = splitByPartition(table, dialect, where, splits);
+    if (queries == null) {
+      try (Connection conn = context.getConnection().getDataSourceConnection()) {
+        String key = primaryKey(conn, table);
+        if (key != null) {
+          queries = splitByKeyRange(conn, rowType, key, from, where, dialect, splits);
+          if (queries == null) {
+            queries = splitByHash(key, from, where, dialect, splits);
+          }
+        }
+      }
+    }
+    if (queries == null || queries.size() <= 1) {
+      return Collections.singletonList(query(from, where, null));
+    }
+    LOG.debug("scan of " + from + " is split into " + queries.size() + " queries");
+    return queries;
+  }
+
+  private static String query(String from, @Nullable String where, @Nullable String split) {
+    StringBuilder sql = new StringBuilder("SELECT * FROM ").append(from);
+    if (where != null && split != null) {
+      sql.append(" WHERE (").append(where).append(") AND (").append(split).append(')');
+    } else if (where != null || split != null) {
+      sql.append(" WHERE ").append(where != null ? where : split);
+    }
+    return sql.toString();
+  }
+
+  // reads groups of consecutive partitions if the table has more partitions than splits
+  private static @Nullable List<String> splitByPartition(TrainDBJdbcTable table,
+                                                         SqlDialect dialect,
+                                                         @Nullable String where, int splits) {
+    Map<String, TrainDBPartition> partitionMap = table.getSchema().getPartitionMap();
+    TrainDBPartition partition = partitionMap == null ? null : partitionMap.get(table.getName());
+    if (partition == null || partition.getColumn() != null) {
+      // partitions defined by a column are ranges of unknown type, as in BigQuery
+      return null;
+    }
+    String from = table.tableName().toSqlString(dialect).getSql();
+    List<String> names = partition.getPartitionNameMap();
+    int count = Math.min(Math.max(1, splits), names.size());
+    List<String> queries = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      List<String> group = names.subList(names.size() * i / count,
+          names.size() * (i + 1) / count);
+      if (dialect.getDatabaseProduct() == SqlDialect.DatabaseProduct.POSTGRESQL) {
+        // partitions are tables inheriting from the table
+        StringBuilder sql = new StringBuilder();
+        for (String name : group) {
+          String child = new SqlIdentifier(List.of(table.getSchema().getName(), name),
+              SqlParserPos.ZERO).toSqlString(dialect).getSql();
+          if (sql.length() > 0) {
+            sql.append(" UNION ALL ");
+          }
+          sql.append(query(child, where, null));
+        }
+        queries.add(sql.toString());
+      } else {
+        StringBuilder quoted = new StringBuilder();
+        for (String name : group) {
+          if (quoted.length() > 0) {
+            quoted.append(", ");
+          }
+          quoted.append(dialect.quoteIdentifier(name));
+        }
+        queries.add(query(from + " PARTITION (" + quoted + ")", where, null));
+      }
+    }
+    return queries;
+  }
+
+  private static @Nullable String primaryKey(Connection conn, TrainDBJdbcTable table)
+      throws SQLException {
+    DatabaseMetaData metaData = conn.getMetaData();
+    String schemaName = table.getSchema().getName();
+    boolean catalog = SourceDbmsProducts.useGetCatalogForSchema(conn);
+    String key = null;
+    try (ResultSet rs = metaData.getPrimaryKeys(catalog ? schemaName : null,
+        catalog ? null : schemaName, table.getName())) {
+      while (rs.next()) {
+        if (rs.getInt("KEY_SEQ") == 1) {
+          key = rs.getString("COLUMN_NAME");
+        }
+      }
+    }
+    return key;
+  }
+
+  // returns null if the key is not of an integer type
+  private static @Nullable List<String> splitByKeyRange(Connection conn, RelDataType rowType,
+                                                        String key, String from,
+                                                        @Nullable String where,
+                                                        SqlDialect dialect, int splits)
+      throws SQLException {
+    RelDataTypeField field = rowType.getField(key, true, false);
+    if (field == null || !SqlTypeName.INT_TYPES.contains(field.getType().getSqlTypeName())) {
+      return null;
+    }
+    String column = dialect.quoteIdentifier(field.getName());
+    long min;
+    long max;
+    try (Statement stmt = conn.createStatement();
+         ResultSet rs = stmt.executeQuery(
+             "SELECT MIN(" + column + "), MAX(" + column + ") FROM " + from)) {
+      if (!rs.next()) {
+        return null;
+      }
+      min = rs.getLong(1);
+      if (rs.wasNull()) {
+        // the table is empty, so it is not worth splitting
+        return Collections.emptyList();
+      }
+      max = rs.getLong(2);
+    }
+
+    double keys = (double) max - min + 1;
+    int count = (int) Math.min(splits, Math.ceil(keys / MIN_KEYS_PER_SPLIT));
+    if (count <= 1) {
+      return Collections.emptyList();
+    }
+    List<String> queries = new ArrayList<>(count);
+    long lower = min;
+    for (int i = 1; i <= count; i++) {
+      if (i == count) {
+        queries.add(query(from, where, column + " >= " + lower));
+      } else {
+        long upper = min + (long) (keys * i / count);
+        String range = i == 1
+            ? column + " < " + upper
+            : column + " >= " + lower + " AND " + column + " < " + upper;
+        queries.add(query(from, where, range));
+        lower = upper;
+      }
+    }
+    return queries;
+  }
+
+  private static @Nullable List<String> splitByHash(String key, String from,
+                                                    @Nullable String where,
+                                                    SqlDialect dialect, int splits) {
+    String column = dialect.quoteIdentifier(key);
+    String hash;
+    switch (dialect.getDatabaseProduct()) {
+      case POSTGRESQL:
+        hash = "(HASHTEXT(CAST(" + column + " AS TEXT)) & 2147483647)";
+        break;
+      case MYSQL:
+        hash = "CRC32(" + column + ")";
+        break;
+      default:
+        return null;
+    }
+    List<String> queries = new ArrayList<>(splits);
+    for (int i = 0; i < splits; i++) {
+      queries.add(query(from, where, "MOD(" + hash + ", " + splits + ") = " + i));
+    }
+    return queries;
+  }
+
+  /**
+   * Returns a cursor over the rows of all the queries. The queries start on the source
+   * executor when the first row is asked for, and the rows come in no particular order.
+   */
+  static JdbcRowCursor open(JdbcExecutionContext context, List<String> queries,
+                            List<String> columnNames) {
+    return new MergingCursor(context, queries, columnNames);
+  }
+
+  /**
+   * Merges the rows of the queries, which are read by tasks on the source executor into a
+   * bounded queue. When the queue is empty, the thread calling next() reads a query whose task
+   * has not started yet by itself, so that a consumer which runs on the executor too cannot
+   * wait for tasks which are queued behind it.
+   */
+  private static final class MergingCursor implements JdbcRowCursor {
+    // marks the end of the rows of a query
+    private static final Object[][] END = new Object[0][];
+
+    private final JdbcExecutionContext context;
+    private final List<String> queries;
+    private final List<String> columnNames;
+    private final BlockingQueue<Object[][]> queue;
+    private final List<Reader> readers = new ArrayList<>();
+    private final List<FutureTask<Void>> tasks = new ArrayList<>();
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private int running;
+    private Object[][] batch = END;
+    private int position;
+    // query read by the calling thread, if any
+    private JdbcRowCursor inline;
+
+    MergingCursor(JdbcExecutionContext context, List<String> queries, List<String> columnNames) {
+      this.context = context;
+      this.queries = queries;
+      this.columnNames = columnNames;
+      this.queue = new ArrayBlockingQueue<>(queries.size() * 2);
+    }
+
+    @Override
+    public List<String> getColumnNames() {
+      return columnNames;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      if (tasks.isEmpty()) {
+        // start here rather than when opened, so that scans not read yet take no connection
+        for (String sql : queries) {
+          Reader reader = new Reader(sql);
+          readers.add(reader);
+          tasks.add(context.submit(reader));
+        }
+        running = queries.size();
+      }
+      while (true) {
+        if (inline != null) {
+          if (inline.next()) {
+            return true;
+          }
+          inline.close();
+          inline = null;
+          running--;
+        }
+        if (++position < batch.length) {
+          return true;
+        }
+        if (running == 0) {
+          return false;
+        }
+        batch = queue.poll();
+        if (batch == null) {
+          Reader reader = claimReader();
+          if (reader != null) {
+            batch = END;
+            inline = JdbcTableScan.openNow(context, reader.sql, columnNames);
+            continue;
+          }
+          try {
+            batch = queue.take();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while reading a split scan", e);
+          }
+        }
+        position = -1;
+        if (batch == END) {
+          running--;
+          rethrowFailure();
+        }
+      }
+    }
+
+    // returns a reader whose task has not started, which is not run by the task any more
+    private @Nullable Reader claimReader() {
+      for (Reader reader : readers) {
+        if (reader.started.compareAndSet(false, true)) {
+          return reader;
+        }
+      }
+      return null;
+    }
+
+    private void rethrowFailure() throws SQLException {
+      Throwable t = failure;
+      if (t instanceof SQLException) {
+        throw (SQLException) t;
+      } else if (t instanceof RuntimeException) {
+        throw (RuntimeException) t;
+      } else if (t != null) {
+        throw new SQLException("split scan failed", t);
+      }
+    }
+
+    private void put(Object[][] rows) throws InterruptedException {
+      while (!closed) {
+        if (queue.offer(rows, 100, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    }
+
+    @Override
+    public Object getValue(int index) throws SQLException {
+      return inline != null ? inline.getValue(index) : batch[position][index];
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      for (FutureTask<Void> task : tasks) {
+        task.cancel(false);
+      }
+      for (Reader reader : readers) {
+        JdbcTableScan.ResultSetCursor cursor = reader.cursor;
+        if (cursor != null) {
+          // stops a reader waiting for rows of the source DBMS
+          cursor.cancel();
+        }
+      }
+      queue.clear();
+      if (inline != null) {
+        inline.close();
+        inline = null;
+      }
+    }
+
+    /**
+     * Task which reads the rows of a query into the queue, unless the query has been taken
+     * by the thread calling next().
+     */
+    private final class Reader implements Callable<Void> {
+      private final String sql;
+      private final AtomicBoolean started = new AtomicBoolean();
+      private volatile JdbcTableScan.ResultSetCursor cursor;
+
+      Reader(String sql) {
+        this.sql = sql;
+      }
+
+      @Override
+      public Void call() throws InterruptedException {
+        if (!started.compareAndSet(false, true)) {
+          return null;
+        }
+        try (JdbcTableScan.ResultSetCursor cursor =
+                 JdbcTableScan.openNow(context, sql, columnNames)) {
+          this.cursor = cursor;
+          if (closed) {
+            return null;
+          }
+          int columnCount = columnNames.size();
+          Object[][] rows = new Object[BATCH_SIZE][];
+          int size = 0;
+          while (!closed && cursor.next()) {
+            rows[size++] = JdbcRowCursor.copyRow(cursor, columnCount);
+            if (size == BATCH_SIZE) {
+              put(rows);
+              rows = new Object[BATCH_SIZE][];
+              size = 0;
+            }
+          }
+          if (size > 0) {
+            put(Arrays.copyOf(rows, size));
+          }
+        } catch (SQLException | RuntimeException e) {
+          if (!closed) {
+            failure = e;
+          }
+        } finally {
+          this.cursor = null;
+          put(END);
+        }
+        return null;
+      }
+    }
+  }
+}
@@ -18,15 +18,14 @@ package traindb.adapter.jdbc;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.calcite.linq4j.Nullness.castNonNull;
-import static org.apache.calcite.sql.type.SqlTypeName.DECIMAL;
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
 import org.apache.calcite.plan.Convention;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptTable;
@@ -34,11 +33,11 @@ import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.core.TableScan;
 import org.apache.calcite.rel.hint.RelHint;
-import org.apache.calcite.sql.type.SqlTypeName;
-import org.apache.calcite.sql.util.SqlString;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.SqlNode;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import com.google.common.collect.ImmutableList;
-import traindb.engine.TrainDBListResultSet;
-import traindb.jdbc.TrainDBConnectionImpl;
+import traindb.engine.JdbcRowDecoder;
 
 /**
  * Relational expression representing a scan of a table in a JDBC data source.
@@ -68,51 +67,219 @@ public class JdbcTableScan extends TableScan implements JdbcRel {
         ImmutableList.of(JdbcImplementor.Clause.FROM), this, null);
   }
 
-  public TrainDBListResultSet execute(org.apache.calcite.jdbc.CalcitePrepare.Context context) {
-    TrainDBListResultSet res = null;
-    Connection extConn = null;
+  @Override public boolean canOpen() {
+    return true;
+  }
+
+  @Override public JdbcRowCursor open(JdbcExecutionContext context) throws SQLException {
+    return open(context, null);
+  }
+
+  /**
+   * Opens a cursor over the rows of the table which satisfy a condition on its columns. The
+   * condition is added to the source query, so that the other rows are not transferred.
+   *
+   * <p>In parallel mode, the scan is split into queries over parts of the table, which run on
+   * separate connections; see {@link JdbcScanSplitter}. It is split into no more queries than
+   * the connections it can reserve from the query.
+   */
+  JdbcRowCursor open(JdbcExecutionContext context, @Nullable SqlNode condition)
+      throws SQLException {
+    int splits = context.isParallel() ? context.reserveConnections(context.getScanSplits()) : 0;
+    if (splits > 1) {
+      // plan the split on the executor too, as it may query the source DBMS
+      final List<String> columnNames = getRowType().getFieldNames();
+      final SqlDialect dialect = ((JdbcConvention) getConvention()).dialect;
+      return new AsyncCursor(columnNames, context, splits, () -> {
+        List<String> queries = JdbcScanSplitter.split(context, jdbcTable, getRowType(),
+            condition, dialect, splits);
+        return queries.size() == 1
+            ? openNow(context, queries.get(0), columnNames)
+            : JdbcScanSplitter.open(context, queries, columnNames);
+      });
+    }
+    context.releaseConnections(splits);
+    return openQuery(context, jdbcTable.generateSql(condition).getSql(),
+        getRowType().getFieldNames());
+  }
+
+  /**
+   * Opens a cursor over the result of a query sent to the source DBMS of the query.
+   */
+  static JdbcRowCursor openQuery(JdbcExecutionContext context, String sql,
+      List<String> columnNames) throws SQLException {
+    if (context.isParallel() && context.reserveConnections(1) == 1) {
+      // run the source query on the executor, while the rest of the plan is being opened
+      return new AsyncCursor(columnNames, context, 1,
+          () -> openNow(context, sql, columnNames));
+    }
+    return openNow(context, sql, columnNames);
+  }
+
+  static ResultSetCursor openNow(JdbcExecutionContext context, String sql,
+      List<String> columnNames) throws SQLException {
+    Connection extConn = context.getConnection().getDataSourceConnection();
+    Statement stmt = null;
     try {
-      TrainDBConnectionImpl conn = (TrainDBConnectionImpl) context.getDataContext().getQueryProvider();
-
-      List<List<Object>> totalRes = new ArrayList<>();
-      List<String> header = new ArrayList<>();
-
-      SqlString query = jdbcTable.generateSql();
-      String sql = query.getSql();
-      
-      extConn = conn.getDataSourceConnection();
-      Statement stmt = extConn.createStatement();
-      ResultSet rs = stmt.executeQuery(sql);
-
-      int columnCount = rs.getMetaData().getColumnCount();
-      ResultSetMetaData md = rs.getMetaData();
-
-      while (rs.next()) {
-        List<Object> r = new ArrayList<>();
-        for (int j = 1; j <= columnCount; j++) {
-          int type = md.getColumnType(j);
-          SqlTypeName sqlTypeName = SqlTypeName.getNameForJdbcType(type);
-          if (sqlTypeName == DECIMAL) {
-            r.add(rs.getInt(j));
-          } else {
-            r.add(rs.getObject(j));
-          }
+      stmt = JdbcUtils.createStreamingStatement(extConn,
+          context.getConnection().cfg.getDataSourceFetchSize());
+      return new ResultSetCursor(columnNames, extConn, stmt, stmt.executeQuery(sql));
+    } catch (SQLException | RuntimeException e) {
+      if (stmt != null) {
+        stmt.close();
+      }
+      extConn.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Streams the rows of a source DBMS result set. The cursor owns the connection, which is
+   * given back to the pool on close.
+   *
+   * <p>A cursor closed before the end of its rows cancels its query first, as a streaming
+   * driver such as MySQL's would otherwise read the rest of the rows to close it.
+   */
+  static final class ResultSetCursor implements JdbcRowCursor {
+    private static final int BATCH_SIZE = 1024;
+
+    private final List<String> columnNames;
+    private final Connection extConn;
+    private final Statement stmt;
+    private final ResultSet rs;
+    private final JdbcRowDecoder decoder;
+    private final JdbcRowDecoder.Batch batch;
+    private int position;
+    private volatile boolean exhausted;
+
+    ResultSetCursor(List<String> columnNames, Connection extConn, Statement stmt, ResultSet rs)
+        throws SQLException {
+      this.columnNames = columnNames;
+      this.extConn = extConn;
+      this.stmt = stmt;
+      this.rs = rs;
+      this.decoder = new JdbcRowDecoder(rs.getMetaData());
+      this.batch = decoder.newBatch(BATCH_SIZE);
+    }
+
+    @Override public List<String> getColumnNames() {
+      return columnNames;
+    }
+
+    @Override public boolean next() throws SQLException {
+      if (++position < batch.size()) {
+        return true;
+      }
+      position = 0;
+      if (exhausted) {
+        return false;
+      }
+      int rows = decoder.read(rs, batch, 0);
+      if (rows < BATCH_SIZE) {
+        exhausted = true;
+      }
+      return rows > 0;
+    }
+
+    @Override public Object getValue(int index) {
+      return batch.getValue(index, position);
+    }
+
+    /**
+     * Cancels the query in the source DBMS unless all of its rows have been read. May be
+     * called by another thread than the one reading the rows.
+     */
+    void cancel() {
+      if (!exhausted) {
+        try {
+          stmt.cancel();
+        } catch (SQLException e) {
+          // the query fails or finishes anyway
         }
-        totalRes.add(r);
       }
+    }
 
-      for (int j = 1; j <= columnCount; j++) {
-        header.add(md.getColumnName(j));
+    @Override public void close() {
+      cancel();
+      try {
+        rs.close();
+        stmt.close();
+      } catch (SQLException e) {
+        // the connection is closed below anyway
+      } finally {
+        try {
+          extConn.close();
+        } catch (SQLException e) {
+          // ignore
+        }
       }
+    }
+  }
 
-      res = new TrainDBListResultSet(header, totalRes);
-      extConn.close();
+  /**
+   * A cursor opened by a task of the query. The rows are read on the thread calling next().
+   * The connections reserved for it are given back to the query when it is closed.
+   */
+  private static final class AsyncCursor implements JdbcRowCursor {
+    private final List<String> columnNames;
+    private final JdbcExecutionContext context;
+    private final int reservedConnections;
+    private final FutureTask<JdbcRowCursor> task;
+    private JdbcRowCursor cursor;
+    // the opened cursor and whether this is closed, guarded by this
+    private JdbcRowCursor opened;
+    private boolean closed;
 
-    } catch (SQLException e) {
-      e.printStackTrace();
+    AsyncCursor(List<String> columnNames, JdbcExecutionContext context, int reservedConnections,
+        Callable<JdbcRowCursor> opener) {
+      this.columnNames = columnNames;
+      this.context = context;
+      this.reservedConnections = reservedConnections;
+      this.task = context.submit(() -> {
+        JdbcRowCursor c = opener.call();
+        synchronized (this) {
+          if (closed) {
+            // closed while opening; nobody else will close it
+            c.close();
+            return null;
+          }
+          opened = c;
+        }
+        return c;
+      });
     }
 
-    return res;
+    @Override public List<String> getColumnNames() {
+      return columnNames;
+    }
+
+    @Override public boolean next() throws SQLException {
+      if (cursor == null) {
+        cursor = JdbcExecutionContext.await(task);
+      }
+      return cursor.next();
+    }
+
+    @Override public Object getValue(int index) throws SQLException {
+      return cursor.getValue(index);
+    }
+
+    @Override public void close() {
+      JdbcRowCursor c;
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        c = opened;
+        opened = null;
+      }
+      task.cancel(false);
+      if (c != null) {
+        c.close();
+      }
+      context.releaseConnections(reservedConnections);
+    }
   }
 
   @Override public RelNode withHints(List<RelHint> hintList) {
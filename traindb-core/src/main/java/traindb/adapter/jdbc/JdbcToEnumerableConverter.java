@@ -211,7 +211,7 @@ public class JdbcToEnumerableConverter
   }
 
   public TrainDBListResultSet execute(EnumerableRelImplementor implementor, Prefer pref,
-      org.apache.calcite.jdbc.CalcitePrepare.Context context) {
+      org.apache.calcite.jdbc.CalcitePrepare.Context context, boolean parallel) {
     final BlockBuilder builder0 = new BlockBuilder(false);
     final JdbcRel child = (JdbcRel) getInput();
     final PhysType physType = PhysTypeImpl.of(
@@ -228,7 +228,7 @@ public class JdbcToEnumerableConverter
     final JdbcImplementor jdbcImplementor = new JdbcImplementor(jdbcConvention.dialect,
         (JavaTypeFactory) getCluster().getTypeFactory());
 
-    TrainDBListResultSet res = child.execute(context);
+    TrainDBListResultSet res = child.execute(context, parallel);
 
     return res;
   }
@@ -301,6 +301,34 @@ public final class JdbcUtils {
     }
   }
 
+  /**
+   * Creates a statement which streams the rows of its result sets from the source DBMS,
+   * rather than letting the driver read all of them before returning the first one.
+   *
+   * <p>The PostgreSQL driver streams only outside autocommit mode, so autocommit is turned
+   * off; the pool turns it back on when the connection is returned. The MySQL driver streams
+   * row by row only for a fetch size of {@link Integer#MIN_VALUE}, and the connection can then
+   * run no other statement until the result set is closed. Other drivers are given the fetch
+   * size as a hint.
+   */
+  public static Statement createStreamingStatement(Connection connection, int fetchSize)
+      throws SQLException {
+    String url = connection.getMetaData().getURL();
+    String dbms = url == null ? "" : url.split(":")[1];
+    if (dbms.equals("postgresql") || dbms.equals("redshift")) {
+      connection.setAutoCommit(false);
+    }
+    Statement statement =
+        connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    try {
+      statement.setFetchSize(dbms.equals("mysql") ? Integer.MIN_VALUE : fetchSize);
+    } catch (SQLException | RuntimeException e) {
+      statement.close();
+      throw e;
+    }
+    return statement;
+  }
+
   public static void close(
       @Nullable Connection connection,
       @Nullable Statement statement,
@@ -0,0 +1,345 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.List;
+import traindb.common.TrainDBLogger;
+
+/**
+ * Rows written to a temporary file when an operator executed in the JVM runs out of its
+ * memory budget.
+ *
+ * <p>Rows are appended through a buffered stream, each prefixed by its length, and read back
+ * through memory-mapped segments of the file once writing is done. The file is deleted on
+ * close.
+ */
+final class SpillFile implements AutoCloseable {
+  private static final TrainDBLogger LOG = TrainDBLogger.getLogger(SpillFile.class);
+
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final long MAP_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+  private static final byte NULL = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte BYTE = 2;
+  private static final byte SHORT = 3;
+  private static final byte INT = 4;
+  private static final byte LONG = 5;
+  private static final byte FLOAT = 6;
+  private static final byte DOUBLE = 7;
+  private static final byte DECIMAL = 8;
+  private static final byte STRING = 9;
+  private static final byte BYTES = 10;
+  private static final byte DATE = 11;
+  private static final byte TIME = 12;
+  private static final byte TIMESTAMP = 13;
+  private static final byte SERIALIZED = 14;
+
+  private final Path path;
+  private final List<String> columnNames;
+  private final ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+  private final DataOutputStream rowOut = new DataOutputStream(rowBytes);
+  private DataOutputStream out;
+  private long rowCount;
+  private Reader reader;
+
+  private SpillFile(Path path, List<String> columnNames) throws IOException {
+    this.path = path;
+    this.columnNames = columnNames;
+    this.out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(path), WRITE_BUFFER_SIZE));
+  }
+
+  /**
+   * Creates an empty spill file in the directory, or in the default temporary directory if
+   * the directory is null.
+   */
+  static SpillFile create(String directory, List<String> columnNames) throws SQLException {
+    try {
+      Path dir = directory == null
+          ? Paths.get(System.getProperty("java.io.tmpdir")) : Paths.get(directory);
+      Files.createDirectories(dir);
+      return new SpillFile(Files.createTempFile(dir, "traindb-spill-", ".tmp"), columnNames);
+    } catch (IOException e) {
+      throw new SQLException("failed to create a spill file", e);
+    }
+  }
+
+  /**
+   * Estimates the heap size taken by a row and the hash table entry pointing to it.
+   */
+  static long estimateRowSize(Object[] row) {
+    long size = 48 + 4L * row.length;
+    for (Object value : row) {
+      if (value == null) {
+        continue;
+      }
+      if (value instanceof String) {
+        size += 40 + ((String) value).length();
+      } else if (value instanceof byte[]) {
+        size += 16 + ((byte[]) value).length;
+      } else if (value instanceof BigDecimal) {
+        size += 64;
+      } else {
+        size += 24;
+      }
+    }
+    return size;
+  }
+
+  long getRowCount() {
+    return rowCount;
+  }
+
+  void write(Object[] row) throws SQLException {
+    try {
+      rowBytes.reset();
+      for (Object value : row) {
+        writeValue(rowOut, value);
+      }
+      out.writeInt(rowBytes.size());
+      rowBytes.writeTo(out);
+      rowCount++;
+    } catch (IOException e) {
+      throw new SQLException("failed to write to spill file " + path, e);
+    }
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof Integer) {
+      out.writeByte(INT);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof String) {
+      out.writeByte(STRING);
+      writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+    } else if (value instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float) value);
+    } else if (value instanceof Short) {
+      out.writeByte(SHORT);
+      out.writeShort((Short) value);
+    } else if (value instanceof Byte) {
+      out.writeByte(BYTE);
+      out.writeByte((Byte) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof BigDecimal) {
+      out.writeByte(DECIMAL);
+      writeBytes(out, value.toString().getBytes(StandardCharsets.UTF_8));
+    } else if (value instanceof byte[]) {
+      out.writeByte(BYTES);
+      writeBytes(out, (byte[]) value);
+    } else if (value instanceof Timestamp) {
+      out.writeByte(TIMESTAMP);
+      out.writeLong(((Timestamp) value).getTime());
+      out.writeInt(((Timestamp) value).getNanos());
+    } else if (value instanceof java.sql.Date) {
+      out.writeByte(DATE);
+      out.writeLong(((java.sql.Date) value).getTime());
+    } else if (value instanceof Time) {
+      out.writeByte(TIME);
+      out.writeLong(((Time) value).getTime());
+    } else if (value instanceof Serializable) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+        oos.writeObject(value);
+      }
+      out.writeByte(SERIALIZED);
+      writeBytes(out, bytes.toByteArray());
+    } else {
+      throw new IOException("cannot spill a value of " + value.getClass().getName());
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Finishes writing and returns a cursor over the rows. The file can be read only once.
+   */
+  JdbcRowCursor read() throws SQLException {
+    try {
+      out.close();
+      out = null;
+      reader = new Reader(FileChannel.open(path, StandardOpenOption.READ));
+      return reader;
+    } catch (IOException e) {
+      throw new SQLException("failed to read spill file " + path, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (out != null) {
+        out.close();
+        out = null;
+      }
+      if (reader != null) {
+        reader.close();
+      }
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.debug("failed to delete spill file " + path + ": " + e.getMessage());
+    }
+  }
+
+  private final class Reader implements JdbcRowCursor {
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer buffer;
+    private long mappedStart;
+    private long rowsRead;
+    private Object[] row;
+
+    Reader(FileChannel channel) throws IOException {
+      this.channel = channel;
+      this.fileSize = channel.size();
+    }
+
+    @Override
+    public List<String> getColumnNames() {
+      return columnNames;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      if (rowsRead == rowCount) {
+        row = null;
+        return false;
+      }
+      try {
+        ensureMapped(Integer.BYTES);
+        int length = buffer.getInt();
+        ensureMapped(length);
+        row = new Object[columnNames.size()];
+        for (int i = 0; i < row.length; i++) {
+          row[i] = readValue(buffer);
+        }
+        rowsRead++;
+        return true;
+      } catch (IOException | ClassNotFoundException e) {
+        throw new SQLException("failed to read spill file " + path, e);
+      }
+    }
+
+    // maps the next segment of the file if the current one has fewer bytes left
+    private void ensureMapped(int bytes) throws IOException {
+      if (buffer != null && buffer.remaining() >= bytes) {
+        return;
+      }
+      long position = buffer == null ? 0 : mappedStart + buffer.position();
+      long size = Math.min(Math.max(MAP_SEGMENT_SIZE, bytes), fileSize - position);
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+      mappedStart = position;
+    }
+
+    @Override
+    public Object getValue(int index) {
+      return row[index];
+    }
+
+    @Override
+    public void close() {
+      buffer = null;
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.debug("failed to close spill file " + path + ": " + e.getMessage());
+      }
+    }
+  }
+
+  private static Object readValue(ByteBuffer buf) throws IOException, ClassNotFoundException {
+    byte tag = buf.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case BOOLEAN:
+        return buf.get() != 0;
+      case BYTE:
+        return buf.get();
+      case SHORT:
+        return buf.getShort();
+      case INT:
+        return buf.getInt();
+      case LONG:
+        return buf.getLong();
+      case FLOAT:
+        return buf.getFloat();
+      case DOUBLE:
+        return buf.getDouble();
+      case DECIMAL:
+        return new BigDecimal(new String(readBytes(buf), StandardCharsets.UTF_8));
+      case STRING:
+        return new String(readBytes(buf), StandardCharsets.UTF_8);
+      case BYTES:
+        return readBytes(buf);
+      case DATE:
+        return new java.sql.Date(buf.getLong());
+      case TIME:
+        return new Time(buf.getLong());
+      case TIMESTAMP: {
+        Timestamp ts = new Timestamp(buf.getLong());
+        ts.setNanos(buf.getInt());
+        return ts;
+      }
+      case SERIALIZED:
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(readBytes(buf)))) {
+          return in.readObject();
+        }
+      default:
+        throw new IOException("unknown value tag " + tag);
+    }
+  }
+
+  private static byte[] readBytes(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return bytes;
+  }
+}
@@ -35,6 +35,7 @@ import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.schema.TranslatableTable;
 import org.apache.calcite.schema.impl.AbstractTableQueryable;
 import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlNode;
 import org.apache.calcite.sql.SqlNodeList;
 import org.apache.calcite.sql.SqlSelect;
 import org.apache.calcite.sql.SqlWriterConfig;
@@ -43,6 +44,7 @@ import org.apache.calcite.sql.pretty.SqlPrettyWriter;
 import org.apache.calcite.sql.util.SqlString;
 import org.apache.calcite.util.Pair;
 import org.apache.calcite.util.Util;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import traindb.common.TrainDBLogger;
 import traindb.schema.TrainDBTable;
 
@@ -73,10 +75,18 @@ public final class TrainDBJdbcTable extends TrainDBTable
   }
 
   SqlString generateSql() {
+    return generateSql(null);
+  }
+
+  /**
+   * Generates a query for all the rows of the table which satisfy a condition, or for all the
+   * rows if the condition is null.
+   */
+  SqlString generateSql(@Nullable SqlNode where) {
     final SqlNodeList selectList = SqlNodeList.SINGLETON_STAR;
     SqlSelect node =
         new SqlSelect(SqlParserPos.ZERO, SqlNodeList.EMPTY, selectList,
-            tableName(), null, null, null, null, null, null, null, null);
+            tableName(), where, null, null, null, null, null, null, null);
     final SqlWriterConfig config = SqlPrettyWriter.config()
         .withAlwaysUseParentheses(true)
         .withDialect(getDataSource().getDialect());
@@ -15,11 +15,13 @@
 package traindb.engine;
 
 import com.opencsv.CSVWriter;
-import com.opencsv.ResultSetHelperService;
 import java.io.FileWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
 import org.json.simple.JSONObject;
 import traindb.catalog.CatalogContext;
 import traindb.common.TrainDBConfiguration;
@@ -27,6 +29,7 @@ import traindb.common.TrainDBException;
 import traindb.jdbc.TrainDBConnectionImpl;
 
 public abstract class AbstractTrainDBModelRunner {
+  private static final int CSV_BATCH_SIZE = 1024;
 
   protected TrainDBConnectionImpl conn;
   protected CatalogContext catalogContext;
@@ -97,14 +100,34 @@ public abstract class AbstractTrainDBModelRunner {
   }
 
   public static void writeResultSetToCsv(ResultSet rs, String filePath) throws Exception {
-    FileWriter datafileWriter = new FileWriter(filePath);
-    CSVWriter csvWriter = new CSVWriter(datafileWriter, ',');
-    ResultSetHelperService resultSetHelperService = new ResultSetHelperService();
-    resultSetHelperService.setDateFormat("yyyy-MM-dd");
-    resultSetHelperService.setDateTimeFormat("yyyy-MM-dd HH:MI:SS");
-    csvWriter.setResultService(resultSetHelperService);
-    csvWriter.writeAll(rs, true);
-    csvWriter.close();
+    ResultSetMetaData md = rs.getMetaData();
+    JdbcRowDecoder decoder = new JdbcRowDecoder(md);
+    JdbcRowDecoder.Batch batch = decoder.newBatch(CSV_BATCH_SIZE);
+    SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    try (CSVWriter csvWriter = new CSVWriter(new FileWriter(filePath), ',')) {
+      String[] line = new String[decoder.getColumnCount()];
+      for (int j = 0; j < line.length; j++) {
+        line[j] = md.getColumnLabel(j + 1);
+      }
+      csvWriter.writeNext(line);
+
+      int rows;
+      while ((rows = decoder.read(rs, batch, 0)) > 0) {
+        for (int i = 0; i < rows; i++) {
+          for (int j = 0; j < line.length; j++) {
+            Object value = batch.getValue(j, i);
+            if (value == null || value instanceof byte[]) {
+              line[j] = "";
+            } else if (value instanceof Timestamp) {
+              line[j] = timestampFormat.format(value);
+            } else {
+              line[j] = value.toString();
+            }
+          }
+          csvWriter.writeNext(line);
+        }
+      }
+    }
   }
 
   public String getModelName() {
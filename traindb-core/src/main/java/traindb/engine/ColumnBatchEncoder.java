@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import traindb.common.TrainDBException;
+import traindb.engine.nio.MessageStream;
+
+/**
+ * Encodes rows of a result set into ColumnBatch ('V') messages.
+ *
+ * <p>A ColumnBatch message has the column count (Int16) and the row count (Int32), followed
+ * by each column in turn. A column starts with a null bitmap of (row count + 7) / 8 bytes,
+ * where bit (i % 8) of byte (i / 8) is set if the value of row i is null. TINYINT, SMALLINT
+ * and INTEGER values follow as an array of little-endian Int32, BIGINT values as Int64, and
+ * FLOAT, DOUBLE and DECIMAL values as Float64; null slots hold zero. Values of the other
+ * types follow one by one as length-prefixed bytes, and a null value has length -1.
+ */
+final class ColumnBatchEncoder {
+
+  @FunctionalInterface
+  private interface ColumnWriter {
+    void write(JdbcRowDecoder.Column column, int rows, MessageStream out);
+  }
+
+  private final JdbcRowDecoder decoder;
+  private final JdbcRowDecoder.Batch batch;
+  private final ColumnWriter[] writers;
+
+  ColumnBatchEncoder(JdbcRowDecoder decoder, int batchSize) throws TrainDBException {
+    this.decoder = decoder;
+    this.batch = decoder.newBatch(batchSize);
+    int columnCount = decoder.getColumnCount();
+    writers = new ColumnWriter[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      writers[i] = getColumnWriter(decoder.getColumnType(i), batchSize);
+    }
+  }
+
+  /**
+   * Sends up to maxRows rows of the result set, or all remaining rows if maxRows is not
+   * positive. Returns the number of rows sent.
+   */
+  long encode(ResultSet rs, MessageStream out, long maxRows) throws SQLException, IOException {
+    long total = 0;
+    int rows;
+    while ((maxRows <= 0 || total < maxRows)
+        && (rows = decoder.read(rs, batch, maxRows <= 0 ? 0 : maxRows - total)) > 0) {
+      sendBatch(out, rows);
+      total += rows;
+    }
+    return total;
+  }
+
+  private void sendBatch(MessageStream out, int rows) throws IOException {
+    out.beginMessage('V');
+    out.putShort((short) writers.length);
+    out.putInt(rows);
+    for (int i = 0; i < writers.length; i++) {
+      JdbcRowDecoder.Column column = batch.column(i);
+      out.putBytes(column.nulls, 0, (rows + 7) / 8);
+      writers[i].write(column, rows, out);
+    }
+    out.endMessage();
+  }
+
+  private static ColumnWriter getColumnWriter(int type, int batchSize) throws TrainDBException {
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        return (c, rows, out) ->
+            out.putIntsLittleEndian(((JdbcRowDecoder.IntColumn) c).values, 0, rows);
+      case Types.BIGINT:
+        return (c, rows, out) ->
+            out.putLongsLittleEndian(((JdbcRowDecoder.LongColumn) c).values, 0, rows);
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return (c, rows, out) ->
+            out.putDoublesLittleEndian(((JdbcRowDecoder.DoubleColumn) c).values, 0, rows);
+      case Types.DECIMAL: {
+        // DECIMAL values are read as BigDecimal and sent as Float64
+        double[] values = new double[batchSize];
+        return (c, rows, out) -> {
+          for (int i = 0; i < rows; i++) {
+            values[i] = c.getDouble(i);
+          }
+          out.putDoublesLittleEndian(values, 0, rows);
+        };
+      }
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.TIMESTAMP:
+      case Types.VARBINARY:
+        return ColumnBatchEncoder::writeValues;
+      // TODO support more data types
+      default:
+        throw new TrainDBException("Not supported data type: " + type);
+    }
+  }
+
+  private static void writeValues(JdbcRowDecoder.Column column, int rows, MessageStream out) {
+    for (int i = 0; i < rows; i++) {
+      Object value = column.isNull(i) ? null : column.getValue(i);
+      if (value == null) {
+        out.putInt(-1);
+      } else if (value instanceof byte[]) {
+        byte[] bytes = (byte[]) value;
+        out.putInt(bytes.length).putBytes(bytes, 0, bytes.length);
+      } else {
+        out.putLengthPrefixedUtf8(value.toString());
+      }
+    }
+  }
+}
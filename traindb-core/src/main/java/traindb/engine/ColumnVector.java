@@ -0,0 +1,441 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Growable column of a {@link TrainDBListResultSet}.
+ *
+ * <p>INTEGER, BIGINT, FLOAT and DOUBLE values are kept in primitive arrays, and CHAR and
+ * VARCHAR values are dictionary-encoded while few of them are distinct. Values of the other
+ * types are kept as objects.
+ * Nulls are tracked in a bitmap. Rows are only appended, so a result set built from the
+ * vector can keep reading its rows while more rows are appended.
+ */
+abstract class ColumnVector {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] nulls = new long[1];
+  int size;
+
+  static ColumnVector create(int type) {
+    switch (type) {
+      case Types.INTEGER:
+        return new IntVector();
+      case Types.BIGINT:
+        return new LongVector();
+      case Types.REAL:
+      case Types.FLOAT:
+        return new DoubleVector(true);
+      case Types.DOUBLE:
+        return new DoubleVector(false);
+      case Types.CHAR:
+      case Types.VARCHAR:
+        return new StringVector();
+      default:
+        return new ObjectVector();
+    }
+  }
+
+  static int newCapacity(int capacity, int required) {
+    return Math.max(Math.max(capacity * 2, INITIAL_CAPACITY), required);
+  }
+
+  final boolean isNull(int row) {
+    int word = row >>> 6;
+    return word < nulls.length && (nulls[word] & (1L << row)) != 0;
+  }
+
+  final void appendNull() {
+    ensureCapacity(size + 1);
+    if ((size >>> 6) >= nulls.length) {
+      nulls = Arrays.copyOf(nulls, Math.max(nulls.length * 2, (size >>> 6) + 1));
+    }
+    nulls[size >>> 6] |= 1L << size;
+    size++;
+  }
+
+  final void append(Object value) {
+    if (value == null) {
+      appendNull();
+    } else {
+      ensureCapacity(size + 1);
+      set(size++, value);
+    }
+  }
+
+  /**
+   * Appends the row of another vector of the same class.
+   */
+  final void append(ColumnVector other, int row) {
+    if (other.isNull(row)) {
+      appendNull();
+    } else {
+      ensureCapacity(size + 1);
+      copy(size++, other, row);
+    }
+  }
+
+  /**
+   * Appends the first rows of a column read by a {@link JdbcRowDecoder}.
+   */
+  void append(JdbcRowDecoder.Column column, int rows) {
+    ensureCapacity(size + rows);
+    for (int i = 0; i < rows; i++) {
+      if (column.isNull(i)) {
+        appendNull();
+      } else {
+        set(size++, column.getValue(i));
+      }
+    }
+  }
+
+  int getInt(int row) {
+    return ((Number) getValue(row)).intValue();
+  }
+
+  long getLong(int row) {
+    return ((Number) getValue(row)).longValue();
+  }
+
+  double getDouble(int row) {
+    return ((Number) getValue(row)).doubleValue();
+  }
+
+  /**
+   * Returns the value of the row, which must not be null.
+   */
+  abstract Object getValue(int row);
+
+  abstract boolean accepts(Object value);
+
+  abstract void ensureCapacity(int capacity);
+
+  abstract void set(int row, Object value);
+
+  abstract void copy(int row, ColumnVector other, int otherRow);
+
+  static final class IntVector extends ColumnVector {
+    private int[] values = new int[0];
+
+    @Override
+    int getInt(int row) {
+      return values[row];
+    }
+
+    @Override
+    long getLong(int row) {
+      return values[row];
+    }
+
+    @Override
+    double getDouble(int row) {
+      return values[row];
+    }
+
+    @Override
+    Object getValue(int row) {
+      return values[row];
+    }
+
+    @Override
+    boolean accepts(Object value) {
+      return value instanceof Integer;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > values.length) {
+        values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+      }
+    }
+
+    @Override
+    void set(int row, Object value) {
+      values[row] = ((Number) value).intValue();
+    }
+
+    void appendInt(int value) {
+      ensureCapacity(size + 1);
+      values[size++] = value;
+    }
+
+    @Override
+    void append(JdbcRowDecoder.Column column, int rows) {
+      ensureCapacity(size + rows);
+      for (int i = 0; i < rows; i++) {
+        if (column.isNull(i)) {
+          appendNull();
+        } else {
+          values[size++] = column.getInt(i);
+        }
+      }
+    }
+
+    @Override
+    void copy(int row, ColumnVector other, int otherRow) {
+      values[row] = ((IntVector) other).values[otherRow];
+    }
+  }
+
+  static final class LongVector extends ColumnVector {
+    private long[] values = new long[0];
+
+    @Override
+    int getInt(int row) {
+      return (int) values[row];
+    }
+
+    @Override
+    long getLong(int row) {
+      return values[row];
+    }
+
+    @Override
+    double getDouble(int row) {
+      return values[row];
+    }
+
+    @Override
+    Object getValue(int row) {
+      return values[row];
+    }
+
+    @Override
+    boolean accepts(Object value) {
+      return value instanceof Long;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > values.length) {
+        values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+      }
+    }
+
+    @Override
+    void set(int row, Object value) {
+      values[row] = ((Number) value).longValue();
+    }
+
+    void appendLong(long value) {
+      ensureCapacity(size + 1);
+      values[size++] = value;
+    }
+
+    @Override
+    void append(JdbcRowDecoder.Column column, int rows) {
+      ensureCapacity(size + rows);
+      for (int i = 0; i < rows; i++) {
+        if (column.isNull(i)) {
+          appendNull();
+        } else {
+          values[size++] = column.getLong(i);
+        }
+      }
+    }
+
+    @Override
+    void copy(int row, ColumnVector other, int otherRow) {
+      values[row] = ((LongVector) other).values[otherRow];
+    }
+  }
+
+  static final class DoubleVector extends ColumnVector {
+    // FLOAT values are returned as Float, like the JDBC driver does
+    private final boolean isFloat;
+    private double[] values = new double[0];
+
+    DoubleVector(boolean isFloat) {
+      this.isFloat = isFloat;
+    }
+
+    @Override
+    int getInt(int row) {
+      return (int) values[row];
+    }
+
+    @Override
+    long getLong(int row) {
+      return (long) values[row];
+    }
+
+    @Override
+    double getDouble(int row) {
+      return values[row];
+    }
+
+    @Override
+    Object getValue(int row) {
+      return isFloat ? (Object) (float) values[row] : (Object) values[row];
+    }
+
+    @Override
+    boolean accepts(Object value) {
+      return isFloat ? value instanceof Float : value instanceof Double;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > values.length) {
+        values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+      }
+    }
+
+    @Override
+    void set(int row, Object value) {
+      values[row] = ((Number) value).doubleValue();
+    }
+
+    void appendDouble(double value) {
+      ensureCapacity(size + 1);
+      values[size++] = value;
+    }
+
+    @Override
+    void append(JdbcRowDecoder.Column column, int rows) {
+      ensureCapacity(size + rows);
+      for (int i = 0; i < rows; i++) {
+        if (column.isNull(i)) {
+          appendNull();
+        } else {
+          values[size++] = column.getDouble(i);
+        }
+      }
+    }
+
+    @Override
+    void copy(int row, ColumnVector other, int otherRow) {
+      values[row] = ((DoubleVector) other).values[otherRow];
+    }
+  }
+
+  static final class StringVector extends ColumnVector {
+    // the dictionary is dropped once it holds more distinct values than this fraction of
+    // the rows, as it then costs more than it saves; small dictionaries are always kept
+    private static final double MAX_DISTINCT_FRACTION = 0.5;
+    private static final int MIN_DICTIONARY_SIZE = 1024;
+
+    private Map<String, Integer> codes = new HashMap<>();
+    private List<String> dictionary = new ArrayList<>();
+    private int[] values = new int[0];
+    // the values once they are no longer dictionary-encoded
+    private String[] strings;
+
+    @Override
+    Object getValue(int row) {
+      return strings != null ? strings[row] : dictionary.get(values[row]);
+    }
+
+    @Override
+    boolean accepts(Object value) {
+      return value instanceof String;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (strings != null) {
+        if (capacity > strings.length) {
+          strings = Arrays.copyOf(strings, newCapacity(strings.length, capacity));
+        }
+      } else if (capacity > values.length) {
+        values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+      }
+    }
+
+    @Override
+    void set(int row, Object value) {
+      String s = value.toString();
+      if (strings != null) {
+        strings[row] = s;
+        return;
+      }
+      values[row] = encode(s);
+      if (dictionary.size() >= MIN_DICTIONARY_SIZE
+          && dictionary.size() > size * MAX_DISTINCT_FRACTION) {
+        decode();
+      }
+    }
+
+    private int encode(String s) {
+      Integer code = codes.get(s);
+      if (code == null) {
+        code = dictionary.size();
+        dictionary.add(s);
+        codes.put(s, code);
+      }
+      return code;
+    }
+
+    private void decode() {
+      String[] decoded = new String[values.length];
+      for (int i = 0; i < size; i++) {
+        if (!isNull(i)) {
+          decoded[i] = dictionary.get(values[i]);
+        }
+      }
+      strings = decoded;
+      values = null;
+      codes = null;
+      dictionary = null;
+    }
+
+    @Override
+    void copy(int row, ColumnVector other, int otherRow) {
+      if (other == this && strings == null) {
+        values[row] = values[otherRow];
+      } else {
+        set(row, other.getValue(otherRow));
+      }
+    }
+  }
+
+  static final class ObjectVector extends ColumnVector {
+    private Object[] values = new Object[0];
+
+    @Override
+    Object getValue(int row) {
+      return values[row];
+    }
+
+    @Override
+    boolean accepts(Object value) {
+      return true;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > values.length) {
+        values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+      }
+    }
+
+    @Override
+    void set(int row, Object value) {
+      values[row] = value;
+    }
+
+    @Override
+    void copy(int row, ColumnVector other, int otherRow) {
+      values[row] = ((ObjectVector) other).values[otherRow];
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import traindb.common.TrainDBException;
+import traindb.engine.nio.ByteBuffers;
+import traindb.engine.nio.MessageStream;
+
+/**
+ * Encodes rows of a result set into DataRow ('D') messages.
+ *
+ * <p>Rows are read in batches by a {@link JdbcRowDecoder}. A writer is resolved for each
+ * column once from its type, and values are written directly into the send buffer of the
+ * message stream.
+ */
+final class DataRowEncoder {
+  private static final int BATCH_SIZE = 256;
+
+  @FunctionalInterface
+  interface ColumnWriter {
+    void write(JdbcRowDecoder.Batch batch, int column, int row, MessageStream out);
+  }
+
+  private final JdbcRowDecoder decoder;
+  private final JdbcRowDecoder.Batch batch;
+  private final ColumnWriter[] writers;
+
+  DataRowEncoder(JdbcRowDecoder decoder) throws TrainDBException {
+    this.decoder = decoder;
+    this.batch = decoder.newBatch(BATCH_SIZE);
+    int columnCount = decoder.getColumnCount();
+    writers = new ColumnWriter[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      writers[i] = getColumnWriter(decoder.getColumnType(i));
+    }
+  }
+
+  int getColumnCount() {
+    return writers.length;
+  }
+
+  /**
+   * Sends up to maxRows rows of the result set, or all remaining rows if maxRows is not
+   * positive. Returns the number of rows sent.
+   */
+  long encode(ResultSet rs, MessageStream out, long maxRows) throws SQLException, IOException {
+    long total = 0;
+    int rows;
+    while ((maxRows <= 0 || total < maxRows)
+        && (rows = decoder.read(rs, batch, maxRows <= 0 ? 0 : maxRows - total)) > 0) {
+      for (int row = 0; row < rows; row++) {
+        out.beginMessage('D');
+        out.putShort((short) writers.length);
+        for (int i = 0; i < writers.length; i++) {
+          writers[i].write(batch, i, row, out);
+        }
+        out.endMessage();
+      }
+      total += rows;
+    }
+    return total;
+  }
+
+  private static ColumnWriter getColumnWriter(int type) throws TrainDBException {
+    switch (type) {
+      case Types.TINYINT:
+        return (b, i, row, out) ->
+            out.putInt(ByteBuffers.BYTE_BYTES).putByte((byte) b.getInt(i, row));
+      case Types.SMALLINT:
+        return (b, i, row, out) ->
+            out.putInt(ByteBuffers.SHORT_BYTES).putShort((short) b.getInt(i, row));
+      case Types.INTEGER:
+        return (b, i, row, out) -> out.putInt(ByteBuffers.INTEGER_BYTES).putInt(b.getInt(i, row));
+      case Types.BIGINT:
+        return (b, i, row, out) -> out.putInt(ByteBuffers.LONG_BYTES).putLong(b.getLong(i, row));
+      case Types.FLOAT:
+        return (b, i, row, out) ->
+            out.putInt(ByteBuffers.FLOAT_BYTES).putFloat((float) b.getDouble(i, row));
+      case Types.DECIMAL:
+      case Types.DOUBLE:
+        // DECIMAL is described as DOUBLE in RowDescription
+        return (b, i, row, out) ->
+            out.putInt(ByteBuffers.DOUBLE_BYTES).putDouble(b.getDouble(i, row));
+      case Types.CHAR:
+      case Types.VARCHAR:
+        return (b, i, row, out) -> {
+          Object s = b.getValue(i, row);
+          if (s == null) {
+            out.putInt(-1);
+          } else {
+            out.putLengthPrefixedUtf8((String) s);
+          }
+        };
+      case Types.TIMESTAMP:
+        return (b, i, row, out) -> {
+          Object ts = b.getValue(i, row);
+          if (ts == null) {
+            out.putInt(0);
+          } else {
+            out.putLengthPrefixedUtf8(ts.toString());
+          }
+        };
+      case Types.VARBINARY:
+        return (b, i, row, out) -> {
+          byte[] bytes = (byte[]) b.getValue(i, row);
+          if (bytes == null) {
+            out.putInt(-1);
+          } else {
+            out.putInt(bytes.length).putBytes(bytes, 0, bytes.length);
+          }
+        };
+      // TODO support more data types
+      default:
+        throw new TrainDBException("Not supported data type: " + type);
+    }
+  }
+}
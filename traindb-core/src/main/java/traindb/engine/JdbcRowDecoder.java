@@ -0,0 +1,378 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Reads rows of a JDBC result set into batches of typed columns.
+ *
+ * <p>The reader of each column is resolved once from the result set metadata. TINYINT,
+ * SMALLINT and INTEGER values are read with getInt into an int array, BIGINT values with
+ * getLong into a long array, and REAL, FLOAT and DOUBLE values with getDouble into a double
+ * array, so they are not boxed. DECIMAL and NUMERIC values are read with getBigDecimal, and
+ * character, date-time and binary values with their own getters. Values of the other types
+ * are read with getObject.
+ */
+public final class JdbcRowDecoder {
+  private final int[] types;
+
+  public JdbcRowDecoder(ResultSetMetaData md) throws SQLException {
+    types = new int[md.getColumnCount()];
+    for (int j = 0; j < types.length; j++) {
+      types[j] = md.getColumnType(j + 1);
+    }
+  }
+
+  public int getColumnCount() {
+    return types.length;
+  }
+
+  /**
+   * Returns the JDBC type of the column, as given by the result set metadata.
+   */
+  public int getColumnType(int index) {
+    return types[index];
+  }
+
+  /**
+   * Returns a batch which holds up to the given number of rows.
+   */
+  public Batch newBatch(int capacity) {
+    Column[] columns = new Column[types.length];
+    for (int j = 0; j < types.length; j++) {
+      columns[j] = newColumn(types[j], capacity);
+    }
+    return new Batch(columns, capacity);
+  }
+
+  /**
+   * Reads the next rows of the result set into the batch, replacing the rows it had. Reads as
+   * many rows as the batch holds, but no more than maxRows if it is positive. Returns the
+   * number of rows read, which is 0 once the result set is exhausted.
+   */
+  public int read(ResultSet rs, Batch batch, long maxRows) throws SQLException {
+    int limit = maxRows > 0 ? (int) Math.min(batch.capacity, maxRows) : batch.capacity;
+    Column[] columns = batch.columns;
+    for (Column column : columns) {
+      column.clearNulls();
+    }
+    int rows = 0;
+    while (rows < limit && rs.next()) {
+      for (int j = 0; j < columns.length; j++) {
+        columns[j].read(rs, j + 1, rows);
+      }
+      rows++;
+    }
+    batch.size = rows;
+    return rows;
+  }
+
+  private static Column newColumn(int type, int capacity) {
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        return new IntColumn(capacity);
+      case Types.BIGINT:
+        return new LongColumn(capacity);
+      case Types.REAL:
+        return new DoubleColumn(capacity, true);
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return new DoubleColumn(capacity, false);
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return new ObjectColumn(capacity, ResultSet::getBigDecimal);
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+        return new ObjectColumn(capacity, ResultSet::getString);
+      case Types.DATE:
+        return new ObjectColumn(capacity, ResultSet::getDate);
+      case Types.TIME:
+        return new ObjectColumn(capacity, ResultSet::getTime);
+      case Types.TIMESTAMP:
+        return new ObjectColumn(capacity, ResultSet::getTimestamp);
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+        return new ObjectColumn(capacity, ResultSet::getBytes);
+      default:
+        return new ObjectColumn(capacity, ResultSet::getObject);
+    }
+  }
+
+  /**
+   * Rows read from a result set, stored column by column.
+   */
+  public static final class Batch {
+    private final Column[] columns;
+    private final int capacity;
+    private int size;
+
+    private Batch(Column[] columns, int capacity) {
+      this.columns = columns;
+      this.capacity = capacity;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    Column column(int index) {
+      return columns[index];
+    }
+
+    public boolean isNull(int column, int row) {
+      return columns[column].isNull(row);
+    }
+
+    /**
+     * Returns the value, or null if it is null.
+     */
+    public Object getValue(int column, int row) {
+      Column c = columns[column];
+      return c.isNull(row) ? null : c.getValue(row);
+    }
+
+    /**
+     * Returns the value as an int, or 0 if it is null.
+     */
+    public int getInt(int column, int row) {
+      return columns[column].getInt(row);
+    }
+
+    /**
+     * Returns the value as a long, or 0 if it is null.
+     */
+    public long getLong(int column, int row) {
+      return columns[column].getLong(row);
+    }
+
+    /**
+     * Returns the value as a double, or 0 if it is null.
+     */
+    public double getDouble(int column, int row) {
+      return columns[column].getDouble(row);
+    }
+  }
+
+  /**
+   * Column of a batch. Null slots of int, long and double columns hold zero.
+   */
+  abstract static class Column {
+    // bit (i % 8) of byte (i / 8) is set if the value of row i is null
+    final byte[] nulls;
+
+    Column(int capacity) {
+      nulls = new byte[(capacity + 7) / 8];
+    }
+
+    final boolean isNull(int row) {
+      return (nulls[row >> 3] & (1 << (row & 7))) != 0;
+    }
+
+    final void setNull(int row) {
+      nulls[row >> 3] |= (byte) (1 << (row & 7));
+    }
+
+    final void clearNulls() {
+      Arrays.fill(nulls, (byte) 0);
+    }
+
+    abstract void read(ResultSet rs, int column, int row) throws SQLException;
+
+    /**
+     * Returns the value of the row, which must not be null.
+     */
+    abstract Object getValue(int row);
+
+    abstract int getInt(int row);
+
+    abstract long getLong(int row);
+
+    abstract double getDouble(int row);
+  }
+
+  static final class IntColumn extends Column {
+    final int[] values;
+
+    IntColumn(int capacity) {
+      super(capacity);
+      values = new int[capacity];
+    }
+
+    @Override
+    void read(ResultSet rs, int column, int row) throws SQLException {
+      values[row] = rs.getInt(column);
+      if (rs.wasNull()) {
+        setNull(row);
+      }
+    }
+
+    @Override
+    Object getValue(int row) {
+      return values[row];
+    }
+
+    @Override
+    int getInt(int row) {
+      return values[row];
+    }
+
+    @Override
+    long getLong(int row) {
+      return values[row];
+    }
+
+    @Override
+    double getDouble(int row) {
+      return values[row];
+    }
+  }
+
+  static final class LongColumn extends Column {
+    final long[] values;
+
+    LongColumn(int capacity) {
+      super(capacity);
+      values = new long[capacity];
+    }
+
+    @Override
+    void read(ResultSet rs, int column, int row) throws SQLException {
+      values[row] = rs.getLong(column);
+      if (rs.wasNull()) {
+        setNull(row);
+      }
+    }
+
+    @Override
+    Object getValue(int row) {
+      return values[row];
+    }
+
+    @Override
+    int getInt(int row) {
+      return (int) values[row];
+    }
+
+    @Override
+    long getLong(int row) {
+      return values[row];
+    }
+
+    @Override
+    double getDouble(int row) {
+      return values[row];
+    }
+  }
+
+  static final class DoubleColumn extends Column {
+    // REAL values are returned as Float, like the JDBC driver does
+    private final boolean isFloat;
+    final double[] values;
+
+    DoubleColumn(int capacity, boolean isFloat) {
+      super(capacity);
+      this.isFloat = isFloat;
+      values = new double[capacity];
+    }
+
+    @Override
+    void read(ResultSet rs, int column, int row) throws SQLException {
+      values[row] = rs.getDouble(column);
+      if (rs.wasNull()) {
+        setNull(row);
+      }
+    }
+
+    @Override
+    Object getValue(int row) {
+      return isFloat ? (Object) (float) values[row] : (Object) values[row];
+    }
+
+    @Override
+    int getInt(int row) {
+      return (int) values[row];
+    }
+
+    @Override
+    long getLong(int row) {
+      return (long) values[row];
+    }
+
+    @Override
+    double getDouble(int row) {
+      return values[row];
+    }
+  }
+
+  @FunctionalInterface
+  private interface ValueReader {
+    Object read(ResultSet rs, int column) throws SQLException;
+  }
+
+  static final class ObjectColumn extends Column {
+    private final ValueReader reader;
+    final Object[] values;
+
+    private ObjectColumn(int capacity, ValueReader reader) {
+      super(capacity);
+      this.reader = reader;
+      values = new Object[capacity];
+    }
+
+    @Override
+    void read(ResultSet rs, int column, int row) throws SQLException {
+      Object value = reader.read(rs, column);
+      if (value == null) {
+        setNull(row);
+      }
+      values[row] = value;
+    }
+
+    @Override
+    Object getValue(int row) {
+      return values[row];
+    }
+
+    @Override
+    int getInt(int row) {
+      Object value = values[row];
+      return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    @Override
+    long getLong(int row) {
+      Object value = values[row];
+      return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    @Override
+    double getDouble(int row) {
+      Object value = values[row];
+      return value == null ? 0 : ((Number) value).doubleValue();
+    }
+  }
+}
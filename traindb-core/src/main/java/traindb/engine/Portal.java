@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import traindb.common.TrainDBException;
+import traindb.engine.nio.MessageStream;
+
+/**
+ * An open result set of a session whose rows are sent as the client asks for them.
+ *
+ * <p>Rows are read from the live result set only when they are fetched, so the memory held by
+ * the server and the data buffered on the socket are bounded by the requested row counts.
+ * As the query keeps running until the portal is closed, so does its admission.
+ */
+final class Portal {
+  private final String name;
+  private final Statement stmt;
+  private final ResultSet rs;
+  private final DataRowEncoder rowEncoder;
+  private final ColumnBatchEncoder batchEncoder;
+  private final QueryAdmissionController.Ticket ticket;
+
+  /**
+   * Creates a portal over the result set. The statement and the admission ticket, if not
+   * null, are owned by the portal and closed with it.
+   *
+   * @param columnBatchSize rows per ColumnBatch message, or 0 to send DataRow messages
+   */
+  Portal(String name, Statement stmt, ResultSet rs, int columnBatchSize,
+         QueryAdmissionController.Ticket ticket) throws SQLException, TrainDBException {
+    this.name = name;
+    this.stmt = stmt;
+    this.rs = rs;
+    this.ticket = ticket;
+    JdbcRowDecoder decoder = new JdbcRowDecoder(rs.getMetaData());
+    if (columnBatchSize > 0) {
+      this.rowEncoder = null;
+      this.batchEncoder = new ColumnBatchEncoder(decoder, columnBatchSize);
+    } else {
+      this.rowEncoder = new DataRowEncoder(decoder);
+      this.batchEncoder = null;
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  ResultSet getResultSet() {
+    return rs;
+  }
+
+  /**
+   * Sends up to maxRows rows, or all remaining rows if maxRows is not positive. Returns the
+   * number of rows sent; the portal is exhausted if it is less than a positive maxRows.
+   */
+  long fetch(MessageStream out, long maxRows) throws SQLException, IOException {
+    if (batchEncoder != null) {
+      return batchEncoder.encode(rs, out, maxRows);
+    }
+    return rowEncoder.encode(rs, out, maxRows);
+  }
+
+  void close() throws SQLException {
+    try {
+      rs.close();
+    } finally {
+      try {
+        if (stmt != null) {
+          stmt.close();
+        }
+      } finally {
+        if (ticket != null) {
+          ticket.close();
+        }
+      }
+    }
+  }
+}
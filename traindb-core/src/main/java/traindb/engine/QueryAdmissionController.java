@@ -0,0 +1,392 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.service.AbstractService;
+import traindb.common.TrainDBConfiguration;
+import traindb.common.TrainDBException;
+import traindb.common.TrainDBLogger;
+import traindb.sql.TrainDBSqlCommand;
+
+/**
+ * Limits the number of queries executed concurrently by the sessions.
+ *
+ * <p>A query runs only if the number of running queries is below the global limit and the
+ * number of running queries of its user is below the per-user limit. Queries in the heavy
+ * lane, like model training and synopsis generation, are further limited so that they
+ * cannot take all the slots. Queries which cannot run yet wait in a queue ordered by lane,
+ * so interactive queries overtake heavy ones, and then by arrival.
+ *
+ * <p>A session keeps the ticket of a query while its portal is open, and can only give it
+ * back by handling a later message. So a session which already holds tickets is refused at
+ * once instead of waiting, as it could otherwise wait for itself. Sessions run by the event
+ * loop do not wait on their worker either: their query is queued, and resumed by a listener
+ * once it is admitted.
+ */
+public final class QueryAdmissionController extends AbstractService {
+  private static final TrainDBLogger LOG =
+      TrainDBLogger.getLogger(QueryAdmissionController.class);
+
+  private static final String PREFIX = TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "admission.";
+  private static final long TIMEOUT_MILLIS_DEFAULT = 60_000;
+  private static final Pattern APPROXIMATE_HINT =
+      Pattern.compile("/\\*\\+\\s*approximate", Pattern.CASE_INSENSITIVE);
+
+  /**
+   * Lanes in the order of priority.
+   */
+  public enum Lane {
+    INTERACTIVE,
+    NORMAL,
+    HEAVY
+  }
+
+  /**
+   * Receives the outcome of a query queued by {@link #admit(Object, String, Lane, Listener)}.
+   * It is called on the thread which frees the slot or times the query out, so it must only
+   * hand the query over to another thread.
+   */
+  public interface Listener {
+    void admitted(Ticket ticket);
+
+    void failed(TrainDBException e);
+  }
+
+  // guards the fields below; waiting threads do not pin the carriers of virtual threads
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, Integer> runningPerUser = new HashMap<>();
+  private final Map<Object, Integer> ticketsPerOwner = new IdentityHashMap<>();
+  private final TreeSet<Waiter> waiters = new TreeSet<>(
+      Comparator.comparingInt((Waiter w) -> w.lane.ordinal()).thenComparingLong(w -> w.seq));
+  private long nextSeq;
+  private int running;
+  private int runningHeavy;
+
+  private int maxQueries;
+  private int maxQueriesPerUser;
+  private int maxHeavyQueries;
+  private long timeoutMillis;
+  // times out the queued queries which do not wait on a thread
+  private ScheduledExecutorService timer;
+
+  public QueryAdmissionController() {
+    super(QueryAdmissionController.class.getSimpleName());
+  }
+
+  @Override
+  protected void serviceInit(Configuration conf) throws Exception {
+    super.serviceInit(conf);
+    maxQueries = Math.max(1,
+        conf.getInt(PREFIX + "max-queries", Runtime.getRuntime().availableProcessors() * 2));
+    maxQueriesPerUser = Math.max(1, conf.getInt(PREFIX + "max-queries-per-user", maxQueries));
+    // leave slots to the other lanes by default
+    maxHeavyQueries = Math.max(1,
+        conf.getInt(PREFIX + "max-heavy-queries", Math.max(1, maxQueries / 4)));
+    timeoutMillis = conf.getLong(PREFIX + "timeout-ms", TIMEOUT_MILLIS_DEFAULT);
+    if (timeoutMillis <= 0) {
+      timeoutMillis = TIMEOUT_MILLIS_DEFAULT;
+    }
+    timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, getName() + " timer");
+      t.setDaemon(true);
+      return t;
+    });
+    LOG.info("initialize service - " + getName() + " (max-queries=" + maxQueries
+        + ", max-queries-per-user=" + maxQueriesPerUser
+        + ", max-heavy-queries=" + maxHeavyQueries + ", timeout-ms=" + timeoutMillis + ")");
+  }
+
+  @Override
+  protected void serviceStop() throws Exception {
+    if (timer != null) {
+      timer.shutdownNow();
+    }
+    super.serviceStop();
+  }
+
+  /**
+   * Classifies a query by the TrainDB commands parsed from it, if any.
+   */
+  public static Lane classify(String sqlQuery, List<TrainDBSqlCommand> commands) {
+    if (commands == null || commands.isEmpty()) {
+      return APPROXIMATE_HINT.matcher(sqlQuery).find() ? Lane.INTERACTIVE : Lane.NORMAL;
+    }
+
+    switch (commands.get(0).getType()) {
+      case TRAIN_MODEL:
+      case CREATE_SYNOPSIS:
+      case ANALYZE_SYNOPSIS:
+      case INCREMENTAL_QUERY:
+      case INCREMENTAL_PARALLEL_QUERY:
+        return Lane.HEAVY;
+      case BYPASS_DDL_STMT:
+      case EXPORT_MODEL:
+      case IMPORT_MODEL:
+      case EXPORT_SYNOPSIS:
+      case IMPORT_SYNOPSIS:
+        return Lane.NORMAL;
+      default:
+        return Lane.INTERACTIVE;
+    }
+  }
+
+  /**
+   * Waits until the query may run. The returned ticket must be closed when the query is done.
+   *
+   * @param owner the session running the query, which is refused at once if it cannot run
+   *              now while the session holds other tickets; null if there is none
+   */
+  public Ticket admit(Object owner, String user, Lane lane) throws TrainDBException {
+    Waiter waiter;
+    lock.lock();
+    try {
+      waiter = enqueue(owner, user, lane, null);
+      long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      waiter.condition = lock.newCondition();
+      try {
+        while (!waiter.admitted) {
+          if (remaining <= 0) {
+            waiters.remove(waiter);
+            throw timedOut();
+          }
+          remaining = waiter.condition.awaitNanos(remaining);
+        }
+      } catch (InterruptedException e) {
+        if (waiter.admitted) {
+          release(waiter);
+        } else {
+          waiters.remove(waiter);
+        }
+        Thread.currentThread().interrupt();
+        throw new TrainDBException("interrupted while waiting for admission");
+      }
+    } finally {
+      lock.unlock();
+    }
+    return new Ticket(waiter);
+  }
+
+  /**
+   * Admits the query if it may run now, or else queues it without blocking the calling
+   * thread. Returns the ticket, or null if the query is queued, in which case the listener
+   * receives either the ticket or the timeout later.
+   */
+  public Ticket admit(Object owner, String user, Lane lane, Listener listener)
+      throws TrainDBException {
+    lock.lock();
+    try {
+      Waiter waiter = enqueue(owner, user, lane, listener);
+      if (waiter.admitted) {
+        return new Ticket(waiter);
+      }
+      waiter.timeout = timer.schedule(() -> expire(waiter), timeoutMillis,
+          TimeUnit.MILLISECONDS);
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // queues the query and admits what may run; the caller holds the lock
+  private Waiter enqueue(Object owner, String user, Lane lane, Listener listener)
+      throws TrainDBException {
+    Waiter waiter = new Waiter(owner, user == null ? "" : user, lane, nextSeq++, listener);
+    waiters.add(waiter);
+    List<Waiter> notified = dispatch();
+    if (waiter.admitted) {
+      notified.remove(waiter);
+    } else if (owner != null && ticketsPerOwner.containsKey(owner)) {
+      waiters.remove(waiter);
+      throw new TrainDBException("too many concurrent queries: close the open portals of "
+          + "the session to run another query");
+    } else {
+      LOG.debug("query of user '" + waiter.user + "' in " + lane + " lane is queued ("
+          + running + " running, " + waiters.size() + " waiting)");
+    }
+    notifyAdmitted(notified);
+    return waiter;
+  }
+
+  private TrainDBException timedOut() {
+    return new TrainDBException("query was not admitted within " + timeoutMillis
+        + "ms: too many concurrent queries");
+  }
+
+  private void expire(Waiter waiter) {
+    lock.lock();
+    try {
+      if (waiter.admitted || !waiters.remove(waiter)) {
+        return;
+      }
+    } finally {
+      lock.unlock();
+    }
+    waiter.listener.failed(timedOut());
+  }
+
+  private void release(Waiter waiter) {
+    List<Waiter> notified;
+    lock.lock();
+    try {
+      running--;
+      if (waiter.lane == Lane.HEAVY) {
+        runningHeavy--;
+      }
+      int userRunning = runningPerUser.get(waiter.user) - 1;
+      if (userRunning == 0) {
+        runningPerUser.remove(waiter.user);
+      } else {
+        runningPerUser.put(waiter.user, userRunning);
+      }
+      if (waiter.owner != null) {
+        int held = ticketsPerOwner.get(waiter.owner) - 1;
+        if (held == 0) {
+          ticketsPerOwner.remove(waiter.owner);
+        } else {
+          ticketsPerOwner.put(waiter.owner, held);
+        }
+      }
+      notified = dispatch();
+      notifyAdmitted(notified);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * Admits the waiters which may run now, in the order of priority. Waiting threads are
+   * signalled here; the admitted waiters with a listener are returned, to be notified once
+   * the lock is released.
+   */
+  private List<Waiter> dispatch() {
+    List<Waiter> notified = new ArrayList<>();
+    Iterator<Waiter> iter = waiters.iterator();
+    while (running < maxQueries && iter.hasNext()) {
+      Waiter waiter = iter.next();
+      if (waiter.lane == Lane.HEAVY && runningHeavy >= maxHeavyQueries) {
+        continue;
+      }
+      int userRunning = runningPerUser.getOrDefault(waiter.user, 0);
+      if (userRunning >= maxQueriesPerUser) {
+        continue;
+      }
+
+      iter.remove();
+      running++;
+      if (waiter.lane == Lane.HEAVY) {
+        runningHeavy++;
+      }
+      runningPerUser.put(waiter.user, userRunning + 1);
+      if (waiter.owner != null) {
+        ticketsPerOwner.merge(waiter.owner, 1, Integer::sum);
+      }
+      waiter.admitted = true;
+      if (waiter.condition != null) {
+        waiter.condition.signal();
+      } else if (waiter.listener != null) {
+        notified.add(waiter);
+      }
+    }
+    return notified;
+  }
+
+  // hands the tickets to the listeners after the lock is released by the caller
+  private void notifyAdmitted(List<Waiter> notified) {
+    if (notified.isEmpty()) {
+      return;
+    }
+    timer.execute(() -> {
+      for (Waiter waiter : notified) {
+        if (waiter.timeout != null) {
+          waiter.timeout.cancel(false);
+        }
+        waiter.listener.admitted(new Ticket(waiter));
+      }
+    });
+  }
+
+  public int getRunningQueries() {
+    lock.lock();
+    try {
+      return running;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getWaitingQueries() {
+    lock.lock();
+    try {
+      return waiters.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Waiter {
+    final Object owner;
+    final String user;
+    final Lane lane;
+    final long seq;
+    final Listener listener;
+    // set for a thread waiting in admit
+    Condition condition;
+    ScheduledFuture<?> timeout;
+    boolean admitted;
+
+    Waiter(Object owner, String user, Lane lane, long seq, Listener listener) {
+      this.owner = owner;
+      this.user = user;
+      this.lane = lane;
+      this.seq = seq;
+      this.listener = listener;
+    }
+  }
+
+  /**
+   * Permission to run a query, which is given back on close.
+   */
+  public final class Ticket implements AutoCloseable {
+    private Waiter waiter;
+
+    private Ticket(Waiter waiter) {
+      this.waiter = waiter;
+    }
+
+    @Override
+    public void close() {
+      if (waiter != null) {
+        release(waiter);
+        waiter = null;
+      }
+    }
+  }
+}
@@ -16,6 +16,8 @@ package traindb.engine;
 
 import com.google.common.base.Joiner;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
@@ -24,9 +26,13 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.zip.Deflater;
 import org.apache.calcite.avatica.ConnectStringParser;
 import org.apache.calcite.config.CalciteConnectionConfig;
 import org.apache.calcite.sql.parser.SqlParser;
@@ -42,6 +48,7 @@ import traindb.engine.nio.MessageStream;
 import traindb.jdbc.Driver;
 import traindb.jdbc.TrainDBConnectionImpl;
 import traindb.jdbc.TrainDBJdbc41Factory;
+import traindb.jdbc.TrainDBPreparedStatement;
 import traindb.jdbc.TrainDBStatement;
 import traindb.schema.SchemaManager;
 import traindb.sql.TrainDBSql;
@@ -51,21 +58,40 @@ import traindb.sql.calcite.TrainDBSqlCalciteParserImpl;
 public final class Session implements Runnable {
   private static TrainDBLogger LOG = TrainDBLogger.getLogger(Session.class);
   private static final ThreadLocal<Session> LOCAL_SESSION = new ThreadLocal<>();
+  private static final int COLUMN_BATCH_SIZE_DEFAULT = 1024;
+  private static final int COLUMN_BATCH_SIZE_MAX = 64 * 1024;
+  private static final int PREPARED_STATEMENT_CACHE_MAX = 64;
   private final CancelContext cancelContext;
   private final int sessionId;
 
   private final SocketChannel clientChannel;
   private final EventHandler eventHandler;
   private final SchemaManager schemaManager;
+  private final QueryAdmissionController admissionController;
+  private final SessionHandler sessHandler;
   final MessageStream messageStream;
 
-  Session(SocketChannel clientChannel, EventHandler eventHandler, SchemaManager schemaManager) {
+  private String userName;
+
+  // number of rows per ColumnBatch message, or 0 to send a DataRow message per row
+  private int columnBatchSize = 0;
+
+  // set by the event loop: the message whose query waits for admission, and its outcome
+  private Message parkedMessage;
+  private QueryAdmissionController.Ticket admittedTicket;
+  private TrainDBException admissionFailure;
+  private volatile boolean closed;
+
+  Session(SocketChannel clientChannel, EventHandler eventHandler, SchemaManager schemaManager,
+          QueryAdmissionController admissionController) {
     sessionId = new Random(this.hashCode()).nextInt();
     cancelContext = new CancelContext(this);
     this.clientChannel = clientChannel;
     this.eventHandler = eventHandler;
     this.schemaManager = schemaManager;
+    this.admissionController = admissionController;
     this.messageStream = new MessageStream(clientChannel);
+    this.sessHandler = new SessionHandler();
   }
 
   public static Session currentSession() {
@@ -98,6 +124,98 @@ public final class Session implements Runnable {
     close();
   }
 
+  /**
+   * Handles the messages already received by the event loop. Returns false if reading must
+   * not be resumed: either the session has been closed, or a query waits for admission, in
+   * which case the given task is run once the query is admitted or has timed out, so that
+   * the worker is not blocked meanwhile.
+   */
+  boolean processPendingMessages(Runnable resume) {
+    LOCAL_SESSION.set(this);
+    try {
+      while (parkedMessage != null || messageStream.hasMessage()) {
+        if (closed) {
+          if (admittedTicket != null) {
+            admittedTicket.close();
+            admittedTicket = null;
+          }
+          return false;
+        }
+        Message msg = parkedMessage != null ? parkedMessage : messageStream.getMessage();
+        parkedMessage = null;
+        if (admittedTicket == null && admissionFailure == null && !admitNow(msg, resume)) {
+          return false;
+        }
+        try {
+          if (admissionFailure != null) {
+            sendError(admissionFailure);
+          } else {
+            handleMessage(msg);
+          }
+        } finally {
+          admissionFailure = null;
+          // the handler takes the ticket unless it failed before its query ran
+          if (admittedTicket != null) {
+            admittedTicket.close();
+            admittedTicket = null;
+          }
+        }
+      }
+      return true;
+    } catch (Exception e) {
+      LOG.error(ExceptionUtils.getStackTrace(e));
+      close();
+      return false;
+    } finally {
+      LOCAL_SESSION.remove();
+    }
+  }
+
+  /*
+   * Requests the admission of the query run by the message, if any, without waiting.
+   * Returns false if the query is queued; the message is then kept until the listener
+   * resumes the session.
+   */
+  private boolean admitNow(Message msg, Runnable resume) {
+    if (admissionController == null) {
+      return true;
+    }
+    QueryAdmissionController.Lane lane =
+        sessHandler.admissionLane(new Message(msg.getType(), msg.getBody()));
+    if (lane == null) {
+      return true;
+    }
+    // kept before the request, as the listener may resume the session on another thread
+    parkedMessage = msg;
+    QueryAdmissionController.Ticket ticket;
+    try {
+      ticket = admissionController.admit(this, userName, lane,
+          new QueryAdmissionController.Listener() {
+            @Override
+            public void admitted(QueryAdmissionController.Ticket t) {
+              admittedTicket = t;
+              resume.run();
+            }
+
+            @Override
+            public void failed(TrainDBException e) {
+              admissionFailure = e;
+              resume.run();
+            }
+          });
+    } catch (TrainDBException e) {
+      parkedMessage = null;
+      admissionFailure = e;
+      return true;
+    }
+    if (ticket == null) {
+      return false;
+    }
+    parkedMessage = null;
+    admittedTicket = ticket;
+    return true;
+  }
+
   public void sendError(Exception e) throws IOException {
     Message.Builder builder = Message.builder('E')
             .putChar('S').putCString("ERROR")
@@ -108,37 +226,149 @@ public final class Session implements Runnable {
   }
 
   private void messageLoop() throws Exception {
-    SessionHandler sessHandler = new SessionHandler();
-
     while (true) {
-      try {
-        Message msg = messageStream.getMessage();
-        char type = msg.getType();
-        LOG.debug("received data type=" + msg.getType());
+      handleMessage(messageStream.getMessage());
+    }
+  }
 
-        // TODO: handle messages
-        switch (type) {
-          case 'S':
-            JSONParser jsonParser = new JSONParser();
-            JSONObject jsonMsg = (JSONObject) jsonParser.parse(msg.getBodyString());
-            Properties info = new Properties();
-            info.put("user", jsonMsg.get("user").toString());
-            info.put("password", jsonMsg.get("password").toString());
-            sessHandler.setConnection(makeConnection(jsonMsg.get("url").toString(), info));
-            break;
-          case 'E':
-            sessHandler.handleQuery(msg.getBodyString());
-            break;
-          default:
-            messageStream.discard();
-            throw new TrainDBException("invalid message type '" + type + "'");
+  private void handleMessage(Message msg) throws Exception {
+    try {
+      char type = msg.getType();
+      LOG.debug("received data type=" + msg.getType());
+
+      // TODO: handle messages
+      switch (type) {
+        case 'S':
+          JSONParser jsonParser = new JSONParser();
+          JSONObject jsonMsg = (JSONObject) jsonParser.parse(msg.getBodyString());
+          Properties info = new Properties();
+          info.put("user", jsonMsg.get("user").toString());
+          userName = jsonMsg.get("user").toString();
+          info.put("password", jsonMsg.get("password").toString());
+          sessHandler.setConnection(makeConnection(jsonMsg.get("url").toString(), info));
+          negotiate(jsonMsg);
+          break;
+        case 'E':
+          sessHandler.handleQuery(msg.getBodyString());
+          break;
+        case 'O': { // open portal
+          String portalName = msg.getCString();
+          String sqlQuery = msg.getCString();
+          int maxRows = msg.getInt();
+          sessHandler.openPortal(portalName, sqlQuery, maxRows);
+          break;
         }
-      } catch (Exception e) {
-        throw new TrainDBException(e.getMessage());
+        case 'F': { // fetch from portal
+          String portalName = msg.getCString();
+          int maxRows = msg.getInt();
+          sessHandler.fetchPortal(portalName, maxRows);
+          break;
+        }
+        case 'C': // close portal
+          sessHandler.closePortal(msg.getCString());
+          break;
+        case 'P': { // parse
+          String stmtName = msg.getCString();
+          String sqlQuery = msg.getCString();
+          sessHandler.parse(stmtName, sqlQuery);
+          break;
+        }
+        case 'B': { // bind
+          String portalName = msg.getCString();
+          String stmtName = msg.getCString();
+          sessHandler.bind(portalName, stmtName, msg);
+          break;
+        }
+        default:
+          messageStream.discard();
+          throw new TrainDBException("invalid message type '" + type + "'");
       }
+    } catch (Exception e) {
+      throw new TrainDBException(e.getMessage());
     }
   }
 
+  /*
+   * Applies the optional protocol settings requested in the startup message and reports the
+   * accepted values in a ParameterStatus ('S') message. Clients which request none of them
+   * get no reply, so existing clients keep working unchanged.
+   */
+  private void negotiate(JSONObject jsonMsg) throws IOException, TrainDBException {
+    Map<String, String> status = new LinkedHashMap<>();
+
+    Object resultFormat = jsonMsg.get("resultFormat");
+    if (resultFormat != null) {
+      if (resultFormat.toString().equalsIgnoreCase("columnar")) {
+        int batchSize = COLUMN_BATCH_SIZE_DEFAULT;
+        Object requested = jsonMsg.get("batchSize");
+        if (requested != null) {
+          try {
+            batchSize = Integer.parseInt(requested.toString());
+          } catch (NumberFormatException e) {
+            throw new TrainDBException("invalid batchSize: " + requested);
+          }
+          batchSize = Math.max(1, Math.min(batchSize, COLUMN_BATCH_SIZE_MAX));
+        }
+        columnBatchSize = batchSize;
+        status.put("resultFormat", "columnar");
+        status.put("batchSize", String.valueOf(batchSize));
+      } else {
+        columnBatchSize = 0;
+        status.put("resultFormat", "row");
+      }
+    }
+
+    int compressionLevel = -1;
+    Object compression = jsonMsg.get("compression");
+    if (compression != null) {
+      // only Deflate is available without additional dependencies
+      if (compression.toString().equalsIgnoreCase("deflate")) {
+        compressionLevel = Deflater.BEST_SPEED;
+        Object requested = jsonMsg.get("compressionLevel");
+        if (requested != null) {
+          try {
+            compressionLevel = Integer.parseInt(requested.toString());
+          } catch (NumberFormatException e) {
+            throw new TrainDBException("invalid compressionLevel: " + requested);
+          }
+          compressionLevel = Math.max(Deflater.NO_COMPRESSION,
+              Math.min(compressionLevel, Deflater.BEST_COMPRESSION));
+        }
+        status.put("compression", "deflate");
+        status.put("compressionLevel", String.valueOf(compressionLevel));
+      } else {
+        status.put("compression", "none");
+      }
+    }
+
+    Object flushThreshold = jsonMsg.get("flushThreshold");
+    if (flushThreshold != null) {
+      try {
+        messageStream.setFlushThreshold(Integer.parseInt(flushThreshold.toString()));
+      } catch (NumberFormatException e) {
+        throw new TrainDBException("invalid flushThreshold: " + flushThreshold);
+      }
+      status.put("flushThreshold", String.valueOf(messageStream.getFlushThreshold()));
+    }
+
+    if (!status.isEmpty()) {
+      sendParameterStatus(status);
+    }
+    // the reply itself is not compressed
+    if (compressionLevel >= 0) {
+      messageStream.enableCompression(compressionLevel);
+    }
+  }
+
+  private void sendParameterStatus(Map<String, String> status) throws IOException {
+    LOG.debug("send ParameterStatus message");
+    Message.Builder msgBld = Message.builder('S');
+    for (Map.Entry<String, String> entry : status.entrySet()) {
+      msgBld.putCString(entry.getKey()).putCString(entry.getValue());
+    }
+    messageStream.putMessageAndFlush(msgBld.build());
+  }
+
   private TrainDBConnectionImpl makeConnection(String url, Properties info) throws SQLException {
     try {
       String newUrl = url;
@@ -174,6 +404,23 @@ public final class Session implements Runnable {
     private TrainDBConnectionImpl conn;
     private TrainDBStatement stmt;
     private SqlParser.Config parserConfig;
+    private final Map<String, Portal> portals = new HashMap<>();
+    // the query parsed by admissionLane and its commands
+    private String parsedSql;
+    private List<TrainDBSqlCommand> parsedCommands;
+
+    // prepared statements by name, least recently used first
+    private final Map<String, CachedStatement> preparedStmts =
+        new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+            if (size() <= PREPARED_STATEMENT_CACHE_MAX) {
+              return false;
+            }
+            closeStatement(eldest.getValue());
+            return true;
+          }
+        };
 
     SessionHandler() {
       this.conn = null;
@@ -187,6 +434,11 @@ public final class Session implements Runnable {
     }
 
     public void setConnection(TrainDBConnectionImpl newConn) {
+      closeAllPortals();
+      for (CachedStatement cached : preparedStmts.values()) {
+        closeStatement(cached);
+      }
+      preparedStmts.clear();
       try {
         if (conn != null) {
           if (stmt != null) {
@@ -227,33 +479,392 @@ public final class Session implements Runnable {
         }
 
         // First check input query with TrainDB sql grammar
-        List<TrainDBSqlCommand> commands = null;
-        try {
-          commands = TrainDBSql.parse(sqlQuery, parserConfig);
-        } catch (Exception e) {
-          if (commands != null) {
-            commands.clear();
+        List<TrainDBSqlCommand> commands = parseCommands(sqlQuery);
+
+        try (QueryAdmissionController.Ticket ticket =
+                 admit(QueryAdmissionController.classify(sqlQuery, commands))) {
+          if (commands != null && commands.size() > 0
+              && !isTrainDBStmtWithResultSet(commands.get(0).getType())) {  // TrainDB DDL
+            stmt.execute(sqlQuery);
+            sendCommandComplete(commands.get(0).getType().toString());
+          } else {
+            // stmt.setFetchSize(0);
+            ResultSet rs = stmt.executeQuery(sqlQuery);
+            sendRowDesc(rs.getMetaData());
+            sendDataRow(rs);
+            sendCommandComplete("SELECT"); // FIXME
           }
         }
-
-        if (commands != null && commands.size() > 0
-            && !isTrainDBStmtWithResultSet(commands.get(0).getType())) {  // TrainDB DDL
-          stmt.execute(sqlQuery);
-          sendCommandComplete(commands.get(0).getType().toString());
-        } else {
-          // stmt.setFetchSize(0);
-          ResultSet rs = stmt.executeQuery(sqlQuery);
-          sendRowDesc(rs.getMetaData());
-          sendDataRow(rs);
-          sendCommandComplete("SELECT"); // FIXME
-        }
       } catch (IOException ioe) {
         sendError(ioe);
       } catch (SQLException se) {
         sendError(se);
+      } catch (TrainDBException te) {
+        sendError(te);
+      }
+    }
+
+    // the ticket is null if the session is not run by the server
+    private QueryAdmissionController.Ticket admit(QueryAdmissionController.Lane lane)
+        throws TrainDBException {
+      if (admittedTicket != null) {
+        // already admitted by the event loop
+        QueryAdmissionController.Ticket ticket = admittedTicket;
+        admittedTicket = null;
+        return ticket;
+      }
+      if (admissionController == null) {
+        return null;
+      }
+      return admissionController.admit(Session.this, userName, lane);
+    }
+
+    /*
+     * Returns the lane of the query run by the message, or null if it runs none. The
+     * portals which the message replaces are closed first, so that their tickets are given
+     * back before another is requested.
+     */
+    QueryAdmissionController.Lane admissionLane(Message msg) {
+      if (conn == null) {
+        return null;
+      }
+      switch (msg.getType()) {
+        case 'E': {
+          String sqlQuery = msg.getBodyString();
+          return QueryAdmissionController.classify(sqlQuery, parseAhead(sqlQuery));
+        }
+        case 'O': {
+          closePortalIfExists(msg.getCString());
+          String sqlQuery = msg.getCString();
+          return QueryAdmissionController.classify(sqlQuery, parseAhead(sqlQuery));
+        }
+        case 'P': {
+          CachedStatement cached = preparedStmts.get(msg.getCString());
+          String sqlQuery = msg.getCString();
+          if (cached != null && cached.sql.equals(sqlQuery)) {
+            return null;
+          }
+          List<TrainDBSqlCommand> commands = parseAhead(sqlQuery);
+          // TrainDB commands are refused by parse
+          if (commands != null && commands.size() > 0) {
+            return null;
+          }
+          return QueryAdmissionController.classify(sqlQuery, commands);
+        }
+        case 'B': {
+          closePortalIfExists(msg.getCString());
+          CachedStatement cached = preparedStmts.get(msg.getCString());
+          if (cached == null) {
+            return null;
+          }
+          try {
+            closeExecutions(cached);
+          } catch (SQLException e) {
+            LOG.debug("portal close error: " + e.getMessage());
+          }
+          return cached.lane;
+        }
+        default:
+          return null;
+      }
+    }
+
+    // parses the query ahead of its handler, which then gets the commands once
+    private List<TrainDBSqlCommand> parseAhead(String sqlQuery) {
+      List<TrainDBSqlCommand> commands = parseCommands(sqlQuery);
+      parsedSql = sqlQuery;
+      parsedCommands = commands;
+      return commands;
+    }
+
+    // returns the TrainDB commands of the query, or null if it is not a TrainDB command
+    private List<TrainDBSqlCommand> parseCommands(String sqlQuery) {
+      if (sqlQuery.equals(parsedSql)) {
+        List<TrainDBSqlCommand> commands = parsedCommands;
+        parsedSql = null;
+        parsedCommands = null;
+        return commands;
+      }
+      try {
+        return TrainDBSql.parse(sqlQuery, parserConfig);
+      } catch (Exception e) {
+        return null;
       }
     }
 
+    // re-executing a statement closes the result set of its previous execution
+    private void closeExecutions(CachedStatement cached) throws SQLException {
+      for (Portal portal : new ArrayList<>(portals.values())) {
+        if (portal.getResultSet().getStatement() == cached.stmt) {
+          closePortalIfExists(portal.getName());
+        }
+      }
+    }
+
+    /*
+     * Executes the query and keeps its result set open as the named portal. The client
+     * receives the row description and up to maxRows rows, followed by PortalSuspended ('s')
+     * if the portal may have more rows, or CommandComplete ('C') if it is exhausted.
+     */
+    public void openPortal(String name, String sqlQuery, int maxRows)
+        throws TrainDBException, IOException {
+      checkConnection();
+      LOG.debug("openPortal: " + name + ": " + sqlQuery);
+      closePortalIfExists(name);
+
+      List<TrainDBSqlCommand> commands = parseCommands(sqlQuery);
+
+      // the portal holds the ticket until it is closed
+      QueryAdmissionController.Ticket ticket = null;
+      TrainDBStatement portalStmt = null;
+      try {
+        ticket = admit(QueryAdmissionController.classify(sqlQuery, commands));
+        portalStmt = conn.createStatement(
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, conn.getHoldability());
+        portalStmt.setFetchSize(Math.max(maxRows, 0));
+        ResultSet rs = portalStmt.executeQuery(sqlQuery);
+        Portal portal = new Portal(name, portalStmt, rs, columnBatchSize, ticket);
+        portalStmt = null;
+        ticket = null;
+        portals.put(name, portal);
+        sendRowDesc(rs.getMetaData());
+        sendPortalRows(portal, maxRows);
+      } catch (SQLException | TrainDBException e) {
+        closeStatementQuietly(portalStmt);
+        if (ticket != null) {
+          ticket.close();
+        }
+        closePortalIfExists(name);
+        sendError(e);
+      }
+    }
+
+    public void fetchPortal(String name, int maxRows) throws IOException {
+      Portal portal = portals.get(name);
+      if (portal == null) {
+        sendError(new TrainDBException("portal \"" + name + "\" does not exist"));
+        return;
+      }
+      try {
+        sendPortalRows(portal, maxRows);
+      } catch (SQLException se) {
+        closePortalIfExists(name);
+        sendError(se);
+      }
+    }
+
+    public void closePortal(String name) throws IOException {
+      closePortalIfExists(name);
+      messageStream.putMessageAndFlush(Message.builder('3').build()); // CloseComplete
+    }
+
+    /*
+     * Prepares the query as the named statement. The statement is planned once and kept in
+     * the cache, so parsing the same query again under the same name costs nothing. TrainDB
+     * commands are executed while they are prepared, so they can only run as simple queries.
+     */
+    public void parse(String stmtName, String sqlQuery) throws TrainDBException, IOException {
+      checkConnection();
+      LOG.debug("parse: " + stmtName + ": " + sqlQuery);
+
+      CachedStatement cached = preparedStmts.get(stmtName);
+      if (cached == null || !cached.sql.equals(sqlQuery)) {
+        List<TrainDBSqlCommand> commands = parseCommands(sqlQuery);
+        if (commands != null && commands.size() > 0) {
+          sendError(new TrainDBException(
+              "cannot prepare TrainDB statement: " + commands.get(0).getType()));
+          return;
+        }
+
+        // preparing a join executed by the source runs it, so it is admitted as a query
+        QueryAdmissionController.Lane lane = QueryAdmissionController.classify(sqlQuery, commands);
+        try (QueryAdmissionController.Ticket ticket = admit(lane)) {
+          TrainDBPreparedStatement pstmt = conn.prepareStatement(sqlQuery,
+              ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, conn.getHoldability());
+          CachedStatement old = preparedStmts.put(stmtName,
+              new CachedStatement(sqlQuery, pstmt, lane));
+          if (old != null) {
+            closeStatement(old);
+          }
+        } catch (SQLException | TrainDBException e) {
+          sendError(e);
+          return;
+        }
+      }
+      messageStream.putMessageAndFlush(Message.builder('1').build()); // ParseComplete
+    }
+
+    /*
+     * Binds the parameter values to the named statement and opens its result as the named
+     * portal. The client receives BindComplete ('2') and the row description, and then gets
+     * the rows by fetching from the portal.
+     */
+    public void bind(String portalName, String stmtName, Message msg)
+        throws TrainDBException, IOException {
+      checkConnection();
+      LOG.debug("bind: " + portalName + ": " + stmtName);
+      closePortalIfExists(portalName);
+
+      CachedStatement cached = preparedStmts.get(stmtName);
+      if (cached == null) {
+        sendError(new TrainDBException("prepared statement \"" + stmtName + "\" does not exist"));
+        return;
+      }
+
+      // the portal holds the ticket until it is closed
+      QueryAdmissionController.Ticket ticket = null;
+      try {
+        // gives back the ticket of the previous execution before requesting another
+        closeExecutions(cached);
+        ticket = admit(cached.lane);
+        if (cached.executed && cached.stmt.isPrecomputed()) {
+          cached.stmt.close();
+          cached.stmt = conn.prepareStatement(cached.sql,
+              ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, conn.getHoldability());
+        }
+
+        cached.stmt.clearParameters();
+        bindParameters(cached.stmt, msg);
+        cached.executed = true;
+        ResultSet rs = cached.stmt.executeQuery();
+        portals.put(portalName, new Portal(portalName, null, rs, columnBatchSize, ticket));
+        ticket = null;
+        messageStream.putMessage(Message.builder('2').build()); // BindComplete
+        sendRowDesc(rs.getMetaData());
+        messageStream.flush();
+      } catch (SQLException | TrainDBException e) {
+        if (ticket != null) {
+          ticket.close();
+        }
+        closePortalIfExists(portalName);
+        sendError(e);
+      }
+    }
+
+    /*
+     * Parameter values are encoded like the column values of DataRow messages, preceded by
+     * the java.sql.Types code of each parameter, except DECIMAL and NUMERIC values, which are
+     * sent as their decimal string. A length of -1 denotes a null value.
+     */
+    private void bindParameters(TrainDBPreparedStatement pstmt, Message msg)
+        throws SQLException, TrainDBException {
+      int paramCount = msg.getShort();
+      for (int i = 1; i <= paramCount; i++) {
+        int type = msg.getInt();
+        int len = msg.getInt();
+        if (len < 0) {
+          pstmt.setNull(i, type);
+          continue;
+        }
+        ByteBuffer value = ByteBuffer.wrap(msg.getBytes(len));
+        switch (type) {
+          case Types.TINYINT:
+            pstmt.setByte(i, value.get());
+            break;
+          case Types.SMALLINT:
+            pstmt.setShort(i, value.getShort());
+            break;
+          case Types.INTEGER:
+            pstmt.setInt(i, value.getInt());
+            break;
+          case Types.BIGINT:
+            pstmt.setLong(i, value.getLong());
+            break;
+          case Types.FLOAT:
+            pstmt.setFloat(i, value.getFloat());
+            break;
+          case Types.DOUBLE:
+            pstmt.setDouble(i, value.getDouble());
+            break;
+          case Types.DECIMAL:
+          case Types.NUMERIC:
+            // sent as text, so that exact values keep their precision
+            String text = new String(value.array(), StandardCharsets.UTF_8);
+            try {
+              pstmt.setBigDecimal(i, new BigDecimal(text));
+            } catch (NumberFormatException e) {
+              throw new TrainDBException("invalid value of parameter " + i + ": " + text);
+            }
+            break;
+          case Types.CHAR:
+          case Types.VARCHAR:
+            pstmt.setString(i, new String(value.array(), StandardCharsets.UTF_8));
+            break;
+          case Types.TIMESTAMP:
+            pstmt.setTimestamp(i,
+                Timestamp.valueOf(new String(value.array(), StandardCharsets.UTF_8)));
+            break;
+          case Types.VARBINARY:
+            pstmt.setBytes(i, value.array());
+            break;
+          default:
+            throw new TrainDBException("Not supported parameter type: " + type);
+        }
+      }
+    }
+
+    private void closeStatement(CachedStatement cached) {
+      try {
+        cached.stmt.close();
+      } catch (SQLException e) {
+        LOG.debug("prepared statement close error: " + e.getMessage());
+      }
+    }
+
+    private void sendPortalRows(Portal portal, int maxRows) throws SQLException, IOException {
+      long rows = portal.fetch(messageStream, maxRows);
+      if (maxRows > 0 && rows == maxRows) {
+        LOG.debug("send PortalSuspended message");
+        messageStream.putMessageAndFlush(Message.builder('s').build());
+      } else {
+        closePortalIfExists(portal.getName());
+        sendCommandComplete("SELECT"); // FIXME
+      }
+    }
+
+    private void closePortalIfExists(String name) {
+      Portal portal = portals.remove(name);
+      if (portal == null) {
+        return;
+      }
+      try {
+        portal.close();
+      } catch (SQLException e) {
+        LOG.debug("portal close error: " + e.getMessage());
+      }
+    }
+
+    private void closeAllPortals() {
+      for (String name : new ArrayList<>(portals.keySet())) {
+        closePortalIfExists(name);
+      }
+    }
+
+    private void closeStatementQuietly(TrainDBStatement s) {
+      if (s == null) {
+        return;
+      }
+      try {
+        s.close();
+      } catch (SQLException e) {
+        LOG.debug("statement close error: " + e.getMessage());
+      }
+    }
+
+  }
+
+  private static final class CachedStatement {
+    final String sql;
+    final QueryAdmissionController.Lane lane;
+    TrainDBPreparedStatement stmt;
+    boolean executed;
+
+    CachedStatement(String sql, TrainDBPreparedStatement stmt,
+                    QueryAdmissionController.Lane lane) {
+      this.sql = sql;
+      this.stmt = stmt;
+      this.lane = lane;
+    }
   }
 
   private boolean isTrainDBStmtWithResultSet(TrainDBSqlCommand.Type type) {
@@ -292,65 +903,8 @@ public final class Session implements Runnable {
 
   private void sendDataRow(ResultSet rs) throws IOException {
     try {
-      ResultSetMetaData md = rs.getMetaData();
-      int columnCount = md.getColumnCount();
-      boolean noData = true;
-      while (rs.next()) {
-        Message.Builder msgBld = Message.builder('D').putShort((short) columnCount);
-        // Column Data
-        for (int i = 1; i <= columnCount; i++) {
-          int type = md.getColumnType(i);
-          switch (type) {
-            case Types.TINYINT:
-              msgBld.putInt(getTypeSize(type)).putByte(rs.getByte(i));
-              break;
-            case Types.SMALLINT:
-              msgBld.putInt(getTypeSize(type)).putShort(rs.getShort(i));
-              break;
-            case Types.INTEGER:
-              msgBld.putInt(getTypeSize(type)).putInt(rs.getInt(i));
-              break;
-            case Types.BIGINT:
-              msgBld.putInt(getTypeSize(type)).putLong(rs.getLong(i));
-              break;
-            case Types.FLOAT:
-              msgBld.putInt(getTypeSize(type)).putFloat(rs.getFloat(i));
-              break;
-            case Types.DECIMAL:
-              msgBld.putInt(getTypeSize(type)).putDouble(rs.getBigDecimal(i).doubleValue());
-              break;
-            case Types.DOUBLE:
-              msgBld.putInt(getTypeSize(type)).putDouble(rs.getDouble(i));
-              break;
-            case Types.CHAR:
-            case Types.VARCHAR: {
-              byte[] bytes = rs.getString(i).getBytes(StandardCharsets.UTF_8);
-              msgBld.putInt(bytes.length).putBytes(bytes);
-              break;
-            }
-            case Types.TIMESTAMP: {
-              Timestamp ts = rs.getTimestamp(i);
-              if (ts == null) {
-                msgBld.putInt(0);
-              } else {
-                byte[] bytes = ts.toString().getBytes(StandardCharsets.UTF_8);
-                msgBld.putInt(bytes.length).putBytes(bytes);
-              }
-              break;
-            }
-            case Types.VARBINARY: {
-              byte[] bytes = rs.getBytes(i);
-              msgBld.putInt(bytes.length).putBytes(bytes);
-              break;
-            }
-            // TODO support more data types
-            default:
-              throw new TrainDBException("Not supported data type: " + type);
-          }
-          noData = false;
-        }
-        messageStream.putMessage(msgBld.build());
-      }
+      Portal portal = new Portal("", null, rs, columnBatchSize, null);
+      boolean noData = portal.fetch(messageStream, 0) == 0;
       if (noData) {
         sendNoData();
       }
@@ -403,6 +957,9 @@ public final class Session implements Runnable {
   }
 
   void close() {
+    closed = true;
+    sessHandler.setConnection(null);
+    messageStream.close();
     try {
       clientChannel.close();
     } catch (IOException e) {
@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import traindb.common.TrainDBLogger;
+import traindb.engine.nio.MessageStream;
+
+/**
+ * Selector-based I/O thread which multiplexes many client sessions.
+ *
+ * <p>Idle sessions are only registered for read readiness, so they do not occupy any thread.
+ * Once a complete message has been received, the session is handed over to the query worker
+ * pool and read interest is suspended until the worker is done with the session.
+ *
+ * <p>A worker which finds the send buffer of its session full waits for this loop to see the
+ * channel writable, so that sessions take no selector or thread of their own for writing.
+ */
+final class SessionEventLoop extends Thread {
+  private static final TrainDBLogger LOG = TrainDBLogger.getLogger(SessionEventLoop.class);
+
+  private final Selector selector;
+  private final ExecutorService workers;
+  private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+  private volatile boolean running;
+
+  SessionEventLoop(int id, ExecutorService workers) throws IOException {
+    setName("SessionManager EventLoop-" + id);
+    setDaemon(true);
+    this.selector = Selector.open();
+    this.workers = workers;
+  }
+
+  void register(SocketChannel clientChannel, Session session) throws IOException {
+    clientChannel.configureBlocking(false);
+    Registration registration = new Registration(session);
+    session.messageStream.setWriteWaiter(registration);
+    runInLoop(() -> {
+      try {
+        registration.key = clientChannel.register(selector, SelectionKey.OP_READ, registration);
+      } catch (ClosedChannelException e) {
+        session.close();
+      }
+    });
+  }
+
+  void shutdown() throws InterruptedException {
+    running = false;
+    selector.wakeup();
+    join();
+  }
+
+  @Override
+  public void run() {
+    running = true;
+    LOG.debug("start " + getName());
+    while (running) {
+      try {
+        selector.select();
+      } catch (IOException e) {
+        LOG.error("select failed\n" + ExceptionUtils.getStackTrace(e));
+        continue;
+      }
+
+      Runnable task;
+      while ((task = pendingTasks.poll()) != null) {
+        task.run();
+      }
+
+      Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+      while (iter.hasNext()) {
+        SelectionKey key = iter.next();
+        iter.remove();
+        try {
+          if (key.isValid() && key.isWritable()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            ((Registration) key.attachment()).signalWritable();
+          }
+          if (key.isValid() && key.isReadable()) {
+            handleRead(key);
+          }
+        } catch (CancelledKeyException e) {
+          // session was closed concurrently
+        }
+      }
+    }
+
+    for (SelectionKey key : selector.keys()) {
+      Registration registration = (Registration) key.attachment();
+      registration.session.close();
+      registration.signalWritable();
+    }
+    try {
+      selector.close();
+    } catch (IOException ignore) {
+    }
+    LOG.debug("stop " + getName());
+  }
+
+  private void handleRead(SelectionKey key) {
+    Session session = ((Registration) key.attachment()).session;
+    int ret;
+    try {
+      ret = session.messageStream.fill();
+    } catch (IOException e) {
+      LOG.debug("read failed on session(" + session.getId() + "): " + e.getMessage());
+      ret = -1;
+    }
+    if (ret == -1) {
+      key.cancel();
+      closeSession(session);
+      return;
+    }
+    if (!session.messageStream.hasMessage()) {
+      return;
+    }
+
+    // suspend reading until the worker has processed all received messages
+    key.interestOps(0);
+    process(session, key);
+  }
+
+  /*
+   * Processes the received messages on a worker. A query waiting for admission does not
+   * keep the worker: the session is processed again once the query is admitted.
+   */
+  private void process(Session session, SelectionKey key) {
+    try {
+      workers.execute(() -> {
+        if (session.processPendingMessages(() -> process(session, key))) {
+          runInLoop(() -> resume(key));
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LOG.error("worker pool is shut down: session(" + session.getId() + ") is closed");
+      key.cancel();
+      session.close();
+    }
+  }
+
+  // closing a session also closes its source connection, so keep it off the I/O thread
+  private void closeSession(Session session) {
+    try {
+      workers.execute(session::close);
+    } catch (RejectedExecutionException e) {
+      session.close();
+    }
+  }
+
+  private void resume(SelectionKey key) {
+    if (key.isValid()) {
+      key.interestOps(SelectionKey.OP_READ);
+    }
+  }
+
+  private void runInLoop(Runnable task) {
+    pendingTasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * A session registered with this loop, and the worker of the session waiting for its channel
+   * to become writable, if any.
+   */
+  private final class Registration implements MessageStream.WriteWaiter {
+    private static final long WAIT_CHECK_MILLIS = 1000;
+
+    final Session session;
+    volatile SelectionKey key;
+    // set by the loop once the channel is writable, guarded by this
+    private boolean writable;
+
+    Registration(Session session) {
+      this.session = session;
+    }
+
+    @Override
+    public void awaitWritable() throws IOException {
+      SelectionKey k = key;
+      if (k == null || !k.isValid()) {
+        throw new ClosedChannelException();
+      }
+      synchronized (this) {
+        writable = false;
+      }
+      runInLoop(() -> {
+        if (k.isValid()) {
+          k.interestOps(k.interestOps() | SelectionKey.OP_WRITE);
+        } else {
+          signalWritable();
+        }
+      });
+      synchronized (this) {
+        while (!writable) {
+          if (!k.isValid()) {
+            throw new ClosedChannelException();
+          }
+          try {
+            wait(WAIT_CHECK_MILLIS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to write");
+          }
+        }
+      }
+    }
+
+    synchronized void signalWritable() {
+      writable = true;
+      notifyAll();
+    }
+  }
+}
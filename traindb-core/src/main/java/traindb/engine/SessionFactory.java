@@ -19,12 +19,15 @@ import traindb.schema.SchemaManager;
 
 public class SessionFactory {
   private final SchemaManager schemaManager;
+  private final QueryAdmissionController admissionController;
 
-  public SessionFactory(SchemaManager schemaManager) {
+  public SessionFactory(SchemaManager schemaManager,
+                        QueryAdmissionController admissionController) {
     this.schemaManager = schemaManager;
+    this.admissionController = admissionController;
   }
 
   public Session createSession(SocketChannel clientChannel, Session.EventHandler sessEvtHandler) {
-    return new Session(clientChannel, sessEvtHandler, schemaManager);
+    return new Session(clientChannel, sessEvtHandler, schemaManager, admissionController);
   }
 }
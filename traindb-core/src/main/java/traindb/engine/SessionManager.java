@@ -18,8 +18,12 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -30,6 +34,7 @@ import org.apache.hadoop.service.AbstractService;
 import traindb.common.TrainDBConfiguration;
 import traindb.common.TrainDBLogger;
 import traindb.util.NetUtils;
+import traindb.util.ThreadUtils;
 
 public final class SessionManager extends AbstractService {
   private static final TrainDBLogger LOG = TrainDBLogger.getLogger(SessionManager.class);
@@ -37,11 +42,17 @@ public final class SessionManager extends AbstractService {
   private static final int SESSION_MAX_DEFAULT = 100;
   private static final long SESSION_KEEPALIVE_DEFAULT = 60;
   private static final long SESSION_SHUTDOWN_TIMEOUT_DEFAULT = 5;
+  private static final String SESSION_MODE_THREAD = "thread";
+  private static final String SESSION_MODE_EVENTLOOP = "eventloop";
+  private static final int SESSION_IO_THREADS_DEFAULT = 2;
 
   private final SessionFactory sessionFactory;
 
   private Map<Integer, Session> sessions;
-  private ThreadPoolExecutor executor;
+  private ExecutorService executor;
+  private List<SessionEventLoop> eventLoops;
+  private int nextEventLoop;
+  private int sessionMax;
   private Listener listener;
   private volatile boolean running;
 
@@ -56,21 +67,85 @@ public final class SessionManager extends AbstractService {
     LOG.info("initialize service - " + getName());
 
     sessions = new ConcurrentHashMap<>();
-    int sessMax = conf.getInt(
-        TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "session.max", SESSION_MAX_DEFAULT);
-    LOG.debug("create ThreadPoolExecutor for sessions (max=" + sessMax + ")");
-    executor = new ThreadPoolExecutor(
-        0, sessMax, SESSION_KEEPALIVE_DEFAULT, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+    boolean virtualThreads = conf.getBoolean(
+        TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "virtual-threads", false);
+    String mode = conf.get(
+        TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "session.mode", SESSION_MODE_THREAD);
+    if (mode.equalsIgnoreCase(SESSION_MODE_EVENTLOOP)) {
+      initEventLoops(conf, virtualThreads);
+    } else if (mode.equalsIgnoreCase(SESSION_MODE_THREAD)) {
+      if (virtualThreads) {
+        // virtual threads are cheap, so sessions are not limited by default
+        sessionMax = conf.getInt(
+            TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "session.max", Integer.MAX_VALUE);
+        executor = newVirtualThreadExecutor("Session-");
+      }
+      if (executor == null) {
+        int sessMax = conf.getInt(
+            TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "session.max", SESSION_MAX_DEFAULT);
+        LOG.debug("create ThreadPoolExecutor for sessions (max=" + sessMax + ")");
+        sessionMax = Integer.MAX_VALUE;  // limited by the executor
+        executor = new ThreadPoolExecutor(0, sessMax, SESSION_KEEPALIVE_DEFAULT,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+      }
+    } else {
+      throw new IllegalArgumentException("invalid session mode: " + mode);
+    }
 
     listener = new Listener();
     LOG.debug("thread " + listener.getName() + " is created");
   }
 
+  private static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+    ExecutorService virtualExecutor = ThreadUtils.newVirtualThreadPerTaskExecutor(namePrefix);
+    if (virtualExecutor == null) {
+      LOG.warn("virtual threads are not supported by this JVM, use platform threads instead");
+    } else {
+      LOG.debug("create virtual thread executor for " + namePrefix);
+    }
+    return virtualExecutor;
+  }
+
+  private void initEventLoops(Configuration conf, boolean virtualThreads) throws IOException {
+    // sessions only cost buffers in event loop mode, so they are not limited by default
+    sessionMax = conf.getInt(
+        TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "session.max", Integer.MAX_VALUE);
+    int ioThreads = conf.getInt(
+        TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "session.io-threads",
+        SESSION_IO_THREADS_DEFAULT);
+    if (virtualThreads) {
+      executor = newVirtualThreadExecutor("SessionWorker-");
+    }
+    if (executor == null) {
+      int workers = conf.getInt(
+          TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "session.workers",
+          Runtime.getRuntime().availableProcessors() * 2);
+      LOG.debug("create ThreadPoolExecutor for queries (max=" + workers + ")");
+
+      // each session has at most one pending task, so the queue is bounded by sessions
+      ThreadPoolExecutor workerPool = new ThreadPoolExecutor(workers, workers,
+          SESSION_KEEPALIVE_DEFAULT, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+      workerPool.allowCoreThreadTimeOut(true);
+      executor = workerPool;
+    }
+
+    LOG.debug("create " + ioThreads + " event loops of sessions");
+    eventLoops = new ArrayList<>(ioThreads);
+    for (int i = 0; i < ioThreads; i++) {
+      eventLoops.add(new SessionEventLoop(i, executor));
+    }
+  }
+
   @Override
   protected void serviceStart() throws Exception {
     LOG.info("start service - " + getName());
 
     running = true;
+    if (eventLoops != null) {
+      for (SessionEventLoop eventLoop : eventLoops) {
+        eventLoop.start();
+      }
+    }
     LOG.debug("start " + listener.getName());
     listener.start();
 
@@ -87,6 +162,14 @@ public final class SessionManager extends AbstractService {
     listener.join();
     listener = null;
 
+    if (eventLoops != null) {
+      LOG.debug("stop event loops of sessions");
+      for (SessionEventLoop eventLoop : eventLoops) {
+        eventLoop.shutdown();
+      }
+      eventLoops = null;
+    }
+
     LOG.debug("shutdown ThreadPoolExecutor of sessions");
     executor.shutdownNow();
     boolean terminated = executor.awaitTermination(
@@ -119,6 +202,18 @@ public final class SessionManager extends AbstractService {
     }
   }
 
+  private void dispatchToEventLoop(SocketChannel clientChannel, Session sess, String clientAddr) {
+    SessionEventLoop eventLoop = eventLoops.get(nextEventLoop);
+    nextEventLoop = (nextEventLoop + 1) % eventLoops.size();
+    try {
+      eventLoop.register(clientChannel, sess);
+    } catch (IOException e) {
+      LOG.error("failed to register connection from " + clientAddr + "\n"
+          + ExceptionUtils.getStackTrace(e));
+      sess.close();
+    }
+  }
+
   private class Listener extends Thread {
     private final InetSocketAddress bindAddress;
     private final ServerSocketChannel acceptChannel;
@@ -175,6 +270,15 @@ public final class SessionManager extends AbstractService {
         }
 
         registerSession(sess);
+        if (sessions.size() > sessionMax) {
+          sess.reject();
+          LOG.error("session full: connection from " + clientAddr + " is rejected");
+          continue;
+        }
+        if (eventLoops != null) {
+          dispatchToEventLoop(clientChannel, sess, clientAddr);
+          continue;
+        }
         try {
           executor.execute(sess);
         } catch (RejectedExecutionException e) {
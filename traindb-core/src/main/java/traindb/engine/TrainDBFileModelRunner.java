@@ -59,7 +59,8 @@ public class TrainDBFileModelRunner extends AbstractTrainDBModelRunner {
     fileWriter.close();
 
     Connection extConn = conn.getDataSourceConnection();
-    Statement stmt = extConn.createStatement();
+    Statement stmt =
+        JdbcUtils.createStreamingStatement(extConn, conn.cfg.getDataSourceFetchSize());
     ResultSet trainingData = stmt.executeQuery(trainingDataQuery);
     String dataFilename = Paths.get(outputPath, "data.csv").toString();
     writeResultSetToCsv(trainingData, dataFilename);
@@ -102,7 +103,8 @@ public class TrainDBFileModelRunner extends AbstractTrainDBModelRunner {
     fileWriter.close();
 
     Connection extConn = conn.getDataSourceConnection();
-    Statement stmt = extConn.createStatement();
+    Statement stmt =
+        JdbcUtils.createStreamingStatement(extConn, conn.cfg.getDataSourceFetchSize());
     ResultSet trainingData = stmt.executeQuery(trainingDataQuery);
     String dataFilename = Paths.get(outputPath, "data.csv").toString();
     writeResultSetToCsv(trainingData, dataFilename);
@@ -221,7 +223,8 @@ public class TrainDBFileModelRunner extends AbstractTrainDBModelRunner {
     fileWriter.close();
 
     Connection extConn = conn.getDataSourceConnection();
-    Statement stmt = extConn.createStatement();
+    Statement stmt =
+        JdbcUtils.createStreamingStatement(extConn, conn.cfg.getDataSourceFetchSize());
 
     ResultSet origData = stmt.executeQuery(originalDataQuery);
     String dataFilename = Paths.get(outputPath, "data.csv").toString();
@@ -14,62 +14,102 @@
 
 package traindb.engine;
 
-import com.google.common.base.Optional;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import traindb.engine.nio.ByteArray;
 
+/**
+ * In-memory result with a schema of column names and JDBC types, stored column by column.
+ *
+ * <p>Build it with {@link #builder()} to give the column types explicitly. The constructor
+ * taking a list of rows is kept for small results, and infers each column type from the
+ * first non-null value of the column.
+ */
 public class TrainDBListResultSet {
 
-  private List<String> header = new ArrayList<>();
-  private Optional<List<List<Object>>> result;
+  private final boolean present;
+  private final List<String> header;
+  private final int[] types;
+  private final ColumnVector[] columns;
+  private final int rowCount;
   int cursor = -1;
 
   public TrainDBListResultSet(List<String> header, List<List<Object>> result) {
-    super();
     if (result == null) {
-      this.result = Optional.absent();
-    } else {
-      this.header = header;
-      this.result = Optional.of(result);
+      this.present = false;
+      this.header = new ArrayList<>();
+      this.types = new int[0];
+      this.columns = new ColumnVector[0];
+      this.rowCount = 0;
+      return;
+    }
+
+    List<String> names = header == null ? Collections.emptyList() : header;
+    int columnCount = result.isEmpty() ? names.size() : result.get(0).size();
+    this.present = true;
+    this.header = new ArrayList<>(columnCount);
+    this.types = new int[columnCount];
+    this.columns = new ColumnVector[columnCount];
+    this.rowCount = result.size();
+    for (int j = 0; j < columnCount; j++) {
+      this.header.add(j < names.size() ? names.get(j) : "EXPR$" + j);
+      types[j] = inferColumnType(result, j);
+      columns[j] = ColumnVector.create(types[j]);
+      for (List<Object> row : result) {
+        Object value = row.get(j);
+        if (value != null && !columns[j].accepts(value)) {
+          // mixed value classes; keep the values as they are
+          columns[j] = new ColumnVector.ObjectVector();
+          break;
+        }
+      }
+      columns[j].ensureCapacity(rowCount);
+      for (List<Object> row : result) {
+        columns[j].append(row.get(j));
+      }
     }
   }
 
-  public static TrainDBListResultSet empty() {
-    return new TrainDBListResultSet(null, null);
+  private TrainDBListResultSet(List<String> header, int[] types, ColumnVector[] columns,
+                               int rowCount) {
+    this.present = true;
+    this.header = header;
+    this.types = types;
+    this.columns = columns;
+    this.rowCount = rowCount;
   }
 
-  public boolean isEmpty() {
-    return !result.isPresent();
+  public static TrainDBListResultSet empty() {
+    return new TrainDBListResultSet(null, null);
   }
 
-  public int getColumnCount() {
-    if (result.isPresent() == false || result.get().isEmpty()) {
-      return 0;
-    } else {
-      Object o = result.get().get(0);
-      if (o instanceof List) {
-        return ((List) o).size();
-      } else {
-        return 1;
-      }
-    }
+  public static Builder builder() {
+    return new Builder();
   }
 
-  public String getColumnName(int index) {
-    if (result.isPresent() == false) {
-      throw new RuntimeException("An empty result is accessed.");
-    } else {
-      return header.get(index);
+  /**
+   * Returns a builder with the columns of the result set metadata.
+   */
+  public static Builder builder(ResultSetMetaData md) throws SQLException {
+    Builder builder = new Builder();
+    for (int j = 1; j <= md.getColumnCount(); j++) {
+      builder.column(md.getColumnLabel(j), md.getColumnType(j));
     }
+    return builder;
   }
 
-  public int getColumnType(int index) {
-    if (result.isPresent() == false || result.get().isEmpty()) {
-      throw new RuntimeException("An empty result is accessed.");
-    } else {
-      Object o = (result.get().get(0)).get(index);
+  private static int inferColumnType(List<List<Object>> result, int index) {
+    for (List<Object> row : result) {
+      Object o = row.get(index);
+      if (o == null) {
+        continue;
+      }
       if (o instanceof String) {
         return Types.VARCHAR;
       } else if (o instanceof Integer) {
@@ -86,46 +126,183 @@ public class TrainDBListResultSet {
         return Types.JAVA_OBJECT;
       }
     }
+    return Types.VARCHAR;
+  }
+
+  public boolean isEmpty() {
+    return !present;
+  }
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  public String getColumnName(int index) {
+    checkPresent();
+    return header.get(index);
+  }
+
+  public int getColumnType(int index) {
+    checkPresent();
+    return types[index];
   }
 
   public long getRowCount() {
-    if (result.isPresent() == false) {
-      return 0;
-    } else {
-      return result.get().size();
-    }
+    return rowCount;
+  }
+
+  public boolean isNull(int index) {
+    checkPresent();
+    return columns[index].isNull(cursor);
   }
 
   public Object getValue(int index) {
-    if (result.isPresent() == false) {
-      throw new RuntimeException("An empty result is accessed.");
-    } else {
-      return result.get().get(cursor).get(index);
-    }
+    checkPresent();
+    ColumnVector column = columns[index];
+    return column.isNull(cursor) ? null : column.getValue(cursor);
+  }
+
+  /**
+   * Returns the value as an int, or 0 if it is null.
+   */
+  public int getInt(int index) {
+    checkPresent();
+    ColumnVector column = columns[index];
+    return column.isNull(cursor) ? 0 : column.getInt(cursor);
+  }
+
+  /**
+   * Returns the value as a long, or 0 if it is null.
+   */
+  public long getLong(int index) {
+    checkPresent();
+    ColumnVector column = columns[index];
+    return column.isNull(cursor) ? 0 : column.getLong(cursor);
+  }
+
+  /**
+   * Returns the value as a double, or 0 if it is null.
+   */
+  public double getDouble(int index) {
+    checkPresent();
+    ColumnVector column = columns[index];
+    return column.isNull(cursor) ? 0 : column.getDouble(cursor);
+  }
+
+  public String getString(int index) {
+    Object value = getValue(index);
+    return value == null ? null : value.toString();
   }
 
   public boolean next() {
-    if (result.isPresent() == false) {
-      return false;
-    } else {
-      if (cursor < getRowCount() - 1) {
-        cursor++;
-        return true;
-      } else {
-        return false;
-      }
+    if (cursor < rowCount - 1) {
+      cursor++;
+      return true;
     }
+    return false;
   }
 
   public boolean hasNext() {
-    if (result.isPresent() == false) {
-      return false;
-    } else {
-      return cursor < getRowCount() - 1;
-    }
+    return cursor < rowCount - 1;
   }
 
   public void rewind() {
     cursor = -1;
   }
+
+  private void checkPresent() {
+    if (!present) {
+      throw new RuntimeException("An empty result is accessed.");
+    }
+  }
+
+  /**
+   * Builds a result row by row, with the column types given up front.
+   *
+   * <p>{@link #build()} may be called more than once; each result has the rows added so far,
+   * and rows added afterwards do not change it.
+   */
+  public static final class Builder {
+    private static final int BATCH_SIZE = 1024;
+
+    private final List<String> header = new ArrayList<>();
+    private int[] types = new int[0];
+    private ColumnVector[] columns = new ColumnVector[0];
+    private int rowCount;
+
+    private Builder() {
+    }
+
+    public Builder column(String name, int type) {
+      if (rowCount > 0) {
+        throw new IllegalStateException("columns must be added before rows");
+      }
+      int n = columns.length;
+      header.add(name);
+      types = Arrays.copyOf(types, n + 1);
+      types[n] = type;
+      columns = Arrays.copyOf(columns, n + 1);
+      columns[n] = ColumnVector.create(type);
+      return this;
+    }
+
+    public int getColumnCount() {
+      return columns.length;
+    }
+
+    public Builder addRow(Object... values) {
+      return addRow(Arrays.asList(values));
+    }
+
+    public Builder addRow(List<?> values) {
+      for (int j = 0; j < columns.length; j++) {
+        columns[j].append(values.get(j));
+      }
+      rowCount++;
+      return this;
+    }
+
+    /**
+     * Appends all rows of the result set, which must have the columns of this builder.
+     */
+    public Builder addRows(ResultSet rs) throws SQLException {
+      JdbcRowDecoder decoder = new JdbcRowDecoder(rs.getMetaData());
+      JdbcRowDecoder.Batch batch = decoder.newBatch(BATCH_SIZE);
+      int rows;
+      while ((rows = decoder.read(rs, batch, 0)) > 0) {
+        for (int j = 0; j < columns.length; j++) {
+          columns[j].append(batch.column(j), rows);
+        }
+        rowCount += rows;
+      }
+      return this;
+    }
+
+    /**
+     * Appends all rows of a result built with the same column types.
+     */
+    public Builder addRows(TrainDBListResultSet other) {
+      if (!Arrays.equals(types, other.types)) {
+        throw new IllegalArgumentException("column types do not match");
+      }
+      for (int j = 0; j < columns.length; j++) {
+        ColumnVector column = columns[j];
+        column.ensureCapacity(column.size + other.rowCount);
+        for (int i = 0; i < other.rowCount; i++) {
+          column.append(other.columns[j], i);
+        }
+      }
+      rowCount += other.rowCount;
+      return this;
+    }
+
+    public long getRowCount() {
+      return rowCount;
+    }
+
+    public TrainDBListResultSet build() {
+      return new TrainDBListResultSet(new ArrayList<>(header), types.clone(), columns.clone(),
+          rowCount);
+    }
+  }
 }
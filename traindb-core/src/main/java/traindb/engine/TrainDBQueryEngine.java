@@ -38,6 +38,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -984,6 +985,15 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     T_tracer.endTaskTracer();
   }
 
+  private static TrainDBListResultSet.Builder resultBuilder(List<String> header,
+                                                           int... types) {
+    TrainDBListResultSet.Builder builder = TrainDBListResultSet.builder();
+    for (int i = 0; i < types.length; i++) {
+      builder.column(header.get(i), types[i]);
+    }
+    return builder;
+  }
+
   @Override
   public TrainDBListResultSet showModeltypes(Map<String, Object> filterPatterns) throws Exception {
     List<String> header = Arrays.asList("modeltype_name", "category", "location", "class_name",
@@ -993,16 +1003,17 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     T_tracer.startTaskTracer("show modeltypes");
     T_tracer.openTaskTime("scan : modeltype");
 
-    List<List<Object>> modeltypeInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder modeltypeInfo = resultBuilder(header,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR);
     for (MModeltype mModeltype : catalogContext.getModeltypes(filterPatterns)) {
-      modeltypeInfo.add(Arrays.asList(mModeltype.getModeltypeName(), mModeltype.getCategory(),
-          mModeltype.getLocation(), mModeltype.getClassName(), mModeltype.getUri()));
+      modeltypeInfo.addRow(mModeltype.getModeltypeName(), mModeltype.getCategory(),
+          mModeltype.getLocation(), mModeltype.getClassName(), mModeltype.getUri());
     }
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, modeltypeInfo);
+    return modeltypeInfo.build();
   }
 
   @Override
@@ -1015,18 +1026,20 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     T_tracer.startTaskTracer("show models");
     T_tracer.openTaskTime("scan : model");
 
-    List<List<Object>> modelInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder modelInfo = resultBuilder(header,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+        Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.VARCHAR);
     for (MModel mModel : catalogContext.getModels(filterPatterns)) {
-      modelInfo.add(Arrays.asList(mModel.getModelName(), mModel.getModeltype().getModeltypeName(),
+      modelInfo.addRow(mModel.getModelName(), mModel.getModeltype().getModeltypeName(),
           mModel.getSchemaName(), mModel.getTableName(),
           mModel.getColumnNames().toString(), mModel.getTableRows(), mModel.getTrainedRows(),
-          mModel.getModelStatus(), mModel.getModelOptions()));
+          mModel.getModelStatus(), mModel.getModelOptions());
     }
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, modelInfo);
+    return modelInfo.build();
   }
 
   @Override
@@ -1039,26 +1052,28 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     T_tracer.startTaskTracer("show synopses");
     T_tracer.openTaskTime("scan : synopsis");
 
-    List<List<Object>> synopsisInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder synopsisInfo = resultBuilder(header,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+        Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR);
     for (MSynopsis mSynopsis : catalogContext.getAllSynopses(filterPatterns)) {
-      synopsisInfo.add(Arrays.asList(mSynopsis.getSynopsisName(), mSynopsis.getModelName(),
+      synopsisInfo.addRow(mSynopsis.getSynopsisName(), mSynopsis.getModelName(),
           mSynopsis.getSchemaName(), mSynopsis.getTableName(),
           mSynopsis.getColumnNames().toString(),
           mSynopsis.getRows(), String.format("%.8f", mSynopsis.getRatio()),
           mSynopsis.getExternal() ? "YES" : "NO",
-          mSynopsis.getSynopsisStatus(), mSynopsis.getSynopsisStatistics()));
+          mSynopsis.getSynopsisStatus(), mSynopsis.getSynopsisStatistics());
     }
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, synopsisInfo);
+    return synopsisInfo.build();
   }
 
   @Override
   public TrainDBListResultSet showSchemas(Map<String, Object> filterPatterns) throws Exception {
     List<String> header = Arrays.asList("schema");
-    List<List<Object>> schemaInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder schemaInfo = resultBuilder(header, Types.VARCHAR);
 
     T_tracer.startTaskTracer("show schemas");
     T_tracer.openTaskTime("scan : schema");
@@ -1066,19 +1081,19 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     if (conn.isStandalone()) {
       replacePatternFilterColumn(filterPatterns, "schema", "schema.schema_name");
       for (MSchema mSchema : catalogContext.getSchemas(filterPatterns)) {
-        schemaInfo.add(Arrays.asList(mSchema.getSchemaName()));
+        schemaInfo.addRow(mSchema.getSchemaName());
       }
     } else {
       ResultSet rows = conn.getMetaData().getSchemas(conn.getCatalog(), null);
       while (rows.next()) {
-        schemaInfo.add(Arrays.asList(rows.getString(1)));
+        schemaInfo.addRow(rows.getString(1));
       }
     }
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, schemaInfo);
+    return schemaInfo.build();
   }
 
   @Override
@@ -1089,12 +1104,13 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     T_tracer.startTaskTracer("show tables");
     T_tracer.openTaskTime("scan : table");
 
-    List<List<Object>> tableInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder tableInfo = resultBuilder(header,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR);
     if (conn.isStandalone()) {
       replacePatternFilterColumn(filterPatterns, "schema", "schema.schema_name");
       for (MTable mTable : catalogContext.getTables(filterPatterns)) {
-        tableInfo.add(Arrays.asList(mTable.getSchema().getSchemaName(), mTable.getTableName(),
-            mTable.getTableType()));
+        tableInfo.addRow(mTable.getSchema().getSchemaName(), mTable.getTableName(),
+            mTable.getTableType());
       }
     } else {
       String schemaPattern = (String) filterPatterns.get("schema");
@@ -1114,14 +1130,14 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
         if (rs.getString(4).equals("INDEX")) {
           continue;
         }
-        tableInfo.add(Arrays.asList(rs.getString(2), rs.getString(3), rs.getString(4)));
+        tableInfo.addRow(rs.getString(2), rs.getString(3), rs.getString(4));
       }
     }
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, tableInfo);
+    return tableInfo.build();
   }
 
   @Override
@@ -1133,15 +1149,17 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     T_tracer.startTaskTracer("show columns");
     T_tracer.openTaskTime("scan : table");
 
-    List<List<Object>> columnInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder columnInfo = resultBuilder(header,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR,
+        Types.INTEGER, Types.VARCHAR);
     if (conn.isStandalone()) {
       replacePatternFilterColumn(filterPatterns, "schema_name", "schema.schema_name");
       for (MTable mTable : catalogContext.getTables(filterPatterns)) {
         for (MColumn mColumn : mTable.getColumns()) {
-          columnInfo.add(Arrays.asList(mTable.getSchema().getSchemaName(), mTable.getTableName(),
+          columnInfo.addRow(mTable.getSchema().getSchemaName(), mTable.getTableName(),
               mColumn.getColumnName(), mColumn.getColumnType(),
               SqlTypeName.getNameForJdbcType(mColumn.getColumnType()).getName(),
-              mColumn.getScale(), mColumn.isNullable() ? "YES" : "NO"));
+              mColumn.getScale(), mColumn.isNullable() ? "YES" : "NO");
         }
       }
     } else {
@@ -1154,15 +1172,15 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
       ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), schemaPattern, tablePattern,
           columnPattern);
       while (rs.next()) {
-        columnInfo.add(Arrays.asList(rs.getString(2), rs.getString(3), rs.getString(4),
-            rs.getInt(5), rs.getString(6), rs.getInt(7), rs.getString(18)));
+        columnInfo.addRow(rs.getString(2), rs.getString(3), rs.getString(4),
+            rs.getInt(5), rs.getString(6), rs.getInt(7), rs.getString(18));
       }
     }
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, columnInfo);
+    return columnInfo.build();
   }
 
   @Override
@@ -1176,7 +1194,8 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     T_tracer.openTaskTime("scan : modeltype");
 
     ObjectMapper objectMapper = new ObjectMapper();
-    List<List<Object>> hyperparamInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder hyperparamInfo = resultBuilder(header,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR);
     for (MModeltype mModeltype : catalogContext.getModeltypes(filterPatterns)) {
       if (mModeltype.getHyperparameters().equals("null")) {
         continue;
@@ -1184,15 +1203,15 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
       List<Hyperparameter> hyperparameterList = Arrays.asList(
           objectMapper.readValue(mModeltype.getHyperparameters(), Hyperparameter[].class));
       for (Hyperparameter hyperparam : hyperparameterList) {
-        hyperparamInfo.add(Arrays.asList(mModeltype.getModeltypeName(), hyperparam.getName(),
-            hyperparam.getType(), hyperparam.getDefaultValue(), hyperparam.getDescription()));
+        hyperparamInfo.addRow(mModeltype.getModeltypeName(), hyperparam.getName(),
+            hyperparam.getType(), hyperparam.getDefaultValue(), hyperparam.getDescription());
       }
     }
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, hyperparamInfo);
+    return hyperparamInfo.build();
   }
 
   @Override
@@ -1205,7 +1224,8 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     T_tracer.openTaskTime("scan : training status");
 
     DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
-    List<List<Object>> trainingInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder trainingInfo = resultBuilder(header,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR);
     for (MTrainingStatus mTraining : catalogContext.getTrainingStatus(filterPatterns)) {
       String oldStatus = mTraining.getTrainingStatus();
       if (!oldStatus.equals("FINISHED") && !oldStatus.equals("FAILED") ) {
@@ -1222,22 +1242,23 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
           // ignore
         }
       }
-      trainingInfo.add(Arrays.asList(mTraining.getModelName(),
+      trainingInfo.addRow(mTraining.getModelName(),
           mTraining.getModel().getModeltype().getUri(),
           mTraining.getStartTime().toLocalDateTime().format(dtf),
-          mTraining.getTrainingStatus()));
+          mTraining.getTrainingStatus());
     }
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, trainingInfo);
+    return trainingInfo.build();
   }
 
   @Override
   public TrainDBListResultSet showPartitions(Map<String, Object> filterPatterns) throws Exception {
     List<String> header = Arrays.asList("schema_name", "table_name", "partition_name");
-    List<List<Object>> partitionsInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder partitionsInfo = resultBuilder(header,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR);
 
     T_tracer.startTaskTracer("show partitions");
     T_tracer.openTaskTime("scan : partitions");
@@ -1250,8 +1271,8 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
       for (Map.Entry<String, TrainDBPartition> tempEntry : entries) {
         List<String> partitionList = tempEntry.getValue().getPartitionNameMap();
         for (int k = 0; k < partitionList.size(); k++) {
-          partitionsInfo.add(Arrays.asList(traindbSchema.getName(), tempEntry.getKey(),
-              partitionList.get(k)));
+          partitionsInfo.addRow(traindbSchema.getName(), tempEntry.getKey(),
+              partitionList.get(k));
         }
       }
     }
@@ -1259,7 +1280,7 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, partitionsInfo);
+    return partitionsInfo.build();
   }
 
   @Override
@@ -1286,7 +1307,7 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
   @Override
   public TrainDBListResultSet describeTable(String schemaName, String tableName) throws Exception {
     List<String> header = Arrays.asList("column name", "column type");
-    List<List<Object>> columnInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder columnInfo = resultBuilder(header, Types.VARCHAR, Types.VARCHAR);
 
     T_tracer.startTaskTracer("desc table " + schemaName + "." + tableName);
     T_tracer.openTaskTime("scan : column");
@@ -1298,20 +1319,20 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     if (conn.isStandalone()) {
       MTable mTable = catalogContext.getTable(schemaName, tableName);
       for (MColumn mColumn : mTable.getColumns()) {
-        columnInfo.add(Arrays.asList(mColumn.getColumnName(),
-            SqlTypeName.getNameForJdbcType(mColumn.getColumnType())));
+        columnInfo.addRow(mColumn.getColumnName(),
+            SqlTypeName.getNameForJdbcType(mColumn.getColumnType()));
       }
     } else {
       ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), schemaName, tableName, null);
       while (rs.next()) {
-        columnInfo.add(Arrays.asList(rs.getString(4), rs.getString(6)));
+        columnInfo.addRow(rs.getString(4), rs.getString(6));
       }
     }
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, columnInfo);
+    return columnInfo.build();
   }
 
   @Override
@@ -1337,14 +1358,15 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
   @Override
   public TrainDBListResultSet showQueryLogs(Map<String, Object> filterPatterns) throws Exception {
     List<String> header = Arrays.asList("start", "user", "query");
-    List<List<Object>> queryLogInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder queryLogInfo = resultBuilder(header,
+        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR);
 
     for (MQueryLog mQuerylog : catalogContext.getQueryLogs()) {
-      queryLogInfo.add(Arrays.asList(mQuerylog.getStartTime(), mQuerylog.getUser(),
-          mQuerylog.getQuery()));
+      queryLogInfo.addRow(mQuerylog.getStartTime(), mQuerylog.getUser(),
+          mQuerylog.getQuery());
     }
 
-    return new TrainDBListResultSet(header, queryLogInfo);
+    return queryLogInfo.build();
   }
 
   @Override
@@ -1361,14 +1383,15 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
   @Override
   public TrainDBListResultSet showTasks(Map<String, Object> filterPatterns) throws Exception {
     List<String> header = Arrays.asList("time", "idx", "task", "status");
-    List<List<Object>> taskInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder taskInfo = resultBuilder(header,
+        Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.VARCHAR);
 
     for (MTask mTask : catalogContext.getTaskLogs()) {
-      taskInfo.add(Arrays.asList(mTask.getTime(), mTask.getIdx(),
-          mTask.getTask(), mTask.getStatus()));
+      taskInfo.addRow(mTask.getTime(), mTask.getIdx(),
+          mTask.getTask(), mTask.getStatus());
     }
 
-    return new TrainDBListResultSet(header, taskInfo);
+    return taskInfo.build();
   }
 
   @Override
@@ -1425,14 +1448,14 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     }
 
     List<String> header = Arrays.asList("export_model");
-    List<List<Object>> exportModelInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder exportModelInfo = resultBuilder(header, Types.VARBINARY);
     ByteArray byteArray = convertFileToByteArray(new File(outputPath.toString()));
-    exportModelInfo.add(Arrays.asList(byteArray));
+    exportModelInfo.addRow(byteArray);
 
     T_tracer.closeTaskTime("SUCCESS");
     T_tracer.endTaskTracer();
 
-    return new TrainDBListResultSet(header, exportModelInfo);
+    return exportModelInfo.build();
   }
 
   @Override
@@ -1585,7 +1608,8 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
           table.getRowType(conn.getTypeFactory()));
 
       Connection extConn = conn.getDataSourceConnection();
-      Statement stmt = extConn.createStatement();
+      Statement stmt =
+          JdbcUtils.createStreamingStatement(extConn, conn.cfg.getDataSourceFetchSize());
       ResultSet synopsisData = stmt.executeQuery(sql);
 
       synopsisDir = Paths.get(tempDir.toString(), synopsisName);
@@ -1615,11 +1639,11 @@ public class TrainDBQueryEngine implements TrainDBSqlRunner {
     }
 
     List<String> header = Arrays.asList("export_synopsis");
-    List<List<Object>> exportSynopsisInfo = new ArrayList<>();
+    TrainDBListResultSet.Builder exportSynopsisInfo = resultBuilder(header, Types.VARBINARY);
     ByteArray byteArray = convertFileToByteArray(new File(outputPath.toString()));
-    exportSynopsisInfo.add(Arrays.asList(byteArray));
+    exportSynopsisInfo.addRow(byteArray);
 
-    return new TrainDBListResultSet(header, exportSynopsisInfo);
+    return exportSynopsisInfo.build();
   }
 
   @Override
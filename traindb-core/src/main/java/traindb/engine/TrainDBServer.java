@@ -23,6 +23,7 @@ import traindb.catalog.CatalogStore;
 import traindb.catalog.JDOCatalogStore;
 import traindb.common.TrainDBConfiguration;
 import traindb.common.TrainDBLogger;
+import traindb.jdbc.DataSourceRegistry;
 import traindb.schema.SchemaManager;
 import traindb.task.TaskCoordinator;
 
@@ -51,13 +52,23 @@ public class TrainDBServer extends CompositeService {
     TaskCoordinator taskCoordinator = TaskCoordinator.getInstance();
     addService(taskCoordinator);
 
-    SessionFactory sessFactory = new SessionFactory(schemaManager);
+    QueryAdmissionController admissionController = new QueryAdmissionController();
+    addService(admissionController);
+
+    SessionFactory sessFactory = new SessionFactory(schemaManager, admissionController);
     SessionManager sessManager = new SessionManager(sessFactory);
     addService(sessManager);
 
     super.serviceInit(conf);
   }
 
+  @Override
+  protected void serviceStop() throws Exception {
+    super.serviceStop();
+    // all sessions have been closed, so the shared source connections are no longer used
+    DataSourceRegistry.getInstance().closeAll();
+  }
+
   @Override
   public String getName() {
     return "TrainDBServer";
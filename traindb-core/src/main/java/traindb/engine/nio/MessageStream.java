@@ -17,15 +17,43 @@ package traindb.engine.nio;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
 
 public final class MessageStream {
   private static final int SEND_BUFFER_SIZE_DEFAULT = 8 * 1024;
   private static final int RECV_BUFFER_SIZE_DEFAULT = 8 * 1024;
+  private static final int FLUSH_THRESHOLD_MAX = 16 * 1024 * 1024;
+  // byte arrays at least this large are written from the array itself instead of a copy
+  private static final int EXTERNAL_SEGMENT_SIZE_MIN = 64 * 1024;
 
   private final SocketChannel socketChannel;
-  private final ByteBuffer sendBuffer = ByteBuffer.allocate(SEND_BUFFER_SIZE_DEFAULT);
-  private final ByteBuffer recvBuffer = ByteBuffer.allocate(RECV_BUFFER_SIZE_DEFAULT);
+  private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(SEND_BUFFER_SIZE_DEFAULT);
+  private ByteBuffer recvBuffer = ByteBuffer.allocate(RECV_BUFFER_SIZE_DEFAULT);
+
+  // used to wait for the socket to become writable in non-blocking mode
+  private WriteWaiter writeWaiter;
+
+  // position of the length field of the message being written, or -1
+  private int messageStart = -1;
+  private long externalBytesAtMessageStart;
+
+  // large byte arrays sent in place, each following sendBuffer up to its offset
+  private final List<ByteBuffer> externalSegments = new ArrayList<>();
+  private final List<Integer> externalOffsets = new ArrayList<>();
+  private long externalBytes;
+
+  // pending bytes that trigger a flush at the end of a message; 0 flushes every message
+  private int flushThreshold = SEND_BUFFER_SIZE_DEFAULT;
+  // moving average of flushed sizes, used to size sendBuffer
+  private double averageFlushSize = SEND_BUFFER_SIZE_DEFAULT;
+
+  // compresses everything sent after compression is enabled, or null
+  private Deflater deflater;
+  private ByteBuffer compressBuffer;
 
   public MessageStream(SocketChannel socketChannel) {
     this.socketChannel = socketChannel;
@@ -34,6 +62,14 @@ public final class MessageStream {
     recvBuffer.flip();
   }
 
+  /**
+   * Sets how to wait for the channel to become writable when it is in non-blocking mode and
+   * its send buffer is full.
+   */
+  public void setWriteWaiter(WriteWaiter writeWaiter) {
+    this.writeWaiter = writeWaiter;
+  }
+
   public Message getInitialMessage() throws IOException {
     byte[] body = getMessageBody();
     return new Message(body);
@@ -46,11 +82,197 @@ public final class MessageStream {
   }
 
   public void putMessage(Message message) throws IOException {
-    char type = message.getType();
-    putChar(type);
     byte[] body = message.getBody();
-    putInt(ByteBuffers.INTEGER_BYTES + body.length);
-    putBytes(body);
+    beginMessage(message.getType());
+    putBytes(body, 0, body.length);
+    endMessage();
+  }
+
+  /**
+   * Starts a message which is written directly into the send buffer by the put methods
+   * below, without building a {@link Message} first. The buffer grows to hold the whole
+   * message and is flushed only at message boundaries.
+   */
+  public void beginMessage(char type) throws IOException {
+    assert messageStart < 0 : "message is being written";
+    ensureCapacity(ByteBuffers.BYTE_BYTES + ByteBuffers.INTEGER_BYTES);
+    sendBuffer.put((byte) type);
+    messageStart = sendBuffer.position();
+    externalBytesAtMessageStart = externalBytes;
+    sendBuffer.putInt(0); // filled by endMessage()
+  }
+
+  public void endMessage() throws IOException {
+    assert messageStart >= 0 : "no message is being written";
+    long length = sendBuffer.position() - messageStart
+        + (externalBytes - externalBytesAtMessageStart);
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("message too large: " + length + " bytes");
+    }
+    sendBuffer.putInt(messageStart, (int) length);
+    messageStart = -1;
+    if (getPendingSize() >= flushThreshold) {
+      flush();
+    }
+  }
+
+  /**
+   * Sets the number of pending bytes at which the end of a message flushes the stream.
+   * A small threshold favors latency, and 0 flushes after every message; a large one lets
+   * bulk results go out in fewer and larger writes.
+   */
+  public void setFlushThreshold(int flushThreshold) {
+    this.flushThreshold = Math.max(0, Math.min(flushThreshold, FLUSH_THRESHOLD_MAX));
+  }
+
+  public int getFlushThreshold() {
+    return flushThreshold;
+  }
+
+  public MessageStream putByte(byte b) {
+    ensureCapacity(ByteBuffers.BYTE_BYTES);
+    sendBuffer.put(b);
+    return this;
+  }
+
+  public MessageStream putShort(short h) {
+    ensureCapacity(ByteBuffers.SHORT_BYTES);
+    sendBuffer.putShort(h);
+    return this;
+  }
+
+  public MessageStream putInt(int i) {
+    ensureCapacity(ByteBuffers.INTEGER_BYTES);
+    sendBuffer.putInt(i);
+    return this;
+  }
+
+  public MessageStream putLong(long l) {
+    ensureCapacity(ByteBuffers.LONG_BYTES);
+    sendBuffer.putLong(l);
+    return this;
+  }
+
+  public MessageStream putFloat(float f) {
+    ensureCapacity(ByteBuffers.FLOAT_BYTES);
+    sendBuffer.putFloat(f);
+    return this;
+  }
+
+  public MessageStream putDouble(double d) {
+    ensureCapacity(ByteBuffers.DOUBLE_BYTES);
+    sendBuffer.putDouble(d);
+    return this;
+  }
+
+  /**
+   * Puts the bytes into the message. A large array is not copied but written from the array
+   * itself by the next flush, so it must not be modified until then.
+   */
+  public MessageStream putBytes(byte[] bytes, int offset, int length) {
+    if (length >= EXTERNAL_SEGMENT_SIZE_MIN) {
+      externalOffsets.add(sendBuffer.position());
+      externalSegments.add(ByteBuffer.wrap(bytes, offset, length));
+      externalBytes += length;
+      return this;
+    }
+    ensureCapacity(length);
+    sendBuffer.put(bytes, offset, length);
+    return this;
+  }
+
+  /**
+   * Puts the values as a contiguous little-endian array. Column batches use this layout so
+   * that clients can map the values directly onto their native arrays.
+   */
+  public MessageStream putIntsLittleEndian(int[] values, int offset, int length) {
+    int size = length * ByteBuffers.INTEGER_BYTES;
+    ensureCapacity(size);
+    sendBuffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(values, offset, length);
+    advance(size);
+    return this;
+  }
+
+  public MessageStream putLongsLittleEndian(long[] values, int offset, int length) {
+    int size = length * ByteBuffers.LONG_BYTES;
+    ensureCapacity(size);
+    sendBuffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(values, offset, length);
+    advance(size);
+    return this;
+  }
+
+  public MessageStream putDoublesLittleEndian(double[] values, int offset, int length) {
+    int size = length * ByteBuffers.DOUBLE_BYTES;
+    ensureCapacity(size);
+    sendBuffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(values, offset, length);
+    advance(size);
+    return this;
+  }
+
+  private void advance(int size) {
+    sendBuffer.order(ByteOrder.BIG_ENDIAN);
+    sendBuffer.position(sendBuffer.position() + size);
+  }
+
+  /**
+   * Puts the length of the UTF-8 encoded string followed by its bytes. The string is
+   * encoded in place, so no intermediate byte array is allocated.
+   */
+  public MessageStream putLengthPrefixedUtf8(String s) {
+    int len = s.length();
+    ensureCapacity(ByteBuffers.INTEGER_BYTES + len * 3);
+    int lengthPos = sendBuffer.position();
+    sendBuffer.position(lengthPos + ByteBuffers.INTEGER_BYTES);
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        sendBuffer.put((byte) c);
+      } else if (c < 0x800) {
+        sendBuffer.put((byte) (0xc0 | (c >> 6)));
+        sendBuffer.put((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < len
+            && Character.isLowSurrogate(s.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, s.charAt(++i));
+          sendBuffer.put((byte) (0xf0 | (cp >> 18)));
+          sendBuffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+          sendBuffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+          sendBuffer.put((byte) (0x80 | (cp & 0x3f)));
+        } else {
+          sendBuffer.put((byte) '?'); // malformed, same as String.getBytes()
+        }
+      } else {
+        sendBuffer.put((byte) (0xe0 | (c >> 12)));
+        sendBuffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        sendBuffer.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+    sendBuffer.putInt(lengthPos,
+        sendBuffer.position() - lengthPos - ByteBuffers.INTEGER_BYTES);
+    return this;
+  }
+
+  private void ensureCapacity(int needed) {
+    if (sendBuffer.remaining() >= needed) {
+      return;
+    }
+
+    long minCapacity = (long) sendBuffer.position() + needed;
+    if (minCapacity > ByteBuffers.BYTEBUFFER_CAPACITY_MAX) {
+      throw new OutOfMemoryError(
+          "cannot enlarge send buffer containing " + sendBuffer.position() + " bytes by "
+              + needed + " bytes");
+    }
+    int newCapacity = (int) Math.min(ByteBuffers.BYTEBUFFER_CAPACITY_MAX,
+        Math.max(2L * sendBuffer.capacity(), minCapacity));
+    ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+    sendBuffer.flip();
+    newBuffer.put(sendBuffer);
+    sendBuffer = newBuffer;
+  }
+
+  private long getPendingSize() {
+    return sendBuffer.position() + externalBytes;
   }
 
   // Flush sendBuffer so client will see buffered messages immediately
@@ -59,6 +281,46 @@ public final class MessageStream {
     flush();
   }
 
+  /**
+   * Reads available bytes from the channel without blocking; the channel must be in
+   * non-blocking mode. Returns the number of bytes read, or -1 on end-of-stream.
+   */
+  public int fill() throws IOException {
+    recvBuffer.compact();
+    if (!recvBuffer.hasRemaining()) {
+      // a message larger than the receive buffer is still incomplete
+      recvBuffer.flip();
+      int needed = getPendingMessageSize() - recvBuffer.remaining();
+      ByteBuffer newBuffer = ByteBuffer.allocate(
+          Math.max(recvBuffer.capacity() * 2, recvBuffer.remaining() + needed));
+      newBuffer.put(recvBuffer);
+      recvBuffer = newBuffer;
+    }
+
+    int ret = socketChannel.read(recvBuffer);
+    recvBuffer.flip();
+    return ret;
+  }
+
+  /**
+   * Returns whether a complete message (type, length, body) has been received so that
+   * {@link #getMessage()} can return it without reading from the channel.
+   */
+  public boolean hasMessage() {
+    int size = getPendingMessageSize();
+    return size > 0 && recvBuffer.remaining() >= size;
+  }
+
+  // returns the total size of the next message, or 0 if its header is not received yet
+  private int getPendingMessageSize() {
+    int headerSize = ByteBuffers.BYTE_BYTES + ByteBuffers.INTEGER_BYTES;
+    if (recvBuffer.remaining() < headerSize) {
+      return headerSize;
+    }
+    int len = recvBuffer.getInt(recvBuffer.position() + ByteBuffers.BYTE_BYTES);
+    return ByteBuffers.BYTE_BYTES + Math.max(len, ByteBuffers.INTEGER_BYTES);
+  }
+
   private byte[] getMessageBody() throws IOException {
     int len = getInt();
     /* length count includes itself */
@@ -105,41 +367,6 @@ public final class MessageStream {
     }
   }
 
-  private void putChar(char c) throws IOException {
-    if (sendBuffer.remaining() < ByteBuffers.BYTE_BYTES) {
-      flush();
-    }
-
-    sendBuffer.put((byte) c);
-  }
-
-  private void putInt(int i) throws IOException {
-    if (sendBuffer.remaining() < ByteBuffers.INTEGER_BYTES) {
-      flush();
-    }
-
-    sendBuffer.putInt(i);
-  }
-
-  private void putBytes(byte[] bytes) throws IOException {
-    int pos = 0;
-    int len = bytes.length;
-    while (len > 0) {
-      if (!sendBuffer.hasRemaining()) {
-        flush();
-      }
-
-      int amount = sendBuffer.remaining();
-      if (amount > len) {
-        amount = len;
-      }
-      sendBuffer.put(bytes, pos, amount);
-
-      pos += amount;
-      len -= amount;
-    }
-  }
-
   private void read() throws IOException {
     recvBuffer.compact();
 
@@ -157,16 +384,157 @@ public final class MessageStream {
   }
 
   public void flush() throws IOException {
+    assert messageStart < 0 : "cannot flush a partially written message";
+    long size = getPendingSize();
+    if (size == 0) {
+      return;
+    }
+
     sendBuffer.flip();
+    ByteBuffer[] segments = getSegments();
+    if (deflater == null) {
+      writeFully(segments);
+    } else {
+      for (int i = 0; i < segments.length; i++) {
+        deflate(segments[i], i == segments.length - 1);
+      }
+    }
+
+    externalSegments.clear();
+    externalOffsets.clear();
+    externalBytes = 0;
+    adaptSendBuffer(size);
+  }
+
+  // splits the pending data into sendBuffer regions and large byte arrays, in order
+  private ByteBuffer[] getSegments() {
+    if (externalSegments.isEmpty()) {
+      return new ByteBuffer[] {sendBuffer};
+    }
+
+    int count = externalSegments.size();
+    ByteBuffer[] segments = new ByteBuffer[count * 2 + 1];
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      int end = externalOffsets.get(i);
+      segments[i * 2] = sliceSendBuffer(start, end);
+      segments[i * 2 + 1] = externalSegments.get(i);
+      start = end;
+    }
+    segments[count * 2] = sliceSendBuffer(start, sendBuffer.limit());
+    return segments;
+  }
 
-    while (sendBuffer.hasRemaining()) {
-      socketChannel.write(sendBuffer);
+  private ByteBuffer sliceSendBuffer(int start, int end) {
+    ByteBuffer slice = sendBuffer.duplicate();
+    slice.limit(end);
+    slice.position(start);
+    return slice;
+  }
+
+  private void deflate(ByteBuffer input, boolean last) throws IOException {
+    int flushMode = last ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
+    deflater.setInput(input);
+    while (true) {
+      compressBuffer.clear();
+      int produced = deflater.deflate(compressBuffer, flushMode);
+      compressBuffer.flip();
+      writeFully(compressBuffer);
+      if (last ? produced < compressBuffer.capacity() : deflater.needsInput()) {
+        break;
+      }
     }
+  }
+
+  /*
+   * Keeps sendBuffer large enough for the usual amount of data per flush, so that bulk
+   * results do not grow it over and over again, while a buffer enlarged by a rare large
+   * message is given back.
+   */
+  private void adaptSendBuffer(long flushedSize) {
+    averageFlushSize += (flushedSize - averageFlushSize) / 8;
+    long target = Math.max(SEND_BUFFER_SIZE_DEFAULT,
+        Long.highestOneBit((long) (averageFlushSize * 2) - 1) << 1);
+    if (sendBuffer.capacity() > target * 4) {
+      sendBuffer = ByteBuffer.allocateDirect((int) Math.min(target, Integer.MAX_VALUE));
+    } else {
+      sendBuffer.clear();
+    }
+  }
 
-    sendBuffer.clear();
+  /**
+   * Compresses all data sent from now on as a single zlib stream. Each flush ends with a
+   * sync flush, so the client can decode every message it has received so far, while the
+   * compression context is kept across messages so that small similar messages compress
+   * well together. Data received from the client is not compressed.
+   */
+  public void enableCompression(int level) throws IOException {
+    assert messageStart < 0 : "message is being written";
+    if (deflater != null) {
+      return;
+    }
+    flush();
+    deflater = new Deflater(level);
+    compressBuffer = ByteBuffer.allocate(SEND_BUFFER_SIZE_DEFAULT);
+  }
+
+  public boolean isCompressionEnabled() {
+    return deflater != null;
+  }
+
+  private void writeFully(ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      if (socketChannel.write(buf) == 0) {
+        awaitWritable();
+      }
+    }
+  }
+
+  private void writeFully(ByteBuffer[] bufs) throws IOException {
+    if (bufs.length == 1) {
+      writeFully(bufs[0]);
+      return;
+    }
+
+    long remaining = 0;
+    for (ByteBuffer buf : bufs) {
+      remaining += buf.remaining();
+    }
+    while (remaining > 0) {
+      long written = socketChannel.write(bufs);
+      if (written == 0) {
+        awaitWritable();
+      }
+      remaining -= written;
+    }
+  }
+
+  // a channel in non-blocking mode may accept no bytes if its send buffer is full
+  private void awaitWritable() throws IOException {
+    if (socketChannel.isBlocking()) {
+      return;
+    }
+    if (writeWaiter == null) {
+      throw new IOException("no write waiter for a channel in non-blocking mode");
+    }
+    writeWaiter.awaitWritable();
+  }
+
+  public void close() {
+    if (deflater != null) {
+      deflater.end();
+      deflater = null;
+    }
   }
 
   public void discard() throws IOException {
     recvBuffer.flip();
   }
+
+  /**
+   * Waits for a channel in non-blocking mode to become writable.
+   */
+  public interface WriteWaiter {
+    void awaitWritable() throws IOException;
+  }
 }
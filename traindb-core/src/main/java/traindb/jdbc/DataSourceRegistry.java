@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.dbcp2.BasicDataSource;
+import traindb.adapter.SourceDbmsProducts;
+import traindb.common.TrainDBConfiguration;
+import traindb.common.TrainDBLogger;
+
+/**
+ * Process-wide registry of pooled source DBMS data sources.
+ *
+ * <p>Connections to the same source DBMS with the same credentials share a single pool, so
+ * the pool size limits the number of source connections regardless of how many sessions
+ * are open. Pools are configured from the first connection which creates them, and live
+ * until {@link #closeAll()} is called.
+ */
+public final class DataSourceRegistry {
+  private static final TrainDBLogger LOG = TrainDBLogger.getLogger(DataSourceRegistry.class);
+  private static final long EVICTION_INTERVAL_MILLIS = 60 * 1000L;
+  private static final DataSourceRegistry INSTANCE = new DataSourceRegistry();
+
+  private final ConcurrentMap<Key, PooledDataSource> dataSources = new ConcurrentHashMap<>();
+
+  private DataSourceRegistry() {
+  }
+
+  public static DataSourceRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  public PooledDataSource getDataSource(String url, Properties info, TrainDBConfiguration cfg) {
+    String user = info.getProperty("user");
+    String password = info.getProperty("password");
+    return dataSources.computeIfAbsent(new Key(url, user, password),
+        key -> createDataSource(url, user, password, cfg));
+  }
+
+  public List<PooledDataSource> getDataSources() {
+    return new ArrayList<>(dataSources.values());
+  }
+
+  public void closeAll() {
+    for (PooledDataSource dataSource : getDataSources()) {
+      LOG.debug("close datasource pool: " + dataSource.getMetrics());
+      try {
+        dataSource.closePool();
+      } catch (SQLException e) {
+        LOG.debug("datasource pool close error: " + e.getMessage());
+      }
+    }
+    dataSources.clear();
+  }
+
+  private static PooledDataSource createDataSource(String url, String user, String password,
+                                                   TrainDBConfiguration cfg) {
+    PooledDataSource dataSource = new PooledDataSource();
+    dataSource.setUrl(url);
+    dataSource.setDriverClassName(getJdbcDriverClassName(url));
+
+    // postgres --> select 1
+    // redshift --> select 1
+    // bigquery --> select 1
+    // mysql    --> select 1 or select 1 from dual
+    // kairos   --> select 1 from dual
+    // tibero   --> select 1 from dual
+    String dbms = url.split(":")[1];
+    if (dbms.equals("postgresql") || dbms.equals("redshift") || dbms.equals("bigquery")) {
+      dataSource.setValidationQuery("SELECT 1");
+    } else {
+      dataSource.setValidationQuery("SELECT 1 FROM DUAL");
+    }
+
+    dataSource.setUsername(user);
+    dataSource.setPassword(password);
+
+    dataSource.setMaxTotal(cfg.getDataSourcePoolMaxTotal());
+    dataSource.setInitialSize(cfg.getDataSourcePoolInitialSize());
+    dataSource.setMinIdle(cfg.getDataSourcePoolMinIdle());
+    dataSource.setMaxWaitMillis(cfg.getDataSourcePoolMaxWaitMillis());
+    dataSource.setTestOnBorrow(cfg.dataSourcePoolTestOnBorrow());
+    dataSource.setTimeBetweenEvictionRunsMillis(EVICTION_INTERVAL_MILLIS);
+
+    LOG.info("create datasource pool: url=" + url + " user=" + user
+        + " maxTotal=" + dataSource.getMaxTotal());
+    if (dataSource.getInitialSize() > 0) {
+      // open the initial connections now rather than on the first query
+      try {
+        dataSource.start();
+      } catch (SQLException e) {
+        LOG.warn("failed to prewarm datasource pool: " + e.getMessage());
+      }
+    }
+    return dataSource;
+  }
+
+  private static String getJdbcDriverClassName(String jdbcConnectionString) {
+    String driverClassName = SourceDbmsProducts.getJdbcDriverClassName(
+        jdbcConnectionString.split(":")[1]);
+    try {
+      Class.forName(driverClassName);
+      return driverClassName;
+    } catch (ClassNotFoundException e) {
+      /* do nothing */
+    }
+    return null;
+  }
+
+  /**
+   * A shared connection pool which also keeps track of how long borrowers wait for a
+   * connection. It cannot be closed by its users, only by the registry.
+   *
+   * <p>A borrower which waits longer than traindb.server.datasource.pool.max-wait-ms fails
+   * with an {@link SQLTimeoutException}, rather than waiting for connections held by queries
+   * which may be waiting themselves.
+   */
+  public static final class PooledDataSource extends BasicDataSource {
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      long start = System.nanoTime();
+      try {
+        return super.getConnection();
+      } catch (SQLException e) {
+        if (e.getCause() instanceof NoSuchElementException) {
+          throw new SQLTimeoutException("no connection to " + getUrl() + " was available within "
+              + getMaxWaitMillis() + " ms: active=" + getNumActive() + " maxTotal="
+              + getMaxTotal() + "; raise traindb.server.datasource.pool.max-total, or lower the"
+              + " connections taken by parallel queries", e);
+        }
+        throw e;
+      } finally {
+        long wait = System.nanoTime() - start;
+        borrowCount.increment();
+        totalWaitNanos.add(wait);
+        maxWaitNanos.accumulateAndGet(wait, Math::max);
+      }
+    }
+
+    @Override
+    public void close() {
+      LOG.debug("ignore close of shared datasource pool: " + getUrl());
+    }
+
+    void closePool() throws SQLException {
+      super.close();
+    }
+
+    public long getBorrowCount() {
+      return borrowCount.sum();
+    }
+
+    public double getAverageBorrowWaitMillis() {
+      long count = borrowCount.sum();
+      return count == 0 ? 0 : totalWaitNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxBorrowWaitMillis() {
+      return maxWaitNanos.get() / 1e6;
+    }
+
+    public String getMetrics() {
+      return "url=" + getUrl() + " user=" + getUsername()
+          + " active=" + getNumActive() + " idle=" + getNumIdle()
+          + " maxTotal=" + getMaxTotal() + " borrowed=" + getBorrowCount()
+          + String.format(" avgWait=%.3fms maxWait=%.3fms",
+              getAverageBorrowWaitMillis(), getMaxBorrowWaitMillis());
+    }
+  }
+
+  private static final class Key {
+    private final String url;
+    private final String user;
+    private final String password;
+
+    Key(String url, String user, String password) {
+      this.url = url;
+      this.user = user;
+      this.password = password;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return url.equals(other.url) && Objects.equals(user, other.user)
+          && Objects.equals(password, other.password);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(url, user);
+    }
+  }
+}
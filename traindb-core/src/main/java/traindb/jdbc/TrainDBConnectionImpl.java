@@ -87,12 +87,12 @@ import org.apache.calcite.util.Holder;
 import org.apache.calcite.util.Util;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import traindb.adapter.SourceDbmsProducts;
 import traindb.catalog.CatalogContext;
 import traindb.catalog.CatalogStore;
 import traindb.catalog.JDOCatalogStore;
 import traindb.common.TrainDBConfiguration;
 import traindb.schema.SchemaManager;
+import traindb.task.IncrementalCursor;
 import traindb.task.TaskCoordinator;
 
 /**
@@ -108,6 +108,8 @@ public abstract class TrainDBConnectionImpl
   public final JavaTypeFactory typeFactory;
   private SchemaManager schemaManager;
   private TaskCoordinator taskCoordinator;
+  // the incremental query of this connection, read a partition at a time
+  private IncrementalCursor incrementalCursor;
   private BasicDataSource dataSource;
   private boolean standalone;
 
@@ -190,27 +192,8 @@ public abstract class TrainDBConnectionImpl
   }
 
   private BasicDataSource dataSource(String url, Properties info) {
-    BasicDataSource dataSource = new BasicDataSource();
-    dataSource.setUrl(url);
-    dataSource.setDriverClassName(getJdbcDriverClassName(url));
-
-    // postgres --> select 1
-    // redshift --> select 1
-    // bigquery --> select 1
-    // mysql    --> select 1 or select 1 from dual
-    // kairos   --> select 1 from dual
-    // tibero   --> select 1 from dual
-    String db_query = url.split(":")[1];
-    if (db_query.equals("postgresql") || db_query.equals("redshift") ||
-        db_query.equals("bigquery")) {
-      dataSource.setValidationQuery("SELECT 1");
-    } else {
-      dataSource.setValidationQuery("SELECT 1 FROM DUAL");
-    }
-
-    dataSource.setUsername(info.getProperty("user"));
-    dataSource.setPassword(info.getProperty("password"));
-    return dataSource;
+    // shared with the other connections to the same source DBMS
+    return DataSourceRegistry.getInstance().getDataSource(url, info, cfg);
   }
 
   private JavaTypeFactory getTypeFactory(JavaTypeFactory typeFactory, TrainDBConfiguration cfg) {
@@ -281,18 +264,6 @@ public abstract class TrainDBConnectionImpl
     setRootSchema(CalciteSchema.from(schemaManager.getCurrentSchema()));
   }
 
-  private static String getJdbcDriverClassName(String jdbcConnectionString) {
-    String driverClassName = SourceDbmsProducts.getJdbcDriverClassName(
-        jdbcConnectionString.split(":")[1]);
-    try {
-      Class.forName(driverClassName);
-      return driverClassName;
-    } catch (ClassNotFoundException e) {
-      /* do nothing */
-    }
-    return null;
-  }
-
   public CatalogContext getCatalogContext() {
     return schemaManager.getCatalogContext();
   }
@@ -307,6 +278,26 @@ public abstract class TrainDBConnectionImpl
     return taskCoordinator;
   }
 
+  public synchronized IncrementalCursor getIncrementalCursor() {
+    return incrementalCursor;
+  }
+
+  /**
+   * Sets the incremental query of this connection, closing the one it replaces.
+   */
+  public synchronized void setIncrementalCursor(IncrementalCursor cursor) {
+    if (incrementalCursor != null) {
+      incrementalCursor.close();
+    }
+    incrementalCursor = cursor;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    setIncrementalCursor(null);
+    super.close();
+  }
+
   public boolean isStandalone() {
     return standalone;
   }
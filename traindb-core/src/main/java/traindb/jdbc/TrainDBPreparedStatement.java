@@ -18,6 +18,7 @@ import java.sql.SQLException;
 import org.apache.calcite.avatica.AvaticaPreparedStatement;
 import org.apache.calcite.avatica.Meta;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import traindb.prepare.TrainDBPrepareImpl;
 
 /**
  * Implementation of {@link java.sql.PreparedStatement}
@@ -52,4 +53,12 @@ public abstract class TrainDBPreparedStatement extends AvaticaPreparedStatement
   public TrainDBConnectionImpl getConnection() throws SQLException {
     return (TrainDBConnectionImpl) super.getConnection();
   }
+
+  /**
+   * Returns whether the result of this statement has been computed while preparing it.
+   * Such a statement returns the same rows on every execution.
+   */
+  public boolean isPrecomputed() {
+    return getSignature() instanceof TrainDBPrepareImpl.PrecomputedSignature;
+  }
 }
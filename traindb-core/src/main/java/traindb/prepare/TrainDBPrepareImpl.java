@@ -16,7 +16,6 @@ package traindb.prepare;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.calcite.linq4j.Nullness.castNonNull;
-import static org.apache.calcite.sql.type.SqlTypeName.DECIMAL;
 import static org.apache.calcite.util.Static.RESOURCE;
 
 import com.google.common.collect.ImmutableList;
@@ -25,7 +24,6 @@ import java.lang.reflect.Type;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
@@ -37,9 +35,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.apache.calcite.adapter.enumerable.EnumerableCalc;
@@ -93,7 +90,6 @@ import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.schema.Table;
 import org.apache.calcite.server.CalciteServerStatement;
 import org.apache.calcite.server.DdlExecutor;
-import org.apache.calcite.sql.SqlAggFunction;
 import org.apache.calcite.sql.SqlBasicCall;
 import org.apache.calcite.sql.SqlExplain;
 import org.apache.calcite.sql.SqlHint;
@@ -123,7 +119,6 @@ import org.apache.calcite.util.Util;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import traindb.adapter.jdbc.JdbcUtils;
 import traindb.catalog.CatalogContext;
-import traindb.common.TrainDBException;
 import traindb.engine.TrainDBListResultSet;
 import traindb.engine.TrainDBQueryEngine;
 import traindb.engine.nio.ByteArray;
@@ -141,7 +136,8 @@ import traindb.sql.calcite.TrainDBSqlCalciteParserImpl;
 import traindb.sql.calcite.TrainDBSqlSelect;
 import traindb.sql.fun.TrainDBAggregateOperatorTable;
 import traindb.sql.fun.TrainDBSpatialOperatorTable;
-import traindb.task.IncrementalScanTask;
+import traindb.task.IncrementalAggregate;
+import traindb.task.IncrementalCursor;
 import traindb.task.TaskCoordinator;
 
 public class TrainDBPrepareImpl extends CalcitePrepareImpl {
@@ -474,7 +470,7 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
 
   CalciteSignature convertResultToSignature(Context context, String sql, TrainDBListResultSet res) {
     if (res.isEmpty()) {
-      return new CalciteSignature<>(sql,
+      return new PrecomputedSignature<>(sql,
           ImmutableList.of(),
           ImmutableMap.of(), null,
           ImmutableList.of(), Meta.CursorFactory.OBJECT,
@@ -508,14 +504,15 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
           if (res.getColumnType(j) == Types.VARBINARY) {
             ByteArray byteArray = (ByteArray) res.getValue(j);
             r.add(byteArray.getArray());
+          } else {
+            r.add(res.getValue(j));
           }
-          r.add(res.getValue(j));
         }
         rows.add(r);
       }
     }
 
-    return new CalciteSignature<>(sql,
+    return new PrecomputedSignature<>(sql,
         parameters,
         ImmutableMap.of(), null,
         columns, Meta.CursorFactory.ARRAY,
@@ -648,16 +645,10 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
           if ((hint == null || !hint.getName().equalsIgnoreCase("approximate"))
               && select.getFrom() instanceof SqlJoin) {
             try {
-              TaskCoordinator taskCoordinator = conn.getTaskCoordinator();
-              if (hint != null && hint.getName().equalsIgnoreCase("parallel")) {
-                taskCoordinator.setParallel(true);
-              } 
+              // the hint applies to this query only
+              boolean parallel = hint != null && hint.getName().equalsIgnoreCase("parallel");
               TrainDBListResultSet result = executeJoin(context, catalogReader, sqlNode, sqlNode,
-                  preparingStmt, prefer);
-
-              if (taskCoordinator.isParallel() && taskCoordinator.getTableScanFutures().size() > 0) {
-                taskCoordinator.getTableScanFutures().clear();
-              }
+                  preparingStmt, prefer, parallel);
               if (result != null)
                 return convertResultToSignature(context, null, result);
             } catch (SQLException e) {
@@ -746,7 +737,8 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
       SqlNode sql,
       SqlNode sqlNodeOriginal, 
       TrainDBPreparingStmt preparingStmt,
-      EnumerableRel.Prefer prefer) throws SQLException {
+      EnumerableRel.Prefer prefer,
+      boolean parallel) throws SQLException {
 
     SqlToRelConverter.Config config = SqlToRelConverter.config()
         .withExpand(castNonNull(preparingStmt.THREAD_EXPAND.get()))
@@ -777,6 +769,11 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
     assert fieldOrigins.size() == resultType.getFieldCount();
 
     RelDataType parameterRowType = validator.getParameterRowType(sql);
+    if (parameterRowType.getFieldCount() > 0) {
+      // the join cannot run before its parameters are bound, so it is planned as usual and
+      // runs when the statement is executed
+      return null;
+    }
 
     // Display logical plans before view expansion, plugging in physical
     // storage and decorrelation
@@ -840,7 +837,7 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
       prefer = EnumerableRel.Prefer.CUSTOM;
 
       result = ((traindb.adapter.jdbc.JdbcToEnumerableConverter)enumerable)
-          .execute(relImplementor, prefer, context);
+          .execute(relImplementor, prefer, context, parallel);
 
     }
 
@@ -868,18 +865,20 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
         (TrainDBConnectionImpl) context.getDataContext().getQueryProvider();
 
     SchemaManager schemaManager = conn.getSchemaManager();
-    TaskCoordinator taskCoordinator = conn.getTaskCoordinator();
 
     String sql = null;
+    boolean isParallel;
     if (commands instanceof TrainDBIncrementalParallelQuery) {
       sql = ((TrainDBIncrementalParallelQuery) commands).getStatement();
-      taskCoordinator.setParallel(true);
+      isParallel = true;
     } else {
       sql = ((TrainDBIncrementalQuery) commands).getStatement();
-      taskCoordinator.setParallel(false);
+      isParallel = false;
     }
     if (sql.equals("rows")) {
-      if (taskCoordinator.isParallel())
+      // the rest of the partitions are read the way the query started
+      IncrementalCursor cursor = conn.getIncrementalCursor();
+      if (cursor != null ? cursor.isParallel() : isParallel)
         return executeIncrementalNextParallel(context, commands);
       else
         return executeIncrementalNext(context,commands);
@@ -889,7 +888,6 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
     if (sql.toLowerCase().startsWith("select") && sql.toLowerCase().contains("approximate")) {
       isApproximate = true;
     }
-    taskCoordinator.setApproximate(isApproximate);
 
     SqlParser parser = createParser(sql,  parserConfig);
     SqlNode sqlNode;
@@ -900,30 +898,8 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
           "parse failed: " + e.getMessage(), e);
     }
 
-    taskCoordinator.saveQueryIdx = 0;
-    if (taskCoordinator.saveQuery == null) {
-      taskCoordinator.saveQuery = new ArrayList<>();
-    } else {
-      taskCoordinator.saveQuery.clear();
-    }
-
-    if (taskCoordinator.totalRes == null) {
-      taskCoordinator.totalRes = new ArrayList<>();
-    } else {
-      taskCoordinator.totalRes.clear();
-    }
-
-    if (taskCoordinator.header == null) {
-      taskCoordinator.header = new ArrayList<>();
-    } else {
-      taskCoordinator.header.clear();
-    }
-
-    if (taskCoordinator.aggCalls == null) {
-      taskCoordinator.aggCalls = new ArrayList<>();
-    } else {
-      taskCoordinator.aggCalls.clear();
-    }
+    List<String> partitionQueries = new ArrayList<>();
+    List<IncrementalAggregate> aggregates = new ArrayList<>();
 
     TrainDBSqlSelect ptree = (TrainDBSqlSelect)sqlNode;
 
@@ -944,29 +920,19 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
         SqlBasicCall call = (SqlBasicCall) n;
         SqlOperator callOp = call.getOperator();
 
-        SqlIdentifier inNode = (SqlIdentifier) call.getOperandList().get(0);
-        String inName = inNode.toString();
-
-        if (callOp.getName().equalsIgnoreCase("count")) {
-          taskCoordinator.aggCalls.add(SqlStdOperatorTable.COUNT);
-          columnList = columnList + "count(" + inName + ")";
-        } else if (callOp.getName().equalsIgnoreCase("sum")) {
-          taskCoordinator.aggCalls.add(SqlStdOperatorTable.SUM);
-          columnList = columnList + "sum(" + inName + ")";
-        } else if (callOp.getName().equalsIgnoreCase("min")) {
-          taskCoordinator.aggCalls.add(SqlStdOperatorTable.MIN);
-          columnList = columnList + "min(" + inName + ")";
-        } else if (callOp.getName().equalsIgnoreCase("max")) {
-          taskCoordinator.aggCalls.add(SqlStdOperatorTable.MAX);
-          columnList = columnList + "max(" + inName + ")";
-        } else if (callOp.getName().equalsIgnoreCase("avg")) {
-          taskCoordinator.aggCalls.add(SqlStdOperatorTable.AVG);
-          columnList = columnList + "sum(" + inName + "), count(" + inName + ")";
-        } else {
+        List<String> args = new ArrayList<>();
+        for (SqlNode operand : call.getOperandList()) {
+          args.add(((SqlIdentifier) operand).toString());
+        }
+
+        IncrementalAggregate aggregate = IncrementalAggregate.create(callOp.getName(), args);
+        if (aggregate == null) {
           throw new RuntimeException(
               "failed to run statement: " + sql
                   + "\nerror msg: incremental query can be executed on aggregate function");
         }
+        aggregates.add(aggregate);
+        columnList = columnList + String.join(", ", aggregate.getPartialColumns());
       }
     }
 
@@ -1035,201 +1001,72 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
             "select " + columnList + " from " + tblname + " partition(" + partitionList.get(k) + ")";
       }
 
-      taskCoordinator.saveQuery.add(changeQuery);
+      partitionQueries.add(changeQuery);
     }
 
-    taskCoordinator.totalPartitionCnt = partitionList.size();
-    double approximate = 1;
-    if (taskCoordinator.isApproximate())
-      approximate = taskCoordinator.totalPartitionCnt / (taskCoordinator.saveQueryIdx + 1);
+    IncrementalCursor cursor =
+        new IncrementalCursor(partitionQueries, aggregates, isApproximate, isParallel);
+    conn.setIncrementalCursor(cursor);
 
-    if(taskCoordinator.getIncrementalFutures() == null) {
-      taskCoordinator.setIncrementalFutures(new ArrayList<>());
-    }
-
-    List<List<Object>> totalRes = new ArrayList<>();
-    List<String> header = new ArrayList<>();
     try {
-        changeQuery = taskCoordinator.saveQuery.get(0);
-
-        Connection extConn = conn.getDataSourceConnection();
-        Statement stmt = extConn.createStatement();
-        ResultSet rs = stmt.executeQuery(changeQuery);
-
-        int columnCount = rs.getMetaData().getColumnCount();
-        ResultSetMetaData md = rs.getMetaData();
-
-        while (rs.next()) {
-          List<Object> r = new ArrayList<>();
-          for (int j = 1; j <= columnCount; j++) {
-            int type = md.getColumnType(j);
-            SqlTypeName sqlTypeName = SqlTypeName.getNameForJdbcType(type);
-            if (sqlTypeName == DECIMAL) {
-              r.add(rs.getInt(j));
-            } else {
-              r.add(rs.getObject(j));
-            }
-          }
-          taskCoordinator.totalRes.add(r);
-        }
-
-        for (int j = 0; j < taskCoordinator.aggCalls.size(); j++) {
-          SqlAggFunction agg = taskCoordinator.aggCalls.get(j);
-          header.add(agg.getName());
-          taskCoordinator.header.add(agg.getName());
-        }
-
-        TrainDBListResultSet res
-            = new TrainDBListResultSet(taskCoordinator.header, taskCoordinator.totalRes);
-        
-        if (res.getRowCount() > 0) {
-          List<Object> r = new ArrayList<>();
-          int aggIdx = 0;
-          for (int j = 0; j < res.getColumnCount(); j++, aggIdx++) {
-            SqlAggFunction agg = taskCoordinator.aggCalls.get(aggIdx);
-            switch (agg.getKind()) {
-              case COUNT:
-                executeIncrementalCount(res, j, r, approximate);
-                break;
-              case SUM:
-                executeIncrementalSum(res, j, r, approximate);
-                break;
-              case AVG:
-                executeIncrementalAvg(res, j, r, approximate);
-                j++;
-                break;
-              case MIN:
-                executeIncrementalMin(res, j, r);
-                break; 
-              case MAX:
-                executeIncrementalMax(res, j, r);
-                break;
-              default:
-                break;
-            }
-          }
-          totalRes.add(r);
-        }
-        
-        if (taskCoordinator.isParallel()) {
-          ExecutorService executor = Executors.newFixedThreadPool(4);
-          for (int idx = 1; idx < taskCoordinator.saveQuery.size(); idx++) {
-            IncrementalScanTask task = new IncrementalScanTask(context, commands, ++taskCoordinator.saveQueryIdx);
-            taskCoordinator.getIncrementalFutures().add(executor.submit(task));
-          }
+      readNextPartition(conn, cursor);
+
+      if (cursor.isParallel()) {
+        // each scan takes a connection of the pool, so leave one for the other queries; a
+        // pool without a limit has a max-total <= 0, and a pool of one connection runs one scan
+        int maxConnections = conn.cfg.getDataSourcePoolMaxTotal();
+        int parallelism = conn.cfg.getIncrementalParallelism();
+        if (maxConnections > 0) {
+          parallelism = Math.max(1, Math.min(parallelism, maxConnections - 1));
         }
-        
-        JdbcUtils.close(extConn, stmt, rs);
-        taskCoordinator.saveQueryIdx++;
+        cursor.startScans(conn.getTaskCoordinator().getSourceExecutor(), context, parallelism,
+            conn.cfg.getIncrementalLookahead());
+      }
     } catch (SQLException e) {
       throw new RuntimeException(e);
-    } catch (TrainDBException e) {
-      e.printStackTrace();
     }
 
     return convertResultToSignature(context, sql,
-        new TrainDBListResultSet(header, totalRes));
+        new TrainDBListResultSet(cursor.getHeader(), incrementalResult(cursor)));
   }
-  
+
+  // reads the next partition of the cursor, giving the connection back to the pool on failure
+  private static void readNextPartition(TrainDBConnectionImpl conn, IncrementalCursor cursor)
+      throws SQLException {
+    Connection extConn = null;
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      extConn = conn.getDataSourceConnection();
+      stmt = JdbcUtils.createStreamingStatement(extConn, conn.cfg.getDataSourceFetchSize());
+      rs = stmt.executeQuery(cursor.nextQuery());
+      cursor.addResult(rs);
+    } finally {
+      JdbcUtils.close(extConn, stmt, rs);
+    }
+  }
+
   <T> CalciteSignature<T> executeIncrementalNext(
       Context context,
       TrainDBSqlCommand commands) {
 
     TrainDBConnectionImpl conn = (TrainDBConnectionImpl) context.getDataContext().getQueryProvider();
+    IncrementalCursor cursor = getIncrementalCursor(conn, commands);
+    String sql = ((TrainDBIncrementalQuery) commands).getStatement();
 
-    TaskCoordinator taskCoordinator = conn.getTaskCoordinator();
-
-    TrainDBIncrementalQuery incrementalQuery = (TrainDBIncrementalQuery) commands;
-    String sql = incrementalQuery.getStatement();
-
-    List<List<Object>> totalRes = new ArrayList<>();
-    List<String> header = new ArrayList<>();
-
-    int currentIdx = taskCoordinator.saveQueryIdx;
-    if (currentIdx <= 0) {
-      throw new RuntimeException(
-          "failed to run statement: " + sql
-              + "\nerror msg: incremental query can be executed on partitioned table only.");
-    }
-
-    if (taskCoordinator.saveQuery.size() <= currentIdx) {
+    if (!cursor.hasNext()) {
       return convertResultToSignature(context, sql,
-          new TrainDBListResultSet(taskCoordinator.header, totalRes));
+          new TrainDBListResultSet(cursor.getHeader(), new ArrayList<>()));
     }
 
     try {
-      String currentIncrementalQuery = taskCoordinator.saveQuery.get(currentIdx);
-      Connection extConn = conn.getDataSourceConnection();
-      Statement stmt = extConn.createStatement();
-      ResultSet rs = stmt.executeQuery(currentIncrementalQuery);
-
-      int columnCount = rs.getMetaData().getColumnCount();
-      ResultSetMetaData md = rs.getMetaData();
-
-      while (rs.next()) {
-        List<Object> r = new ArrayList<>();
-        for (int j = 1; j <= columnCount; j++) {
-          int type = md.getColumnType(j);
-          SqlTypeName sqlTypeName = SqlTypeName.getNameForJdbcType(type);
-          if (sqlTypeName == DECIMAL) {
-            r.add(rs.getInt(j));
-          } else {
-            r.add(rs.getObject(j));
-          }
-        }
-        taskCoordinator.totalRes.add(r);
-      }
-
-      double approximate = 1;
-      if (taskCoordinator.isApproximate())
-        approximate = taskCoordinator.totalPartitionCnt / (taskCoordinator.saveQueryIdx + 1);
-
-      for (int j = 0; j < taskCoordinator.aggCalls.size(); j++) {
-        SqlAggFunction agg = taskCoordinator.aggCalls.get(j);
-        header.add(agg.getName());
-      }
-
-      TrainDBListResultSet res =
-          new TrainDBListResultSet(taskCoordinator.header, taskCoordinator.totalRes);
-      if (res.getRowCount() > 0) {
-        List<Object> r = new ArrayList<>();
-        int aggIdx = 0;
-        for (int j = 0; j < res.getColumnCount(); j++, aggIdx++) {
-          SqlAggFunction agg = taskCoordinator.aggCalls.get(aggIdx);
-          switch (agg.getKind()) {
-            case COUNT:
-              executeIncrementalCount(res, j, r, approximate);
-              break;
-            case SUM:
-              executeIncrementalSum(res, j, r, approximate);
-              break;
-            case AVG:
-              executeIncrementalAvg(res, j, r, approximate);
-              j++;
-              break;
-            case MIN:
-              executeIncrementalMin(res, j, r);
-              break;
-            case MAX:
-              executeIncrementalMax(res, j, r);
-              break;
-            default:
-              break;
-          }
-        }
-        totalRes.add(r);
-      }
-
-      JdbcUtils.close(extConn, stmt, rs);
-      taskCoordinator.saveQueryIdx++;
+      readNextPartition(conn, cursor);
     } catch (SQLException e) {
       throw new RuntimeException(e);
-    } catch (TrainDBException e) {
-      e.printStackTrace();
     }
 
     return convertResultToSignature(context, sql,
-        new TrainDBListResultSet(header, totalRes));
+        new TrainDBListResultSet(cursor.getHeader(), incrementalResult(cursor)));
   }
 
   <T> CalciteSignature<T> executeIncrementalNextParallel(
@@ -1237,358 +1074,64 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
       TrainDBSqlCommand commands) {
 
     TrainDBConnectionImpl conn = (TrainDBConnectionImpl) context.getDataContext().getQueryProvider();
-    TaskCoordinator taskCoordinator = conn.getTaskCoordinator();
-
-    TrainDBIncrementalQuery incrementalParallelQuery = (TrainDBIncrementalQuery) commands;
-    String sql = incrementalParallelQuery.getStatement();
+    IncrementalCursor cursor = getIncrementalCursor(conn, commands);
+    String sql = ((TrainDBIncrementalQuery) commands).getStatement();
 
     List<List<Object>> totalRes = new ArrayList<>();
-    List<Future<List<List<Object>>>> futures = taskCoordinator.getIncrementalFutures();
-
-    if (futures.size() > 0) {
+    Future<TrainDBListResultSet> scan = cursor.pollScan();
+    if (scan != null) {
+      TrainDBListResultSet result;
       try {
-        List<List<Object>> result = futures.remove(0).get();
-        for (List<Object> r : result)
-          taskCoordinator.totalRes.add(r);
-      } catch (InterruptedException | ExecutionException e) {
-        e.printStackTrace();
-      }
-
-      double approximate = 1;
-      if (taskCoordinator.isApproximate())
-        approximate = (double)taskCoordinator.totalPartitionCnt / (double)(taskCoordinator.saveQueryIdx + 1);
-
-      TrainDBListResultSet res =
-          new TrainDBListResultSet(taskCoordinator.header, taskCoordinator.totalRes);
-      if (res.getRowCount() > 0) {
-        List<Object> r = new ArrayList<>();
-        int aggIdx = 0;
-        for (int j = 0; j < res.getColumnCount(); j++, aggIdx++) {
-          SqlAggFunction agg = taskCoordinator.aggCalls.get(aggIdx);
-          try {
-            switch (agg.getKind()) {
-              case COUNT:
-                executeIncrementalCount(res, j, r, approximate);
-                break;
-              case SUM:
-                executeIncrementalSum(res, j, r, approximate);
-                break;
-              case AVG:
-                executeIncrementalAvg(res, j, r, approximate);
-                j++;
-                break;
-              case MIN:
-                executeIncrementalMin(res, j, r);
-                break;
-              case MAX:
-                executeIncrementalMax(res, j, r);
-                break;
-              default:
-                break;
-            }
-          } catch (TrainDBException e) {
-            e.printStackTrace();
-          }
-        }
-        totalRes.add(r);
+        result = scan.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        // the partition is lost, so the rest of the query cannot be exact either
+        cursor.close();
+        throw new RuntimeException(
+            new SQLException("interrupted while waiting for a partition scan", e));
+      } catch (ExecutionException | CancellationException e) {
+        cursor.close();
+        throw new RuntimeException(scanFailure(e));
       }
+      cursor.addResult(result);
+      totalRes = incrementalResult(cursor);
     }
 
     return convertResultToSignature(context, sql,
-        new TrainDBListResultSet(taskCoordinator.header, totalRes));
+        new TrainDBListResultSet(cursor.getHeader(), totalRes));
   }
 
-  public static void executeIncrementalCount(TrainDBListResultSet res, int columnIdx, 
-                                            List<Object> r, double approximate)
-      throws TrainDBException {
-    int totalCnt = 0;
-    int cnt = 0;
-    int type = res.getColumnType(columnIdx);
-
-    res.rewind();
-    while (res.next()) {
-      switch (type) {
-        case Types.TINYINT:
-        case Types.SMALLINT:
-        case Types.INTEGER:
-        case Types.FLOAT:
-        case Types.DOUBLE:
-          cnt = (int) res.getValue(columnIdx);
-          totalCnt = totalCnt + cnt;
-          break;
-        case Types.BIGINT:
-          cnt = ((Long) res.getValue(columnIdx)).intValue();
-          totalCnt = totalCnt + cnt;
-          break;
-        default:
-          throw new TrainDBException("Not supported data type: " + type);
-      }
+  // returns the error of the source DBMS which failed a partition scan
+  private static SQLException scanFailure(Exception e) {
+    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+    if (cause instanceof RuntimeException && cause.getCause() instanceof SQLException) {
+      // IncrementalScanTask wraps the SQLException
+      cause = cause.getCause();
     }
-    r.add((int)(totalCnt*approximate));
-  }
-
-  public static void executeIncrementalSum(TrainDBListResultSet res, int columnIdx, 
-                                          List<Object> r, double approximate)
-      throws TrainDBException {
-    int totalIntSum = 0;
-    int intSum = 0;
-
-    double totalDoubleSum = 0;
-    double doubleSum = 0;
-
-    int type = res.getColumnType(columnIdx);
-
-    res.rewind();
-    while (res.next()) {
-      switch (type) {
-        case Types.TINYINT:
-        case Types.SMALLINT:
-        case Types.INTEGER:
-          intSum = (int) res.getValue(columnIdx);
-          totalIntSum = totalIntSum + intSum;
-          break;
-        case Types.BIGINT:
-          intSum = ((Long) res.getValue(columnIdx)).intValue();
-          totalIntSum = totalIntSum + intSum;
-          break;
-        case Types.FLOAT:
-        case Types.DOUBLE:
-          doubleSum = (double) res.getValue(columnIdx);
-          totalDoubleSum = totalDoubleSum + doubleSum;
-          break;
-        default:
-          throw new TrainDBException("Not supported data type: " + type);
-      }
-    }
-    switch (type) {
-      case Types.TINYINT:
-      case Types.SMALLINT:
-      case Types.INTEGER:
-      case Types.BIGINT:
-        r.add((int)(totalIntSum * approximate));
-        break;
-      case Types.FLOAT:
-      case Types.DOUBLE:
-        r.add(totalDoubleSum * approximate);
-        break;
-      default:
-        break;
+    if (cause instanceof SQLException) {
+      return (SQLException) cause;
     }
+    return new SQLException("partition scan failed", cause);
   }
 
-  public static void executeIncrementalAvg(TrainDBListResultSet res, int columnIdx, 
-                                          List<Object> r, double approximate)
-      throws TrainDBException {
-    int totalIntSum = 0;
-    int totalIntCnt = 0;
-    int intCnt = 0;
-    int intSum = 0;
-
-    double totalDoubleSum = 0;
-    double totalDoubleCnt = 0;
-    double doubleCnt = 0;
-    double doubleSum = 0;
-    Object value = null;
-
-    int type = res.getColumnType(columnIdx);
-
-    res.rewind();
-    while (res.next()) {
-      switch (type) {
-        case Types.TINYINT:
-        case Types.SMALLINT:
-        case Types.INTEGER:
-          intSum = (int) res.getValue(columnIdx);
-          totalIntSum = totalIntSum + intSum;
-
-          value = res.getValue(columnIdx + 1);
-          if (value instanceof Long) {
-            intCnt = ((Long) res.getValue(columnIdx + 1)).intValue();
-          } else {
-            intCnt = (int) res.getValue(columnIdx + 1);
-          }
-          totalIntCnt = totalIntCnt + intCnt;
-          break;
-        case Types.BIGINT:
-          intSum = ((Long) res.getValue(columnIdx)).intValue();
-          totalIntSum = totalIntSum + intSum;
-
-          value = res.getValue(columnIdx + 1);
-          if (value instanceof Long) {
-            intCnt = ((Long) res.getValue(columnIdx + 1)).intValue();
-          } else {
-            intCnt = (int) res.getValue(columnIdx + 1);
-          }
-          totalIntCnt = totalIntCnt + intCnt;
-          break;
-        case Types.FLOAT:
-        case Types.DOUBLE:
-          doubleSum = (double) res.getValue(columnIdx);
-          totalDoubleSum = totalDoubleSum + doubleSum;
-
-          doubleCnt = Double.parseDouble(res.getValue(columnIdx + 1).toString());
-          totalDoubleCnt = totalDoubleCnt + doubleCnt;
-          break;
-        default:
-          throw new TrainDBException("Not supported data type: " + type);
-      }
-    }
-    switch (type) {
-      case Types.TINYINT:
-      case Types.SMALLINT:
-      case Types.INTEGER:
-      case Types.BIGINT:
-        double test = (double) (totalIntSum*approximate) / (double) (totalIntCnt*approximate);
-        double davg = Math.round(test);
-        int intAvg = (int) davg;
-        r.add(intAvg);
-        break;
-      case Types.FLOAT:
-      case Types.DOUBLE:
-        double avg =  (double) (totalDoubleSum*approximate) / (double) (totalDoubleCnt*approximate);
-        r.add(avg);
-        break;
-      default:
-        break;
-    }
-  }
-
-  public static void executeIncrementalMin(TrainDBListResultSet res, int columnIdx, List<Object> r)
-      throws TrainDBException {
-    int intMin = 0;
-    int currentMin = 0;
-
-    String stringMin = null;
-    String currentStr = null;
-
-    int type = res.getColumnType(columnIdx);
-
-    res.rewind();
-    while (res.next()) {
-      switch (type) {
-        case Types.TINYINT:
-        case Types.SMALLINT:
-        case Types.INTEGER:
-        case Types.BIGINT:
-        case Types.FLOAT:
-        case Types.DOUBLE:
-          currentMin = (int) res.getValue(columnIdx);
-          if (intMin == 0) {
-            intMin = currentMin;
-          } else if (intMin > currentMin) {
-            intMin = currentMin;
-          }
-          break;
-        case Types.CHAR:
-        case Types.VARCHAR: {
-          currentStr = (String) res.getValue(columnIdx);
-          if (stringMin == null) {
-            stringMin = currentStr;
-          } else if (compareStrings(stringMin, currentStr) > 0) {
-            stringMin = currentStr;
-          }
-          break;
-        }
-        default:
-          throw new TrainDBException("Not supported data type: " + type);
-      }
-    }
-
-    switch (type) {
-      case Types.TINYINT:
-      case Types.SMALLINT:
-      case Types.INTEGER:
-      case Types.BIGINT:
-      case Types.FLOAT:
-      case Types.DOUBLE:
-        r.add(intMin);
-        break;
-      case Types.CHAR:
-      case Types.VARCHAR:
-        r.add(stringMin);
-        break;
-      default:
-        throw new TrainDBException("Not supported data type: " + type);
-    }
-  }
-
-  public static void executeIncrementalMax(TrainDBListResultSet res, int columnIdx, List<Object> r)
-      throws TrainDBException {
-    int intMax = 0;
-    int currentMax = 0;
-
-    String stringMax = null;
-    String currentStr = null;
-
-    int type = res.getColumnType(columnIdx);
-
-    res.rewind();
-    while (res.next()) {
-      switch (type) {
-        case Types.TINYINT:
-        case Types.SMALLINT:
-        case Types.INTEGER:
-        case Types.BIGINT:
-        case Types.FLOAT:
-        case Types.DOUBLE:
-          currentMax = (int) res.getValue(columnIdx);
-          if (intMax == 0) {
-            intMax = currentMax;
-          } else if (intMax < currentMax) {
-            intMax = currentMax;
-          }
-          break;
-        case Types.CHAR:
-        case Types.VARCHAR: {
-          currentStr = (String) res.getValue(columnIdx);
-          if (stringMax == null) {
-            stringMax = currentStr;
-          } else if (compareStrings(stringMax, currentStr) < 0) {
-            stringMax = currentStr;
-          }
-          break;
-        }
-        default:
-          throw new TrainDBException("Not supported data type: " + type);
-      }
-    }
-
-    switch (type) {
-      case Types.TINYINT:
-      case Types.SMALLINT:
-      case Types.INTEGER:
-      case Types.BIGINT:
-      case Types.FLOAT:
-      case Types.DOUBLE:
-        r.add(intMax);
-        break;
-      case Types.CHAR:
-      case Types.VARCHAR:
-        r.add(stringMax);
-        break;
-      default:
-        throw new TrainDBException("Not supported data type: " + type);
+  private static IncrementalCursor getIncrementalCursor(TrainDBConnectionImpl conn,
+                                                        TrainDBSqlCommand commands) {
+    IncrementalCursor cursor = conn.getIncrementalCursor();
+    if (cursor == null) {
+      throw new RuntimeException(
+          "failed to run statement: " + ((TrainDBIncrementalQuery) commands).getStatement()
+              + "\nerror msg: incremental query can be executed on partitioned table only.");
     }
+    return cursor;
   }
 
-  public static int compareStrings(String s1, String s2) {
-    for (int i = 0; i < s1.length() && i < s2.length(); i++) {
-      if ((int) s1.charAt(i) == (int) s2.charAt(i)) {
-        continue;
-      } else {
-        return (int) s1.charAt(i) - (int) s2.charAt(i);
-      }
-    }
-
-    if (s1.length() < s2.length()) {
-      return (s1.length() - s2.length());
-      //return 1;
-    } else if (s1.length() > s2.length()) {
-      return (s1.length() - s2.length());
-      //return -1;
-    } else {
-      return 0;
+  // returns the aggregates of the incremental query over the partitions read so far
+  private static List<List<Object>> incrementalResult(IncrementalCursor cursor) {
+    List<List<Object>> totalRes = new ArrayList<>();
+    if (cursor.getReadCount() > 0) {
+      totalRes.add(cursor.result());
     }
+    return totalRes;
   }
 
   public static SqlValidator createSqlValidator(Context context,
@@ -1812,6 +1355,23 @@ public class TrainDBPrepareImpl extends CalcitePrepareImpl {
         prepareContext.getRootSchema().plus(), statement);
   }
 
+  /**
+   * Signature of a statement whose result has been computed while preparing it, such as a
+   * TrainDB command or a join executed on the JDBC sources. Executing the statement again
+   * returns the same rows, so it must be prepared again to see new data.
+   */
+  public static class PrecomputedSignature<T> extends CalciteSignature<T> {
+    PrecomputedSignature(String sql, List<AvaticaParameter> parameterList,
+                         Map<String, Object> internalParameters, RelDataType rowType,
+                         List<ColumnMetaData> columns, Meta.CursorFactory cursorFactory,
+                         CalciteSchema rootSchema, List<RelCollation> collationList,
+                         long maxRowCount, Bindable<T> bindable,
+                         Meta.StatementType statementType) {
+      super(sql, parameterList, internalParameters, rowType, columns, cursorFactory,
+          rootSchema, collationList, maxRowCount, bindable, statementType);
+    }
+  }
+
   public static class TrainDBPreparedResultImpl extends Prepare.PreparedResultImpl {
 
     protected TrainDBPreparedResultImpl(RelDataType rowType, RelDataType parameterRowType,
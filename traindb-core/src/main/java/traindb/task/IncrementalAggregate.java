@@ -0,0 +1,497 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.task;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Aggregate of an incremental query, accumulated a partition at a time.
+ *
+ * <p>The query over each partition computes partial aggregates, such as the sum and the count
+ * for AVG, and the partial aggregates of a partition are merged into the accumulator in
+ * constant time. Accumulators of the same aggregate can be merged with each other too.
+ *
+ * <p>Integer sums are kept in a long, and in a BigDecimal once they overflow it. Decimal sums
+ * are kept in a BigDecimal and floating-point sums in a double, so the result has the type of
+ * the partial sums. VAR_POP, VAR_SAMP, STDDEV_POP, STDDEV_SAMP and CORR are merged from the
+ * count, mean and sum of squared deviations of each partition, which keeps them accurate
+ * however many partitions there are. The partitions give these as AVG and VAR_POP, which the
+ * source DBMS computes without subtracting large sums of squares; for CORR, the covariance of
+ * x and y follows from the variances of x, y and x + y, as not every DBMS has COVAR_POP.
+ */
+public abstract class IncrementalAggregate {
+  private final String name;
+
+  IncrementalAggregate(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Returns the accumulator of the aggregate function over the argument expressions, or null
+   * if the function cannot be computed incrementally.
+   */
+  public static IncrementalAggregate create(String function, List<String> args) {
+    String name = function.toUpperCase(Locale.ROOT);
+    switch (name) {
+      case "COUNT":
+        return new Count(name, args.get(0));
+      case "SUM":
+        return new Sum(name, args.get(0));
+      case "AVG":
+        return new Avg(name, args.get(0));
+      case "MIN":
+        return new MinMax(name, args.get(0), true);
+      case "MAX":
+        return new MinMax(name, args.get(0), false);
+      case "VAR_POP":
+      case "VAR_SAMP":
+      case "VARIANCE":
+      case "STDDEV_POP":
+      case "STDDEV_SAMP":
+      case "STDDEV":
+        return new Variance(name, args.get(0));
+      case "CORR":
+        return args.size() == 2 ? new Corr(name, args.get(0), args.get(1)) : null;
+      default:
+        return null;
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the expressions which the query over a partition computes for this aggregate.
+   */
+  public abstract List<String> getPartialColumns();
+
+  /**
+   * Merges the partial aggregates of a partition, which start at the given column of the row.
+   */
+  public abstract void add(Object[] row, int offset);
+
+  /**
+   * Merges another accumulator of the same aggregate into this.
+   */
+  public abstract void merge(IncrementalAggregate other);
+
+  /**
+   * Returns the aggregate of the partitions added so far. The scale is the factor by which
+   * counts and sums are scaled up to estimate those of the whole table.
+   */
+  public abstract Object result(double scale);
+
+  static BigDecimal toBigDecimal(Object value) {
+    if (value instanceof BigDecimal) {
+      return (BigDecimal) value;
+    } else if (value instanceof BigInteger) {
+      return new BigDecimal((BigInteger) value);
+    } else if (isInteger(value)) {
+      return BigDecimal.valueOf(((Number) value).longValue());
+    }
+    return BigDecimal.valueOf(((Number) value).doubleValue());
+  }
+
+  static boolean isInteger(Object value) {
+    return value instanceof Long || value instanceof Integer
+        || value instanceof Short || value instanceof Byte;
+  }
+
+  static final class Count extends IncrementalAggregate {
+    private final String arg;
+    private long count;
+
+    Count(String name, String arg) {
+      super(name);
+      this.arg = arg;
+    }
+
+    @Override
+    public List<String> getPartialColumns() {
+      return List.of("count(" + arg + ")");
+    }
+
+    @Override
+    public void add(Object[] row, int offset) {
+      Object value = row[offset];
+      if (value != null) {
+        count += ((Number) value).longValue();
+      }
+    }
+
+    @Override
+    public void merge(IncrementalAggregate other) {
+      count += ((Count) other).count;
+    }
+
+    @Override
+    public Object result(double scale) {
+      return scale == 1 ? count : Math.round(count * scale);
+    }
+  }
+
+  /**
+   * Sum of numbers of one type: long, double or BigDecimal. A long sum which overflows
+   * becomes a BigDecimal.
+   */
+  static final class SumState {
+    private boolean empty = true;
+    private long longSum;
+    private double doubleSum;
+    private BigDecimal decimalSum;
+    private boolean isDouble;
+
+    void add(Object value) {
+      if (value == null) {
+        return;
+      }
+      empty = false;
+      if (value instanceof Double || value instanceof Float) {
+        isDouble = true;
+        doubleSum += ((Number) value).doubleValue();
+      } else if (isInteger(value) && decimalSum == null) {
+        long v = ((Number) value).longValue();
+        long sum = longSum + v;
+        if (((longSum ^ sum) & (v ^ sum)) < 0) {
+          decimalSum = BigDecimal.valueOf(longSum).add(BigDecimal.valueOf(v));
+          longSum = 0;
+        } else {
+          longSum = sum;
+        }
+      } else {
+        BigDecimal v = toBigDecimal(value);
+        if (decimalSum == null) {
+          decimalSum = BigDecimal.valueOf(longSum);
+          longSum = 0;
+        }
+        decimalSum = decimalSum.add(v);
+      }
+    }
+
+    void merge(SumState other) {
+      if (other.empty) {
+        return;
+      }
+      if (other.isDouble) {
+        add(other.doubleSum);
+      }
+      add(other.decimalSum != null ? other.decimalSum : other.longSum);
+    }
+
+    boolean isEmpty() {
+      return empty;
+    }
+
+    double doubleValue() {
+      if (isDouble) {
+        return doubleSum + (decimalSum != null ? decimalSum.doubleValue() : longSum);
+      }
+      return decimalSum != null ? decimalSum.doubleValue() : longSum;
+    }
+
+    /**
+     * Returns the sum as a Long, Double or BigDecimal, or null if no value was added.
+     */
+    Object value(double scale) {
+      if (empty) {
+        return null;
+      } else if (isDouble) {
+        return doubleValue() * scale;
+      } else if (decimalSum != null) {
+        return scale == 1 ? decimalSum : decimalSum.multiply(BigDecimal.valueOf(scale));
+      }
+      return scale == 1 ? longSum : Math.round(longSum * scale);
+    }
+
+    BigDecimal decimalValue() {
+      return decimalSum != null ? decimalSum : BigDecimal.valueOf(longSum);
+    }
+
+    boolean isDecimal() {
+      return !isDouble && decimalSum != null;
+    }
+  }
+
+  static final class Sum extends IncrementalAggregate {
+    private final String arg;
+    private final SumState sum = new SumState();
+
+    Sum(String name, String arg) {
+      super(name);
+      this.arg = arg;
+    }
+
+    @Override
+    public List<String> getPartialColumns() {
+      return List.of("sum(" + arg + ")");
+    }
+
+    @Override
+    public void add(Object[] row, int offset) {
+      sum.add(row[offset]);
+    }
+
+    @Override
+    public void merge(IncrementalAggregate other) {
+      sum.merge(((Sum) other).sum);
+    }
+
+    @Override
+    public Object result(double scale) {
+      return sum.value(scale);
+    }
+  }
+
+  static final class Avg extends IncrementalAggregate {
+    private final String arg;
+    private final SumState sum = new SumState();
+    private long count;
+
+    Avg(String name, String arg) {
+      super(name);
+      this.arg = arg;
+    }
+
+    @Override
+    public List<String> getPartialColumns() {
+      return List.of("sum(" + arg + ")", "count(" + arg + ")");
+    }
+
+    @Override
+    public void add(Object[] row, int offset) {
+      sum.add(row[offset]);
+      Object value = row[offset + 1];
+      if (value != null) {
+        count += ((Number) value).longValue();
+      }
+    }
+
+    @Override
+    public void merge(IncrementalAggregate other) {
+      sum.merge(((Avg) other).sum);
+      count += ((Avg) other).count;
+    }
+
+    @Override
+    public Object result(double scale) {
+      // the scale applies to both the sum and the count
+      if (count == 0) {
+        return null;
+      } else if (sum.isDecimal()) {
+        return sum.decimalValue().divide(BigDecimal.valueOf(count), MathContext.DECIMAL64);
+      }
+      return sum.doubleValue() / count;
+    }
+  }
+
+  static final class MinMax extends IncrementalAggregate {
+    private final String arg;
+    private final boolean isMin;
+    private Object value;
+
+    MinMax(String name, String arg, boolean isMin) {
+      super(name);
+      this.arg = arg;
+      this.isMin = isMin;
+    }
+
+    @Override
+    public List<String> getPartialColumns() {
+      return List.of(getName().toLowerCase(Locale.ROOT) + "(" + arg + ")");
+    }
+
+    @Override
+    public void add(Object[] row, int offset) {
+      Object v = row[offset];
+      if (v == null) {
+        return;
+      }
+      if (value == null) {
+        value = v;
+      } else {
+        int cmp = compare(v, value);
+        if (isMin ? cmp < 0 : cmp > 0) {
+          value = v;
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+      if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+        return toBigDecimal(a).compareTo(toBigDecimal(b));
+      }
+      return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    @Override
+    public void merge(IncrementalAggregate other) {
+      add(new Object[] {((MinMax) other).value}, 0);
+    }
+
+    @Override
+    public Object result(double scale) {
+      return value;
+    }
+  }
+
+  /**
+   * Count, mean and sum of squared deviations from the mean, merged with the formulas of Chan
+   * et al.
+   */
+  static final class Moments {
+    long count;
+    double mean;
+    double m2;
+
+    void merge(long n, double mean, double m2) {
+      if (n == 0) {
+        return;
+      }
+      long total = count + n;
+      double delta = mean - this.mean;
+      this.m2 += m2 + delta * delta * count * n / total;
+      this.mean += delta * n / total;
+      this.count = total;
+    }
+  }
+
+  static final class Variance extends IncrementalAggregate {
+    private final String arg;
+    private final Moments moments = new Moments();
+
+    Variance(String name, String arg) {
+      super(name);
+      this.arg = arg;
+    }
+
+    @Override
+    public List<String> getPartialColumns() {
+      return List.of("count(" + arg + ")", "avg(" + arg + ")", "var_pop(" + arg + ")");
+    }
+
+    @Override
+    public void add(Object[] row, int offset) {
+      long n = row[offset] == null ? 0 : ((Number) row[offset]).longValue();
+      if (n > 0) {
+        moments.merge(n, ((Number) row[offset + 1]).doubleValue(),
+            ((Number) row[offset + 2]).doubleValue() * n);
+      }
+    }
+
+    @Override
+    public void merge(IncrementalAggregate other) {
+      Moments o = ((Variance) other).moments;
+      moments.merge(o.count, o.mean, o.m2);
+    }
+
+    @Override
+    public Object result(double scale) {
+      boolean sample = !getName().endsWith("_POP");
+      long n = moments.count;
+      if (sample ? n < 2 : n < 1) {
+        return null;
+      }
+      double variance = moments.m2 / (sample ? n - 1 : n);
+      return getName().startsWith("STDDEV") ? Math.sqrt(variance) : variance;
+    }
+  }
+
+  static final class Corr extends IncrementalAggregate {
+    private final String x;
+    private final String y;
+    private long count;
+    private double meanX;
+    private double meanY;
+    private double m2x;
+    private double m2y;
+    private double cxy;
+
+    Corr(String name, String x, String y) {
+      super(name);
+      this.x = x;
+      this.y = y;
+    }
+
+    // the expression over the rows where both arguments are not null
+    private String pair(String expr) {
+      return "case when " + x + " is not null and " + y + " is not null then " + expr + " end";
+    }
+
+    @Override
+    public List<String> getPartialColumns() {
+      // multiplied by 1.0 first, so that sums of integers do not overflow in the source
+      return Arrays.asList(
+          "count(" + pair("1") + ")",
+          "avg(" + pair(x) + ")",
+          "avg(" + pair(y) + ")",
+          "var_pop(" + pair(x) + ")",
+          "var_pop(" + pair(y) + ")",
+          "var_pop(" + pair("(" + x + ") * 1.0 + (" + y + ")") + ")");
+    }
+
+    @Override
+    public void add(Object[] row, int offset) {
+      long n = row[offset] == null ? 0 : ((Number) row[offset]).longValue();
+      if (n == 0) {
+        return;
+      }
+      double varX = ((Number) row[offset + 3]).doubleValue();
+      double varY = ((Number) row[offset + 4]).doubleValue();
+      double varXPlusY = ((Number) row[offset + 5]).doubleValue();
+      // var(x + y) = var(x) + var(y) + 2 cov(x, y)
+      double covar = (varXPlusY - varX - varY) / 2;
+      merge(n, ((Number) row[offset + 1]).doubleValue(), ((Number) row[offset + 2]).doubleValue(),
+          varX * n, varY * n, covar * n);
+    }
+
+    private void merge(long n, double meanX, double meanY, double m2x, double m2y,
+                       double cxy) {
+      long total = count + n;
+      double dx = meanX - this.meanX;
+      double dy = meanY - this.meanY;
+      double f = (double) count * n / total;
+      this.m2x += m2x + dx * dx * f;
+      this.m2y += m2y + dy * dy * f;
+      this.cxy += cxy + dx * dy * f;
+      this.meanX += dx * n / total;
+      this.meanY += dy * n / total;
+      this.count = total;
+    }
+
+    @Override
+    public void merge(IncrementalAggregate other) {
+      Corr o = (Corr) other;
+      if (o.count > 0) {
+        merge(o.count, o.meanX, o.meanY, o.m2x, o.m2y, o.cxy);
+      }
+    }
+
+    @Override
+    public Object result(double scale) {
+      double denominator = Math.sqrt(m2x * m2y);
+      if (count < 2 || denominator == 0) {
+        return null;
+      }
+      return cxy / denominator;
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.task;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.apache.calcite.jdbc.CalcitePrepare.Context;
+import traindb.engine.TrainDBListResultSet;
+
+/**
+ * Progress of an incremental query: the queries over the partitions of the table, how many of
+ * them have been read, and the aggregates accumulated from the partitions read so far.
+ *
+ * <p>A cursor is owned by the connection which runs the incremental query, so incremental
+ * queries of different sessions do not share any state. A new incremental query replaces the
+ * cursor of its connection, and the partition scans of the previous one which have not
+ * finished are cancelled.
+ *
+ * <p>The partitions of a parallel query are scanned in the background in partition order, with
+ * at most a given number of scans running at a time, and at most a given number of scans
+ * ahead of the results taken by the client. So a table with many partitions takes no more
+ * threads and source DBMS connections than a table with a few, and the results held in memory
+ * are bounded too.
+ */
+public final class IncrementalCursor implements AutoCloseable {
+  private final List<String> partitionQueries;
+  private final List<IncrementalAggregate> aggregates;
+  private final List<String> header;
+  private final boolean approximate;
+  private final boolean parallel;
+
+  // scans of the partitions submitted but not taken yet, in partition order, guarded by this
+  private final Deque<Scan> scans = new ArrayDeque<>();
+  private Executor executor;
+  private Context context;
+  private int parallelism;
+  private int lookahead;
+  private int nextScan;
+  private int running;
+  private int readCount;
+  private boolean closed;
+
+  public IncrementalCursor(List<String> partitionQueries, List<IncrementalAggregate> aggregates,
+                           boolean approximate, boolean parallel) {
+    this.partitionQueries = Collections.unmodifiableList(new ArrayList<>(partitionQueries));
+    this.aggregates = Collections.unmodifiableList(new ArrayList<>(aggregates));
+    this.header = new ArrayList<>(aggregates.size());
+    for (IncrementalAggregate aggregate : aggregates) {
+      header.add(aggregate.getName());
+    }
+    this.approximate = approximate;
+    this.parallel = parallel;
+  }
+
+  public List<String> getPartitionQueries() {
+    return partitionQueries;
+  }
+
+  public List<IncrementalAggregate> getAggregates() {
+    return aggregates;
+  }
+
+  public List<String> getHeader() {
+    return Collections.unmodifiableList(header);
+  }
+
+  public boolean isApproximate() {
+    return approximate;
+  }
+
+  public boolean isParallel() {
+    return parallel;
+  }
+
+  public int getPartitionCount() {
+    return partitionQueries.size();
+  }
+
+  /**
+   * Returns the number of partitions whose results have been added.
+   */
+  public int getReadCount() {
+    return readCount;
+  }
+
+  public boolean hasNext() {
+    return !closed && readCount < partitionQueries.size();
+  }
+
+  /**
+   * Returns the query over the next partition to read.
+   */
+  public String nextQuery() {
+    return partitionQueries.get(readCount);
+  }
+
+  /**
+   * Returns the factor by which the aggregates of the partitions read so far are scaled up to
+   * estimate those of the whole table, which is 1 unless the query is approximate.
+   */
+  public double getApproximateScale() {
+    if (!approximate || readCount == 0) {
+      return 1;
+    }
+    return (double) partitionQueries.size() / readCount;
+  }
+
+  /**
+   * Adds the partial aggregates of the next partition, read from the result set.
+   */
+  public void addResult(ResultSet rs) throws SQLException {
+    addResult(TrainDBListResultSet.builder(rs.getMetaData()).addRows(rs).build());
+  }
+
+  /**
+   * Adds the partial aggregates of the next partition, or counts the partition as read if it
+   * has none.
+   */
+  public void addResult(TrainDBListResultSet result) {
+    if (result != null) {
+      Object[] row = new Object[result.getColumnCount()];
+      result.rewind();
+      while (result.next()) {
+        for (int j = 0; j < row.length; j++) {
+          row[j] = result.getValue(j);
+        }
+        int offset = 0;
+        for (IncrementalAggregate aggregate : aggregates) {
+          aggregate.add(row, offset);
+          offset += aggregate.getPartialColumns().size();
+        }
+      }
+    }
+    readCount++;
+  }
+
+  /**
+   * Returns the aggregates of the partitions read so far, scaled up to the whole table if the
+   * query is approximate.
+   */
+  public List<Object> result() {
+    double scale = getApproximateScale();
+    List<Object> row = new ArrayList<>(aggregates.size());
+    for (IncrementalAggregate aggregate : aggregates) {
+      row.add(aggregate.result(scale));
+    }
+    return row;
+  }
+
+  /**
+   * Starts scanning the partitions after those read so far on the executor, with at most
+   * parallelism scans running at a time, and at most lookahead scans whose results have not
+   * been taken yet.
+   */
+  public synchronized void startScans(Executor executor, Context context, int parallelism,
+                                      int lookahead) {
+    this.executor = executor;
+    this.context = context;
+    this.parallelism = Math.max(1, parallelism);
+    this.lookahead = Math.max(this.parallelism, lookahead);
+    this.nextScan = readCount;
+    submitScans();
+  }
+
+  private void submitScans() {
+    while (!closed && executor != null && nextScan < partitionQueries.size()
+        && running < parallelism && scans.size() < lookahead) {
+      Scan scan = new Scan(new IncrementalScanTask(context, partitionQueries.get(nextScan++)));
+      scans.addLast(scan);
+      running++;
+      executor.execute(scan);
+    }
+  }
+
+  /**
+   * Returns the scan of the next partition, or null if there is none.
+   */
+  public synchronized Future<TrainDBListResultSet> pollScan() {
+    Scan scan = scans.pollFirst();
+    submitScans();
+    return scan;
+  }
+
+  /**
+   * Cancels the scans which have not finished.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    for (Scan scan : scans) {
+      scan.cancel(false);
+    }
+    scans.clear();
+  }
+
+  /**
+   * Scan of a partition, which makes room for the next scan when it is done or cancelled.
+   */
+  private final class Scan extends FutureTask<TrainDBListResultSet> {
+    private final IncrementalScanTask task;
+
+    Scan(IncrementalScanTask task) {
+      super(task);
+      this.task = task;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        task.cancel();
+      }
+      return cancelled;
+    }
+
+    @Override
+    protected void done() {
+      synchronized (IncrementalCursor.this) {
+        running--;
+        submitScans();
+      }
+    }
+  }
+}
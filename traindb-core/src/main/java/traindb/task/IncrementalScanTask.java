@@ -1,90 +1,68 @@
 package traindb.task;
 
-import static org.apache.calcite.sql.type.SqlTypeName.DECIMAL;
-
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.Callable;
 import org.apache.calcite.jdbc.CalcitePrepare.Context;
-import org.apache.calcite.sql.SqlAggFunction;
-import org.apache.calcite.sql.type.SqlTypeName;
 import traindb.adapter.jdbc.JdbcUtils;
+import traindb.engine.TrainDBListResultSet;
 import traindb.jdbc.TrainDBConnectionImpl;
-import traindb.sql.TrainDBIncrementalQuery;
-import traindb.sql.TrainDBSqlCommand;
 
-public class IncrementalScanTask implements Callable<List<List<Object>>> {
+/**
+ * Reads the partial aggregates of a partition of an incremental query.
+ */
+public class IncrementalScanTask implements Callable<TrainDBListResultSet> {
 
   Context context;
-  TrainDBSqlCommand commands;
-  int queryIdx;
+  String query;
+  private volatile Statement stmt;
+  private volatile boolean cancelled;
 
-  public IncrementalScanTask(Context context, TrainDBSqlCommand commands, int queryIdx) {
+  public IncrementalScanTask(Context context, String query) {
     this.context = context;
-    this.commands = commands;
-    this.queryIdx = queryIdx;
+    this.query = query;
   }
 
   @Override
-  public List<List<Object>> call() {
-    TrainDBConnectionImpl conn = 
-                (TrainDBConnectionImpl) context.getDataContext().getQueryProvider();
-
-    TaskCoordinator taskCoordinator = conn.getTaskCoordinator();
-
-    TrainDBIncrementalQuery incrementalQuery = (TrainDBIncrementalQuery) commands;
-    String sql = incrementalQuery.getStatement();
-
-    List<List<Object>> totalRes = new ArrayList<>();
-    List<String> header = new ArrayList<>();
-
-    if (queryIdx <= 0) {
-      throw new RuntimeException(
-          "failed to run statement: " + sql
-              + "\nerror msg: incremental query can be executed on partitioned table only.");
-    }
-
-    if (taskCoordinator.saveQuery.size() <= queryIdx) {
-      return null;
-    }
+  public TrainDBListResultSet call() {
+    TrainDBConnectionImpl conn =
+        (TrainDBConnectionImpl) context.getDataContext().getQueryProvider();
 
+    Connection extConn = null;
+    Statement stmt = null;
+    ResultSet rs = null;
     try {
-      String currentIncrementalQuery = taskCoordinator.saveQuery.get(queryIdx);
-      Connection extConn = conn.getDataSourceConnection();
-      Statement stmt = extConn.createStatement();
-      ResultSet rs = stmt.executeQuery(currentIncrementalQuery);
-
-      int columnCount = rs.getMetaData().getColumnCount();
-      ResultSetMetaData md = rs.getMetaData();
-
-      while (rs.next()) {
-        List<Object> r = new ArrayList<>();
-        for (int j = 1; j <= columnCount; j++) {
-          int type = md.getColumnType(j);
-          SqlTypeName sqlTypeName = SqlTypeName.getNameForJdbcType(type);
-          if (sqlTypeName == DECIMAL) {
-            r.add(rs.getInt(j));
-          } else {
-            r.add(rs.getObject(j));
-          }
-        }
-        totalRes.add(r);
-      }
-
-      for (int j = 0; j < taskCoordinator.aggCalls.size(); j++) {
-        SqlAggFunction agg = taskCoordinator.aggCalls.get(j);
-        header.add(agg.getName());
+      extConn = conn.getDataSourceConnection();
+      stmt = JdbcUtils.createStreamingStatement(extConn, conn.cfg.getDataSourceFetchSize());
+      this.stmt = stmt;
+      if (cancelled) {
+        return null;
       }
-      JdbcUtils.close(extConn, stmt, rs);
+      rs = stmt.executeQuery(query);
+      return TrainDBListResultSet.builder(rs.getMetaData()).addRows(rs).build();
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      this.stmt = null;
+      JdbcUtils.close(extConn, stmt, rs);
     }
+  }
 
-    return totalRes;
+  /**
+   * Cancels the query of the task in the source DBMS if it is running, or else keeps it from
+   * starting, so that its connection is given back to the pool early.
+   */
+  public void cancel() {
+    cancelled = true;
+    Statement s = stmt;
+    if (s != null) {
+      try {
+        s.cancel();
+      } catch (SQLException e) {
+        // the query fails or finishes anyway
+      }
+    }
   }
-}
\ No newline at end of file
+}
@@ -14,79 +14,66 @@
 
 package traindb.task;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Future;
-import org.apache.calcite.sql.SqlAggFunction;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.service.AbstractService;
+import traindb.common.TrainDBConfiguration;
 import traindb.common.TrainDBLogger;
-import traindb.engine.TrainDBListResultSet;
+import traindb.util.ThreadUtils;
 
 
 public final class TaskCoordinator extends AbstractService {
   private static TrainDBLogger LOG = TrainDBLogger.getLogger(TaskCoordinator.class);
   private static TaskCoordinator singletonInstance;
+  private static final long EXECUTOR_SHUTDOWN_TIMEOUT_DEFAULT = 5;
 
-  // for incremental query
-  public List<String> saveQuery;
-  public int saveQueryIdx;
-  public List<List<Object>> totalRes;
-  public List<String> header;
-  public List<SqlAggFunction> aggCalls;
+  // runs blocking calls to the source DBMS, such as table scans
+  private ExecutorService sourceExecutor;
+  // runs CPU-bound parts of queries executed in the JVM, such as hash join partitions
+  private ExecutorService computeExecutor;
 
-  // for incremental approximate query
-  private boolean isApproximate;
-  public int totalPartitionCnt;
-
-  // for parallel incremental query
-  private boolean isParallel;
-  private List<Future<List<List<Object>>>> incrementalFutures;
-  private List<Future<TrainDBListResultSet>> tableScanFutures;
-
-  public void setApproximate(boolean p) {
-    isApproximate = p;
-  }
-
-  public boolean isApproximate() {
-    return isApproximate;
-  }
-
-  public void setParallel(boolean p) {
-    isParallel = p;
-  }
-
-  public boolean isParallel() {
-    return isParallel;
-  }
-
-  public List<Future<List<List<Object>>>> getIncrementalFutures() {
-    return incrementalFutures;
-  }
-
-  public void setIncrementalFutures(List<Future<List<List<Object>>>> futures) {
-    this.incrementalFutures = futures;
+  private TaskCoordinator() {
+    super(TaskCoordinator.class.getName());
   }
 
-  public List<Future<TrainDBListResultSet>> getTableScanFutures() {
-    if (tableScanFutures == null) {
-      tableScanFutures = new ArrayList<>();
+  /**
+   * Returns the executor shared by all queries to run blocking source DBMS calls, such as
+   * table scans, with traindb.server.scan-threads threads. If traindb.server.virtual-threads
+   * is set, each task runs on its own virtual thread instead.
+   */
+  public synchronized ExecutorService getSourceExecutor() {
+    if (sourceExecutor == null) {
+      Configuration conf = getConfig();
+      if (conf != null && conf.getBoolean(
+          TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "virtual-threads", false)) {
+        sourceExecutor = ThreadUtils.newVirtualThreadPerTaskExecutor("SourceTask-");
+      }
+      if (sourceExecutor == null) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (conf != null) {
+          threads = Math.max(1,
+              conf.getInt(TrainDBConfiguration.SERVER_PROPERTY_PREFIX + "scan-threads", threads));
+        }
+        sourceExecutor = Executors.newFixedThreadPool(threads,
+            ThreadUtils.newDaemonThreadFactory("SourceTask-"));
+      }
     }
-    return tableScanFutures;
+    return sourceExecutor;
   }
 
-  public void setTableScanFutures(List<Future<TrainDBListResultSet>> futures) {
-    this.tableScanFutures = futures;
-  }
-
-  private TaskCoordinator() {
-    super(TaskCoordinator.class.getName());
-
-    saveQuery = new ArrayList<>();
-    totalRes = new ArrayList<>();
-    header = new ArrayList<>();
-    aggCalls = new ArrayList<>();
-
-    isParallel = false;
+  /**
+   * Returns the executor shared by all queries to run CPU-bound tasks, with a thread for each
+   * processor. Its tasks must not block on source DBMS calls.
+   */
+  public synchronized ExecutorService getComputeExecutor() {
+    if (computeExecutor == null) {
+      computeExecutor = Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(),
+          ThreadUtils.newDaemonThreadFactory("ComputeTask-"));
+    }
+    return computeExecutor;
   }
 
   @Override
@@ -97,6 +84,18 @@ public final class TaskCoordinator extends AbstractService {
   @Override
   protected void serviceStop() throws Exception {
     LOG.info("stop service - " + getName());
+    synchronized (this) {
+      if (sourceExecutor != null) {
+        sourceExecutor.shutdownNow();
+        sourceExecutor.awaitTermination(EXECUTOR_SHUTDOWN_TIMEOUT_DEFAULT, TimeUnit.SECONDS);
+        sourceExecutor = null;
+      }
+      if (computeExecutor != null) {
+        computeExecutor.shutdownNow();
+        computeExecutor.awaitTermination(EXECUTOR_SHUTDOWN_TIMEOUT_DEFAULT, TimeUnit.SECONDS);
+        computeExecutor = null;
+      }
+    }
     singletonInstance = null;
     super.serviceStop();
   }
@@ -0,0 +1,368 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import traindb.adapter.jdbc.JdbcHashJoin.BuildSide;
+import traindb.adapter.jdbc.JdbcHashJoin.HashJoinCursor;
+import traindb.adapter.jdbc.JdbcHashJoin.KeyKind;
+
+public class JdbcHashJoinTest {
+  private static final List<String> COLUMNS = List.of("k1", "k2", "v");
+  private static final JoinRelType[] JOIN_TYPES = {
+      JoinRelType.INNER, JoinRelType.LEFT, JoinRelType.RIGHT, JoinRelType.FULL};
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @TempDir
+  Path spillDirectory;
+
+  @AfterEach
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Cursor over rows held in a list.
+   */
+  private static final class ListCursor implements JdbcRowCursor {
+    private final List<Object[]> rows;
+    private int pos = -1;
+    boolean closed;
+
+    ListCursor(List<Object[]> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public List<String> getColumnNames() {
+      return COLUMNS;
+    }
+
+    @Override
+    public boolean next() {
+      return ++pos < rows.size();
+    }
+
+    @Override
+    public Object getValue(int index) {
+      return rows.get(pos)[index];
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private static final class Join {
+    KeyKind kind = KeyKind.INT;
+    int[] keys = {0};
+    JoinRelType type = JoinRelType.INNER;
+    boolean buildLeft;
+    long memoryBudget = Long.MAX_VALUE;
+    String spillDirectory;
+    ExecutorService executor;
+
+    // mirrors JdbcHashJoin.open on cursors over the given rows
+    List<String> run(List<Object[]> left, List<Object[]> right) throws SQLException {
+      boolean preserveLeft = type.generatesNullsOnRight();
+      boolean preserveRight = type.generatesNullsOnLeft();
+      int parallelism = executor == null ? 1 : 4;
+      int partitionBits = executor == null ? 0 : 3;
+
+      ListCursor buildCursor = new ListCursor(buildLeft ? left : right);
+      ListCursor probe = new ListCursor(buildLeft ? right : left);
+      BuildSide build = new BuildSide(kind, keys, COLUMNS, partitionBits,
+          buildLeft ? preserveLeft : preserveRight, memoryBudget, spillDirectory);
+      build.load(buildCursor, executor, parallelism);
+      assertTrue(buildCursor.closed);
+      assertEquals(memoryBudget == 0 && !(buildLeft ? left : right).isEmpty(),
+          build.isSpilled());
+
+      List<String> columnNames = new ArrayList<>(COLUMNS);
+      columnNames.addAll(COLUMNS);
+      List<String> rows = new ArrayList<>();
+      try (HashJoinCursor cursor = new HashJoinCursor(columnNames, probe, COLUMNS, keys, kind,
+          build, buildCursor, null, buildLeft, COLUMNS.size(),
+          buildLeft ? preserveRight : preserveLeft, executor, parallelism)) {
+        Object[] row = new Object[columnNames.size()];
+        while (cursor.next()) {
+          for (int i = 0; i < row.length; i++) {
+            row[i] = cursor.getValue(i);
+          }
+          rows.add(Arrays.toString(row));
+        }
+      }
+      assertTrue(probe.closed);
+      Collections.sort(rows);
+      return rows;
+    }
+  }
+
+  private static Object[] row(Object... values) {
+    return values;
+  }
+
+  private static List<Object[]> rows(Object[]... rows) {
+    return Arrays.asList(rows);
+  }
+
+  private static List<String> expected(String... rows) {
+    List<String> list = new ArrayList<>(Arrays.asList(rows));
+    Collections.sort(list);
+    return list;
+  }
+
+  // the rows of the join computed with nested loops
+  private static List<String> nestedLoopJoin(List<Object[]> left, List<Object[]> right,
+                                             int[] keys, JoinRelType type) {
+    List<String> rows = new ArrayList<>();
+    boolean[] rightMatched = new boolean[right.size()];
+    Object[] nulls = new Object[COLUMNS.size()];
+    for (Object[] l : left) {
+      boolean matched = false;
+      for (int j = 0; j < right.size(); j++) {
+        Object[] r = right.get(j);
+        boolean equal = true;
+        for (int key : keys) {
+          equal &= l[key] != null && Objects.equals(l[key], r[key]);
+        }
+        if (equal) {
+          rows.add(Arrays.toString(concat(l, r)));
+          matched = true;
+          rightMatched[j] = true;
+        }
+      }
+      if (!matched && type.generatesNullsOnRight()) {
+        rows.add(Arrays.toString(concat(l, nulls)));
+      }
+    }
+    if (type.generatesNullsOnLeft()) {
+      for (int j = 0; j < right.size(); j++) {
+        if (!rightMatched[j]) {
+          rows.add(Arrays.toString(concat(nulls, right.get(j))));
+        }
+      }
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private static Object[] concat(Object[] a, Object[] b) {
+    Object[] row = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, row, a.length, b.length);
+    return row;
+  }
+
+  // rows with many duplicate keys on both sides and some null keys
+  private static List<Object[]> randomRows(Random random, KeyKind kind, int count,
+                                           int distinctKeys, String prefix) {
+    List<Object[]> rows = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Object key = null;
+      if (random.nextInt(10) != 0) {
+        int k = random.nextInt(distinctKeys);
+        switch (kind) {
+          case INT:
+            // negative keys too, which hash differently from their long values
+            key = k - distinctKeys / 2;
+            break;
+          case LONG:
+            key = (k - distinctKeys / 2) * (1L << 33) + 1;
+            break;
+          default:
+            key = "key" + k;
+            break;
+        }
+      }
+      Object key2 = random.nextInt(10) == 0 ? null : random.nextInt(3);
+      rows.add(row(key, key2, prefix + i));
+    }
+    return rows;
+  }
+
+  private void assertJoinsMatchNestedLoops(long memoryBudget, String spillDirectory,
+                                           ExecutorService executor) throws SQLException {
+    Random random = new Random(42);
+    for (KeyKind kind : KeyKind.values()) {
+      // the probe side spans more than one batch of probe rows
+      List<Object[]> left = randomRows(random, kind, 5000, 400, "l");
+      List<Object[]> right = randomRows(random, kind, 700, 400, "r");
+      int[][] keysList = kind == KeyKind.OBJECT ? new int[][] {{0}, {0, 1}} : new int[][] {{0}};
+      for (int[] keys : keysList) {
+        for (JoinRelType type : JOIN_TYPES) {
+          List<String> expected = nestedLoopJoin(left, right, keys, type);
+          for (boolean buildLeft : new boolean[] {false, true}) {
+            Join join = new Join();
+            join.kind = kind;
+            join.keys = keys;
+            join.type = type;
+            join.buildLeft = buildLeft;
+            join.memoryBudget = memoryBudget;
+            join.spillDirectory = spillDirectory;
+            join.executor = executor;
+            assertEquals(expected, join.run(left, right),
+                kind + " " + Arrays.toString(keys) + " " + type + " join, build on the "
+                    + (buildLeft ? "left" : "right"));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void duplicateKeysOnBothSides() throws SQLException {
+    List<Object[]> left = rows(row(1, null, "a"), row(1, null, "b"), row(2, null, "c"));
+    List<Object[]> right = rows(row(1, null, "x"), row(1, null, "y"), row(3, null, "z"));
+    Join join = new Join();
+    assertEquals(expected(
+        "[1, null, a, 1, null, x]", "[1, null, a, 1, null, y]",
+        "[1, null, b, 1, null, x]", "[1, null, b, 1, null, y]"),
+        join.run(left, right));
+  }
+
+  @Test
+  void nullKeysMatchNothing() throws SQLException {
+    List<Object[]> left = rows(row(null, null, "a"), row(1, null, "b"));
+    List<Object[]> right = rows(row(null, null, "x"), row(1, null, "y"));
+    Join join = new Join();
+    assertEquals(expected("[1, null, b, 1, null, y]"), join.run(left, right));
+
+    // an outer join returns the rows with null keys unmatched, on either side of the build
+    join.type = JoinRelType.FULL;
+    for (boolean buildLeft : new boolean[] {false, true}) {
+      join.buildLeft = buildLeft;
+      assertEquals(expected("[1, null, b, 1, null, y]",
+          "[null, null, a, null, null, null]", "[null, null, null, null, null, x]"),
+          join.run(left, right));
+    }
+  }
+
+  @Test
+  void outerJoinsPadUnmatchedRows() throws SQLException {
+    List<Object[]> left = rows(row(1L, null, "a"), row(2L, null, "b"));
+    List<Object[]> right = rows(row(2L, null, "x"), row(3L, null, "y"));
+    Join join = new Join();
+    join.kind = KeyKind.LONG;
+    for (boolean buildLeft : new boolean[] {false, true}) {
+      join.buildLeft = buildLeft;
+      join.type = JoinRelType.LEFT;
+      assertEquals(expected("[1, null, a, null, null, null]", "[2, null, b, 2, null, x]"),
+          join.run(left, right));
+      join.type = JoinRelType.RIGHT;
+      assertEquals(expected("[2, null, b, 2, null, x]", "[null, null, null, 3, null, y]"),
+          join.run(left, right));
+    }
+  }
+
+  @Test
+  void multiColumnKeys() throws SQLException {
+    List<Object[]> left = rows(row("a", 1, "l1"), row("a", 2, "l2"), row("a", null, "l3"));
+    List<Object[]> right = rows(row("a", 1, "r1"), row("a", null, "r2"), row("b", 1, "r3"));
+    Join join = new Join();
+    join.kind = KeyKind.OBJECT;
+    join.keys = new int[] {0, 1};
+    join.type = JoinRelType.LEFT;
+    assertEquals(expected("[a, 1, l1, a, 1, r1]", "[a, 2, l2, null, null, null]",
+        "[a, null, l3, null, null, null]"), join.run(left, right));
+  }
+
+  @Test
+  void numericKeysOfDifferentTypesMatch() throws SQLException {
+    // as an INTEGER or DECIMAL column joined with a BIGINT or DECIMAL of another scale
+    List<Object[]> left = rows(row(new BigDecimal("1.0"), 1, "a"), row(2, 2, "b"),
+        row(new BigDecimal("2.5"), 3, "c"), row(10, (short) 4, "d"));
+    List<Object[]> right = rows(row(new BigDecimal("1.00"), 1L, "x"), row(2L, 2L, "y"),
+        row(new BigDecimal("2.50"), new BigDecimal("3.0"), "z"),
+        row(new BigDecimal("1E+1"), 4.0, "w"));
+    List<String> matched = expected("[1.0, 1, a, 1.00, 1, x]", "[2, 2, b, 2, 2, y]",
+        "[2.5, 3, c, 2.50, 3.0, z]", "[10, 4, d, 1E+1, 4.0, w]");
+    Join join = new Join();
+    join.kind = KeyKind.OBJECT;
+    for (int[] keys : new int[][] {{0}, {0, 1}}) {
+      join.keys = keys;
+      for (long memoryBudget : new long[] {Long.MAX_VALUE, 0}) {
+        join.memoryBudget = memoryBudget;
+        join.spillDirectory = spillDirectory.toString();
+        assertEquals(matched, join.run(left, right));
+      }
+    }
+  }
+
+  @Test
+  void emptyInputs() throws SQLException {
+    List<Object[]> rows = rows(row(1, null, "a"));
+    Join join = new Join();
+    join.type = JoinRelType.FULL;
+    assertEquals(expected("[1, null, a, null, null, null]"), join.run(rows, List.of()));
+    assertEquals(expected("[null, null, null, 1, null, a]"), join.run(List.of(), rows));
+    join.type = JoinRelType.INNER;
+    assertEquals(expected(), join.run(rows, List.of()));
+  }
+
+  @Test
+  void joinsMatchNestedLoops() throws SQLException {
+    assertJoinsMatchNestedLoops(Long.MAX_VALUE, null, null);
+  }
+
+  @Test
+  void parallelJoinsMatchNestedLoops() throws SQLException {
+    assertJoinsMatchNestedLoops(Long.MAX_VALUE, null, executor);
+  }
+
+  @Test
+  void spilledJoinsMatchNestedLoops() throws SQLException, IOException {
+    // the build side spills as soon as it has a row
+    assertJoinsMatchNestedLoops(0, spillDirectory.toString(), null);
+    assertJoinsMatchNestedLoops(0, spillDirectory.toString(), executor);
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      assertEquals(0, files.count(), "spill files are deleted on close");
+    }
+  }
+
+  @Test
+  void spilledOuterJoinWithNullKeys() throws SQLException {
+    List<Object[]> left = rows(row(null, null, "a"), row(7, null, "b"), row(7, null, "c"));
+    List<Object[]> right = rows(row(7, null, "x"), row(null, null, "y"), row(8, null, "z"));
+    Join join = new Join();
+    join.type = JoinRelType.FULL;
+    join.memoryBudget = 0;
+    join.spillDirectory = spillDirectory.toString();
+    assertEquals(expected("[7, null, b, 7, null, x]", "[7, null, c, 7, null, x]",
+        "[null, null, a, null, null, null]", "[null, null, null, null, null, y]",
+        "[null, null, null, 8, null, z]"), join.run(left, right));
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.adapter.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpillFileTest {
+
+  @TempDir
+  Path spillDirectory;
+
+  private long fileCount() throws IOException {
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      return files.count();
+    }
+  }
+
+  @Test
+  void valuesOfEveryTypeRoundTrip() throws SQLException, IOException {
+    Timestamp timestamp = Timestamp.valueOf("2022-03-04 05:06:07.123456789");
+    Object[] values = {
+        null, true, (byte) -7, (short) 300, Integer.MIN_VALUE, Long.MAX_VALUE, 1.5f, -2.25,
+        new BigDecimal("-12345678901234567890.000123"), "caf\u00e9 \ud83d\ude00",
+        new byte[] {0, -1, 127}, Date.valueOf("2022-03-04"), Time.valueOf("05:06:07"),
+        timestamp, UUID.fromString("123e4567-e89b-12d3-a456-426614174000")};
+    List<String> columnNames = Collections.nCopies(values.length, "c");
+
+    try (SpillFile file = SpillFile.create(spillDirectory.toString(), columnNames)) {
+      file.write(values);
+      file.write(new Object[values.length]);
+      assertEquals(2, file.getRowCount());
+
+      JdbcRowCursor cursor = file.read();
+      assertTrue(cursor.next());
+      for (int i = 0; i < values.length; i++) {
+        Object value = cursor.getValue(i);
+        if (values[i] instanceof byte[]) {
+          assertArrayEquals((byte[]) values[i], (byte[]) value);
+        } else {
+          assertEquals(values[i], value, "column " + i);
+        }
+        if (values[i] != null) {
+          assertEquals(values[i].getClass(), value.getClass());
+        }
+      }
+      assertEquals(timestamp.getNanos(), ((Timestamp) cursor.getValue(13)).getNanos());
+
+      assertTrue(cursor.next());
+      for (int i = 0; i < values.length; i++) {
+        assertEquals(null, cursor.getValue(i));
+      }
+      assertFalse(cursor.next());
+      assertEquals(1, fileCount());
+    }
+    assertEquals(0, fileCount());
+  }
+
+  @Test
+  void manyRows() throws SQLException {
+    try (SpillFile file = SpillFile.create(spillDirectory.toString(), List.of("id", "name"))) {
+      for (int i = 0; i < 100_000; i++) {
+        file.write(new Object[] {i, "row" + i});
+      }
+      JdbcRowCursor cursor = file.read();
+      int count = 0;
+      while (cursor.next()) {
+        assertEquals(count, cursor.getValue(0));
+        assertEquals("row" + count, cursor.getValue(1));
+        count++;
+      }
+      assertEquals(100_000, count);
+    }
+  }
+
+  @Test
+  void emptyFile() throws SQLException, IOException {
+    SpillFile file = SpillFile.create(spillDirectory.toString(), List.of("id"));
+    assertFalse(file.read().next());
+    file.close();
+    assertEquals(0, fileCount());
+  }
+
+  @Test
+  void unwrittenFileIsDeletedOnClose() throws SQLException, IOException {
+    SpillFile file = SpillFile.create(spillDirectory.resolve("sub").toString(), List.of("id"));
+    file.write(new Object[] {1});
+    file.close();
+    try (Stream<Path> files = Files.list(spillDirectory.resolve("sub"))) {
+      assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  void valueWhichCannotBeSpilled() throws SQLException {
+    try (SpillFile file = SpillFile.create(spillDirectory.toString(), List.of("v"))) {
+      assertThrows(SQLException.class, () -> file.write(new Object[] {new Object()}));
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class JdbcRowDecoderTest {
+
+  /**
+   * Result set over rows held in a list, which records the getters called on it.
+   */
+  private static final class FakeResultSet {
+    final int[] types;
+    final List<Object[]> rows;
+    final Set<String> getters = new HashSet<>();
+    int pos = -1;
+    boolean wasNull;
+
+    FakeResultSet(int[] types, List<Object[]> rows) {
+      this.types = types;
+      this.rows = rows;
+    }
+
+    ResultSetMetaData metaData() {
+      return (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] {ResultSetMetaData.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getColumnCount":
+                return types.length;
+              case "getColumnType":
+                return types[(Integer) args[0] - 1];
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          });
+    }
+
+    ResultSet resultSet() {
+      return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.equals("next")) {
+              return ++pos < rows.size();
+            } else if (name.equals("wasNull")) {
+              return wasNull;
+            } else if (!name.startsWith("get") || args == null
+                || !(args[0] instanceof Integer)) {
+              throw new UnsupportedOperationException(name);
+            }
+            getters.add(name);
+            Object value = rows.get(pos)[(Integer) args[0] - 1];
+            wasNull = value == null;
+            switch (name) {
+              case "getInt":
+                return value == null ? 0 : ((Number) value).intValue();
+              case "getLong":
+                return value == null ? 0L : ((Number) value).longValue();
+              case "getDouble":
+                return value == null ? 0.0 : ((Number) value).doubleValue();
+              default:
+                return value;
+            }
+          });
+    }
+  }
+
+  private static Object[] row(Object... values) {
+    return values;
+  }
+
+  @Test
+  void columnsAreReadWithTheirOwnGetters() throws Exception {
+    int[] types = {Types.INTEGER, Types.BIGINT, Types.REAL, Types.DOUBLE, Types.DECIMAL,
+        Types.VARCHAR, Types.TIMESTAMP, Types.OTHER};
+    Timestamp timestamp = Timestamp.valueOf("2022-01-02 03:04:05.5");
+    List<Object[]> rows = List.of(
+        row(7, 1L << 40, 1.1f, 0.1, new BigDecimal("12345678901234567890.12"), "abc",
+            timestamp, List.of(1)),
+        row(null, null, null, null, null, null, null, null));
+    FakeResultSet fake = new FakeResultSet(types, rows);
+
+    JdbcRowDecoder decoder = new JdbcRowDecoder(fake.metaData());
+    assertEquals(types.length, decoder.getColumnCount());
+    assertEquals(Types.REAL, decoder.getColumnType(2));
+    JdbcRowDecoder.Batch batch = decoder.newBatch(4);
+    assertEquals(2, decoder.read(fake.resultSet(), batch, 0));
+    assertEquals(Set.of("getInt", "getLong", "getDouble", "getBigDecimal", "getString",
+        "getTimestamp", "getObject"), fake.getters);
+
+    Object[] expected = rows.get(0);
+    for (int j = 0; j < types.length; j++) {
+      assertFalse(batch.isNull(j, 0));
+      assertEquals(expected[j], batch.getValue(j, 0), "column " + j);
+      assertEquals(expected[j].getClass(), batch.getValue(j, 0).getClass(), "column " + j);
+      assertTrue(batch.isNull(j, 1));
+      assertNull(batch.getValue(j, 1));
+    }
+
+    // REAL values are returned as Float and not widened to Double
+    assertEquals(Float.class, batch.getValue(2, 0).getClass());
+    assertEquals(1.1f, (float) batch.getDouble(2, 0));
+    assertEquals(7, batch.getInt(0, 0));
+    assertEquals(1L << 40, batch.getLong(1, 0));
+    assertEquals(0, batch.getInt(0, 1));
+    assertEquals(0, batch.getLong(4, 1));
+    assertEquals(0.0, batch.getDouble(3, 1));
+
+    assertEquals(0, decoder.read(fake.resultSet(), batch, 0));
+    assertEquals(0, batch.size());
+  }
+
+  @Test
+  void nullBitmapsAreResetForEachBatch() throws Exception {
+    // more rows than the batch holds, which spans several bytes of the bitmaps
+    int[] types = {Types.INTEGER, Types.DOUBLE, Types.VARCHAR};
+    List<Object[]> rows = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      rows.add(row(i % 3 == 0 ? null : i, i % 4 == 0 ? null : i * 0.5,
+          i % 5 == 0 ? null : "v" + i));
+    }
+    FakeResultSet fake = new FakeResultSet(types, rows);
+    ResultSet rs = fake.resultSet();
+    JdbcRowDecoder decoder = new JdbcRowDecoder(fake.metaData());
+    JdbcRowDecoder.Batch batch = decoder.newBatch(20);
+
+    int first = 0;
+    int n;
+    while ((n = decoder.read(rs, batch, 0)) > 0) {
+      assertEquals(Math.min(20, rows.size() - first), n);
+      for (int r = 0; r < n; r++) {
+        int i = first + r;
+        assertEquals(i % 3 == 0, batch.isNull(0, r), "row " + i);
+        assertEquals(i % 4 == 0, batch.isNull(1, r), "row " + i);
+        assertEquals(i % 5 == 0, batch.isNull(2, r), "row " + i);
+        assertEquals(i % 3 == 0 ? null : i, batch.getValue(0, r));
+        assertEquals(i % 4 == 0 ? null : i * 0.5, batch.getValue(1, r));
+        assertEquals(i % 5 == 0 ? null : "v" + i, batch.getValue(2, r));
+      }
+      first += n;
+    }
+    assertEquals(rows.size(), first);
+  }
+
+  @Test
+  void readStopsAtMaxRows() throws Exception {
+    int[] types = {Types.BIGINT};
+    List<Object[]> rows = new ArrayList<>();
+    for (long i = 0; i < 10; i++) {
+      rows.add(row(i));
+    }
+    FakeResultSet fake = new FakeResultSet(types, rows);
+    ResultSet rs = fake.resultSet();
+    JdbcRowDecoder decoder = new JdbcRowDecoder(fake.metaData());
+    JdbcRowDecoder.Batch batch = decoder.newBatch(8);
+
+    assertEquals(3, decoder.read(rs, batch, 3));
+    assertEquals(2L, batch.getValue(0, 2));
+    // rows after the limit are left in the result set
+    assertEquals(7, decoder.read(rs, batch, 100));
+    assertEquals(3L, batch.getLong(0, 0));
+    assertEquals(0, decoder.read(rs, batch, 100));
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import traindb.common.TrainDBException;
+import traindb.engine.QueryAdmissionController.Lane;
+import traindb.engine.QueryAdmissionController.Ticket;
+
+public class QueryAdmissionControllerTest {
+  private static final String PREFIX = "traindb.server.admission.";
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @AfterEach
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static QueryAdmissionController create(String... properties) {
+    Configuration conf = new Configuration(false);
+    for (int i = 0; i < properties.length; i += 2) {
+      conf.set(PREFIX + properties[i], properties[i + 1]);
+    }
+    QueryAdmissionController controller = new QueryAdmissionController();
+    controller.init(conf);
+    return controller;
+  }
+
+  // waits until the given number of queries are queued
+  private static void awaitWaiting(QueryAdmissionController controller, int count)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (controller.getWaitingQueries() < count) {
+      assertTrue(System.nanoTime() < deadline, "queries were not queued");
+      Thread.sleep(5);
+    }
+  }
+
+  private Future<Ticket> admitLater(QueryAdmissionController controller, String user,
+                                    Lane lane) {
+    return executor.submit(() -> controller.admit(null, user, lane));
+  }
+
+  @Test
+  void lanesAreAdmittedInOrderOfPriority() throws Exception {
+    QueryAdmissionController controller = create("max-queries", "1");
+    Ticket running = controller.admit(null, "u", Lane.NORMAL);
+
+    List<Lane> admitted = Collections.synchronizedList(new ArrayList<>());
+    List<Future<?>> queries = new ArrayList<>();
+    Lane[] arrival = {Lane.HEAVY, Lane.NORMAL, Lane.INTERACTIVE, Lane.NORMAL};
+    for (Lane lane : arrival) {
+      queries.add(executor.submit(() -> {
+        try (Ticket ticket = controller.admit(null, "u", lane)) {
+          admitted.add(lane);
+        }
+        return null;
+      }));
+      // queued one by one, so that the order of arrival is known
+      awaitWaiting(controller, queries.size());
+    }
+    assertEquals(1, controller.getRunningQueries());
+    assertTrue(admitted.isEmpty());
+
+    running.close();
+    for (Future<?> query : queries) {
+      query.get(10, TimeUnit.SECONDS);
+    }
+    assertEquals(List.of(Lane.INTERACTIVE, Lane.NORMAL, Lane.NORMAL, Lane.HEAVY), admitted);
+    assertEquals(0, controller.getRunningQueries());
+    assertEquals(0, controller.getWaitingQueries());
+  }
+
+  @Test
+  void heavyQueriesDoNotTakeAllSlots() throws Exception {
+    QueryAdmissionController controller = create("max-queries", "3", "max-heavy-queries", "1");
+    Ticket heavy = controller.admit(null, "u", Lane.HEAVY);
+
+    Future<Ticket> secondHeavy = admitLater(controller, "u", Lane.HEAVY);
+    awaitWaiting(controller, 1);
+    // a lighter query overtakes the heavy one waiting for its lane
+    try (Ticket normal = controller.admit(null, "u", Lane.NORMAL)) {
+      assertEquals(2, controller.getRunningQueries());
+      assertEquals(1, controller.getWaitingQueries());
+    }
+
+    heavy.close();
+    secondHeavy.get(10, TimeUnit.SECONDS).close();
+    assertEquals(0, controller.getRunningQueries());
+  }
+
+  @Test
+  void queriesOfOneUserAreLimited() throws Exception {
+    QueryAdmissionController controller = create("max-queries", "2",
+        "max-queries-per-user", "1");
+    Ticket first = controller.admit(null, "alice", Lane.INTERACTIVE);
+
+    Future<Ticket> second = admitLater(controller, "alice", Lane.INTERACTIVE);
+    awaitWaiting(controller, 1);
+    // another user is not held up by the query queued before
+    try (Ticket other = controller.admit(null, "bob", Lane.NORMAL)) {
+      assertEquals(2, controller.getRunningQueries());
+    }
+    assertEquals(1, controller.getWaitingQueries());
+
+    first.close();
+    second.get(10, TimeUnit.SECONDS).close();
+    assertEquals(0, controller.getRunningQueries());
+  }
+
+  @Test
+  void waitTimesOut() throws Exception {
+    QueryAdmissionController controller = create("max-queries", "1", "timeout-ms", "100");
+    try (Ticket running = controller.admit(null, "u", Lane.NORMAL)) {
+      long start = System.nanoTime();
+      assertThrows(TrainDBException.class, () -> controller.admit(null, "u", Lane.INTERACTIVE));
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+      assertEquals(0, controller.getWaitingQueries());
+      assertEquals(1, controller.getRunningQueries());
+    }
+
+    // the slot given back is free for the next query
+    try (Ticket next = controller.admit(null, "u", Lane.INTERACTIVE)) {
+      assertEquals(1, controller.getRunningQueries());
+    }
+  }
+
+  @Test
+  void ticketIsGivenBackOnce() throws Exception {
+    QueryAdmissionController controller = create("max-queries", "2");
+    Ticket ticket = controller.admit(null, null, Lane.NORMAL);
+    Ticket other = controller.admit(null, null, Lane.NORMAL);
+    ticket.close();
+    ticket.close();
+    assertEquals(1, controller.getRunningQueries());
+    other.close();
+    assertEquals(0, controller.getRunningQueries());
+  }
+
+  @Test
+  void sessionHoldingAllSlotsIsRefusedAtOnce() throws Exception {
+    QueryAdmissionController controller = create("max-queries", "2");
+    Object session = new Object();
+    // portals of the session, which keep their tickets until they are closed
+    Ticket first = controller.admit(session, "u", Lane.NORMAL);
+    Ticket second = controller.admit(session, "u", Lane.NORMAL);
+
+    // one more query of the same session would wait for itself
+    long start = System.nanoTime();
+    assertThrows(TrainDBException.class, () -> controller.admit(session, "u", Lane.NORMAL));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    assertEquals(0, controller.getWaitingQueries());
+
+    // another session waits for a slot
+    Future<Ticket> other = executor.submit(() -> controller.admit(new Object(), "u",
+        Lane.NORMAL));
+    awaitWaiting(controller, 1);
+    first.close();
+    other.get(10, TimeUnit.SECONDS).close();
+    second.close();
+    assertEquals(0, controller.getRunningQueries());
+  }
+
+  /**
+   * Listener which completes a future, as the event loop resumes a session.
+   */
+  private static final class FutureListener implements QueryAdmissionController.Listener {
+    final CompletableFuture<Ticket> result = new CompletableFuture<>();
+
+    @Override
+    public void admitted(Ticket ticket) {
+      result.complete(ticket);
+    }
+
+    @Override
+    public void failed(TrainDBException e) {
+      result.completeExceptionally(e);
+    }
+  }
+
+  @Test
+  void queuedQueryIsHandedToListener() throws Exception {
+    QueryAdmissionController controller = create("max-queries", "1");
+    FutureListener listener = new FutureListener();
+    Ticket running = controller.admit(new Object(), "u", Lane.NORMAL, listener);
+    assertNotNull(running);
+
+    FutureListener queued = new FutureListener();
+    assertNull(controller.admit(new Object(), "u", Lane.NORMAL, queued));
+    assertEquals(1, controller.getWaitingQueries());
+    assertFalse(queued.result.isDone());
+
+    running.close();
+    queued.result.get(10, TimeUnit.SECONDS).close();
+    assertEquals(0, controller.getRunningQueries());
+    assertFalse(listener.result.isDone());
+  }
+
+  @Test
+  void queuedQueryTimesOut() throws Exception {
+    QueryAdmissionController controller = create("max-queries", "1", "timeout-ms", "100");
+    try (Ticket running = controller.admit(null, "u", Lane.NORMAL)) {
+      FutureListener queued = new FutureListener();
+      assertNull(controller.admit(new Object(), "u", Lane.NORMAL, queued));
+      ExecutionException e = assertThrows(ExecutionException.class,
+          () -> queued.result.get(10, TimeUnit.SECONDS));
+      assertTrue(e.getCause() instanceof TrainDBException);
+      assertEquals(0, controller.getWaitingQueries());
+      assertEquals(1, controller.getRunningQueries());
+    }
+    assertEquals(0, controller.getRunningQueries());
+  }
+
+  @Test
+  void classifyQueriesWithoutCommands() {
+    assertEquals(Lane.NORMAL, QueryAdmissionController.classify("SELECT 1", null));
+    assertEquals(Lane.NORMAL, QueryAdmissionController.classify("SELECT 1", List.of()));
+    assertEquals(Lane.INTERACTIVE, QueryAdmissionController.classify(
+        "SELECT /*+ APPROXIMATE */ count(*) FROM t", List.of()));
+  }
+}
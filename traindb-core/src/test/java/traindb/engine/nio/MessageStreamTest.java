@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.engine.nio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MessageStreamTest {
+  private static final List<String> STRINGS = List.of(
+      "",
+      "plain ascii",
+      // two-byte characters
+      "\u00e9t\u00e9 \u00df \u0436",
+      // three-byte characters
+      "\u20ac \u4e2d\u6587 \uffff",
+      // four-byte characters, written as surrogate pairs
+      "\ud83d\ude00 \ud834\udd1e",
+      // lone surrogates, which are written as '?'
+      "a\ud800b", "\udc00", "x\ud83d",
+      // larger than the initial send buffer
+      "\u20ac".repeat(5000));
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private SocketChannel serverSide;
+  private SocketChannel clientSide;
+
+  @BeforeEach
+  void connect() throws IOException {
+    try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+      listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      clientSide = SocketChannel.open(listener.getLocalAddress());
+      serverSide = listener.accept();
+    }
+  }
+
+  @AfterEach
+  void close() throws IOException {
+    executor.shutdownNow();
+    serverSide.close();
+    clientSide.close();
+  }
+
+  // writes on another thread, so that a full socket buffer cannot block the test
+  private Future<Void> write(IoTask task) {
+    return executor.submit(() -> {
+      task.run();
+      return null;
+    });
+  }
+
+  @FunctionalInterface
+  private interface IoTask {
+    void run() throws IOException;
+  }
+
+  @Test
+  void utf8StringsRoundTrip() throws Exception {
+    MessageStream out = new MessageStream(serverSide);
+    Future<Void> writer = write(() -> {
+      for (String s : STRINGS) {
+        out.beginMessage('S');
+        out.putLengthPrefixedUtf8(s);
+        out.putInt(s.length());
+        out.endMessage();
+      }
+      out.flush();
+    });
+
+    MessageStream in = new MessageStream(clientSide);
+    for (String s : STRINGS) {
+      Message message = in.getMessage();
+      assertEquals('S', message.getType());
+      byte[] expected = s.getBytes(StandardCharsets.UTF_8);
+      assertEquals(expected.length, message.getInt());
+      assertArrayEquals(expected, message.getBytes(expected.length), s);
+      assertEquals(s.length(), message.getInt());
+    }
+    writer.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void compressedMessagesRoundTrip() throws Exception {
+    // incompressible data large enough to be written as an external segment
+    byte[] large = new byte[300 * 1024];
+    new Random(1).nextBytes(large);
+    MessageStream out = new MessageStream(serverSide);
+    Future<Void> writer = write(() -> {
+      // messages before compression is enabled are sent as they are
+      out.beginMessage('P');
+      out.putInt(1);
+      out.endMessage();
+      out.enableCompression(6);
+      out.beginMessage('A');
+      out.putLengthPrefixedUtf8("first");
+      out.endMessage();
+      out.flush();
+    });
+
+    // read exactly the uncompressed message, which the compressed data follows
+    ByteBuffer plain = ByteBuffer.allocate(9);
+    while (plain.hasRemaining()) {
+      clientSide.read(plain);
+    }
+    plain.flip();
+    assertEquals('P', (char) plain.get());
+    assertEquals(8, plain.getInt());
+    assertEquals(1, plain.getInt());
+    writer.get(10, TimeUnit.SECONDS);
+
+    // each flush ends with a sync flush, so a message can be decoded before the next one
+    Inflating in = new Inflating(clientSide);
+    Message message = in.getMessage();
+    assertEquals('A', message.getType());
+    assertEquals("first", getString(message));
+
+    writer = write(() -> {
+      for (int i = 0; i < 100; i++) {
+        out.beginMessage('R');
+        out.putLengthPrefixedUtf8("row " + i);
+        out.endMessage();
+      }
+      out.beginMessage('L');
+      out.putBytes(large, 0, large.length);
+      out.endMessage();
+      out.beginMessage('Z');
+      out.endMessage();
+      out.flush();
+    });
+    for (int i = 0; i < 100; i++) {
+      message = in.getMessage();
+      assertEquals('R', message.getType());
+      assertEquals("row " + i, getString(message));
+    }
+    message = in.getMessage();
+    assertEquals('L', message.getType());
+    assertArrayEquals(large, message.getBody());
+    message = in.getMessage();
+    assertEquals('Z', message.getType());
+    assertEquals(0, message.getBody().length);
+    writer.get(10, TimeUnit.SECONDS);
+    out.close();
+  }
+
+  private static String getString(Message message) {
+    return new String(message.getBytes(message.getInt()), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads messages from a zlib stream, as a client which negotiated compression does.
+   */
+  private static final class Inflating {
+    private final SocketChannel channel;
+    private final Inflater inflater = new Inflater();
+    private final ByteBuffer compressed = ByteBuffer.allocate(8 * 1024);
+    private ByteBuffer inflated = ByteBuffer.allocate(8 * 1024);
+
+    Inflating(SocketChannel channel) {
+      this.channel = channel;
+      inflated.flip();
+    }
+
+    private int readCompressed() throws IOException {
+      compressed.clear();
+      int n = channel.read(compressed);
+      compressed.flip();
+      return n;
+    }
+
+    // inflates until at least the given number of bytes are available
+    private void ensureInflated(int size) throws IOException {
+      while (inflated.remaining() < size) {
+        if (inflater.needsInput()) {
+          if (readCompressed() < 0) {
+            throw new IOException("unexpected end of stream");
+          }
+          inflater.setInput(compressed);
+        }
+        inflated.compact();
+        if (inflated.remaining() < size) {
+          ByteBuffer larger = ByteBuffer.allocate(inflated.capacity() + size);
+          inflated.flip();
+          larger.put(inflated);
+          inflated = larger;
+        }
+        try {
+          inflater.inflate(inflated);
+        } catch (DataFormatException e) {
+          throw new IOException(e);
+        }
+        inflated.flip();
+      }
+    }
+
+    Message getMessage() throws IOException {
+      ensureInflated(5);
+      char type = (char) inflated.get();
+      int length = inflated.getInt();
+      byte[] body = new byte[length - 4];
+      ensureInflated(body.length);
+      inflated.get(body);
+      return new Message(type, body);
+    }
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package traindb.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class IncrementalAggregateTest {
+
+  private static IncrementalAggregate create(String function, String... args) {
+    return IncrementalAggregate.create(function, List.of(args));
+  }
+
+  // partial aggregates of a partition, as the query over the partition returns them
+  private static Object[] row(Object... values) {
+    return values;
+  }
+
+  private static double mean(double[] values) {
+    double sum = 0;
+    for (double v : values) {
+      sum += v;
+    }
+    return sum / values.length;
+  }
+
+  private static double varPop(double[] values) {
+    double mean = mean(values);
+    double m2 = 0;
+    for (double v : values) {
+      m2 += (v - mean) * (v - mean);
+    }
+    return m2 / values.length;
+  }
+
+  private static double[] range(double[] values, int from, int to) {
+    return Arrays.copyOfRange(values, from, to);
+  }
+
+  private static double[] plus(double[] x, double[] y) {
+    double[] sum = new double[x.length];
+    for (int i = 0; i < x.length; i++) {
+      sum[i] = x[i] + y[i];
+    }
+    return sum;
+  }
+
+  @Test
+  void longSumOverflowsToBigDecimal() {
+    IncrementalAggregate sum = create("sum", "x");
+    sum.add(row(Long.MAX_VALUE), 0);
+    assertEquals(Long.MAX_VALUE, sum.result(1));
+
+    sum.add(row(1L), 0);
+    assertEquals(BigDecimal.valueOf(Long.MAX_VALUE).add(BigDecimal.ONE), sum.result(1));
+
+    // the sum goes on exactly once it is a BigDecimal
+    sum.add(row(-2L), 0);
+    assertEquals(BigDecimal.valueOf(Long.MAX_VALUE).subtract(BigDecimal.ONE), sum.result(1));
+  }
+
+  @Test
+  void mergedLongSumsOverflowToBigDecimal() {
+    IncrementalAggregate a = create("sum", "x");
+    IncrementalAggregate b = create("sum", "x");
+    a.add(row(Long.MAX_VALUE - 1), 0);
+    b.add(row(Long.MAX_VALUE - 1), 0);
+    a.merge(b);
+    assertEquals(BigDecimal.valueOf(Long.MAX_VALUE - 1).multiply(BigDecimal.valueOf(2)),
+        a.result(1));
+  }
+
+  @Test
+  void sumKeepsTheTypeOfThePartialSums() {
+    IncrementalAggregate doubles = create("sum", "x");
+    doubles.add(row(1.5), 0);
+    doubles.add(row(2.25), 0);
+    assertEquals(3.75, doubles.result(1));
+
+    IncrementalAggregate decimals = create("sum", "x");
+    decimals.add(row(new BigDecimal("0.1")), 0);
+    decimals.add(row(new BigDecimal("0.2")), 0);
+    assertEquals(new BigDecimal("0.3"), decimals.result(1));
+  }
+
+  @Test
+  void sumAndCountOfNullPartitions() {
+    IncrementalAggregate sum = create("sum", "x");
+    sum.add(row((Object) null), 0);
+    assertNull(sum.result(1));
+    sum.add(row(5L), 0);
+    sum.add(row((Object) null), 0);
+    assertEquals(5L, sum.result(1));
+
+    IncrementalAggregate count = create("count", "x");
+    count.add(row((Object) null), 0);
+    count.add(row(3L), 0);
+    count.add(row(0L), 0);
+    assertEquals(3L, count.result(1));
+  }
+
+  @Test
+  void countAndSumAreScaledForApproximateQueries() {
+    IncrementalAggregate count = create("count", "x");
+    count.add(row(10L), 0);
+    assertEquals(40L, count.result(4));
+
+    IncrementalAggregate sum = create("sum", "x");
+    sum.add(row(7L), 0);
+    assertEquals(28L, sum.result(4));
+  }
+
+  @Test
+  void avgAcrossPartitions() {
+    IncrementalAggregate avg = create("avg", "x");
+    assertEquals(List.of("sum(x)", "count(x)"), avg.getPartialColumns());
+    avg.add(row(10L, 4L), 0);
+    // a partition with no values of x
+    avg.add(row(null, 0L), 0);
+    avg.add(row(20L, 1L), 0);
+    assertEquals(6.0, avg.result(1));
+    // the scale applies to the sum and the count alike
+    assertEquals(6.0, avg.result(3));
+  }
+
+  @Test
+  void avgOfDecimalsIsDecimal() {
+    IncrementalAggregate avg = create("avg", "x");
+    avg.add(row(new BigDecimal("1.0"), 2L), 0);
+    avg.add(row(new BigDecimal("2.0"), 2L), 0);
+    assertEquals(0, new BigDecimal("0.75").compareTo((BigDecimal) avg.result(1)));
+  }
+
+  @Test
+  void avgOfNoValuesIsNull() {
+    IncrementalAggregate avg = create("avg", "x");
+    avg.add(row(null, 0L), 0);
+    assertNull(avg.result(1));
+  }
+
+  @Test
+  void varianceAcrossPartitions() {
+    // values far from zero, where sums of squares would lose the variance
+    double[] values = new double[100];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = 1e9 + (i % 7) * 0.5 + i * 0.01;
+    }
+    int[] bounds = {0, 13, 13, 50, 100};
+
+    IncrementalAggregate varPop = create("var_pop", "x");
+    IncrementalAggregate varSamp = create("var_samp", "x");
+    IncrementalAggregate stddev = create("stddev", "x");
+    for (int p = 0; p + 1 < bounds.length; p++) {
+      double[] part = range(values, bounds[p], bounds[p + 1]);
+      Object[] partial = part.length == 0
+          ? row(0L, null, null)
+          : row((long) part.length, mean(part), varPop(part));
+      varPop.add(partial, 0);
+      varSamp.add(partial, 0);
+      stddev.add(partial, 0);
+    }
+
+    double expected = varPop(values);
+    int n = values.length;
+    assertEquals(expected, (Double) varPop.result(1), expected * 1e-6);
+    assertEquals(expected * n / (n - 1), (Double) varSamp.result(1), expected * 1e-6);
+    assertEquals(Math.sqrt(expected * n / (n - 1)), (Double) stddev.result(1), 1e-6);
+  }
+
+  @Test
+  void mergedVarianceAccumulators() {
+    double[] values = {1, 2, 4, 8, 16, 32};
+    IncrementalAggregate a = create("var_pop", "x");
+    IncrementalAggregate b = create("var_pop", "x");
+    a.add(row(2L, mean(range(values, 0, 2)), varPop(range(values, 0, 2))), 0);
+    b.add(row(4L, mean(range(values, 2, 6)), varPop(range(values, 2, 6))), 0);
+    a.merge(b);
+    assertEquals(varPop(values), (Double) a.result(1), 1e-12);
+  }
+
+  @Test
+  void sampleVarianceNeedsTwoValues() {
+    IncrementalAggregate varSamp = create("var_samp", "x");
+    varSamp.add(row(null, null, null), 0);
+    assertNull(varSamp.result(1));
+    varSamp.add(row(1L, 3.0, 0.0), 0);
+    assertNull(varSamp.result(1));
+
+    IncrementalAggregate varPop = create("var_pop", "x");
+    varPop.add(row(1L, 3.0, 0.0), 0);
+    assertEquals(0.0, varPop.result(1));
+  }
+
+  @Test
+  void corrAcrossPartitions() {
+    // large means and small spreads, where raw co-moments would cancel out
+    double[] x = new double[60];
+    double[] y = new double[60];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = 1e8 + i;
+      y[i] = 5e7 - 2 * i + (i % 3);
+    }
+    int[] bounds = {0, 20, 20, 41, 60};
+
+    IncrementalAggregate corr = create("corr", "x", "y");
+    assertEquals(6, corr.getPartialColumns().size());
+    for (int p = 0; p + 1 < bounds.length; p++) {
+      double[] px = range(x, bounds[p], bounds[p + 1]);
+      double[] py = range(y, bounds[p], bounds[p + 1]);
+      if (px.length == 0) {
+        corr.add(row(0L, null, null, null, null, null), 0);
+        continue;
+      }
+      corr.add(row((long) px.length, mean(px), mean(py), varPop(px), varPop(py),
+          varPop(plus(px, py))), 0);
+    }
+
+    double mx = mean(x);
+    double my = mean(y);
+    double sxy = 0;
+    double sxx = 0;
+    double syy = 0;
+    for (int i = 0; i < x.length; i++) {
+      sxy += (x[i] - mx) * (y[i] - my);
+      sxx += (x[i] - mx) * (x[i] - mx);
+      syy += (y[i] - my) * (y[i] - my);
+    }
+    double expected = sxy / Math.sqrt(sxx * syy);
+    double actual = (Double) corr.result(1);
+    assertEquals(expected, actual, 1e-6);
+    assertTrue(actual < -0.99);
+  }
+
+  @Test
+  void corrOfConstantIsNull() {
+    IncrementalAggregate corr = create("corr", "x", "y");
+    corr.add(row(3L, 1.0, 2.0, 0.0, 1.0, 1.0), 0);
+    assertNull(corr.result(1));
+  }
+
+  @Test
+  void minAndMaxSkipNullPartitions() {
+    IncrementalAggregate min = create("min", "x");
+    IncrementalAggregate max = create("max", "x");
+    for (Object value : new Object[] {null, 5, 2L, null, new BigDecimal("7.5")}) {
+      min.add(row(value), 0);
+      max.add(row(value), 0);
+    }
+    assertEquals(2L, min.result(1));
+    assertEquals(new BigDecimal("7.5"), max.result(1));
+
+    IncrementalAggregate strings = create("min", "s");
+    strings.add(row("pear"), 0);
+    strings.add(row("apple"), 0);
+    assertEquals("apple", strings.result(1));
+  }
+
+  @Test
+  void partialColumnsFollowEachOther() {
+    IncrementalAggregate count = create("count", "x");
+    IncrementalAggregate avg = create("avg", "y");
+    Object[] partial = row(4L, 10.0, 5L);
+    count.add(partial, 0);
+    avg.add(partial, count.getPartialColumns().size());
+    assertEquals(4L, count.result(1));
+    assertEquals(2.0, avg.result(1));
+  }
+
+  @Test
+  void unsupportedFunction() {
+    assertNull(create("median", "x"));
+    assertNull(create("corr", "x"));
+  }
+}